@@ -15,6 +15,7 @@
  */
 package de.locked.aggregation;
 
+import java.lang.annotation.Annotation;
 import java.util.Collection;
 
 public abstract class AbstractAggregate {
@@ -22,9 +23,9 @@ public abstract class AbstractAggregate {
     /**
      * The annotation that belongs to this aggregation
      */
-    private final Class annotation;
+    private final Class<? extends Annotation> annotation;
 
-    public AbstractAggregate(Class clazz) {
+    public AbstractAggregate(Class<? extends Annotation> clazz) {
         if (!clazz.isAnnotation()) {
             throw new IllegalArgumentException("class must ne an annotation");
         }
@@ -33,6 +34,17 @@ public abstract class AbstractAggregate {
 
     public abstract AbstractAggregate getInstance();
 
+    /**
+     * Creates the instance for a field that carries the given annotation. Aggregates that can be configured by
+     * attributes of their annotation override this method, all others return {@link #getInstance()}.
+     *
+     * @param annotation the annotation of the field
+     * @return a new instance that is used as template for all groups
+     */
+    public AbstractAggregate getInstance(Annotation annotation) {
+        return getInstance();
+    }
+
     public void apply(Object o) {
         throw new UnsupportedOperationException();
     }
@@ -49,6 +61,31 @@ public abstract class AbstractAggregate {
         throw new UnsupportedOperationException();
     }
 
+    /**
+     * Applies a run of values that all belong to the same group, see {@link Container#aggregateAll(java.util.List)}.
+     * Numeric aggregates override this with a loop that keeps the accumulators in local variables.
+     *
+     * @param values the values
+     * @param from first index, inclusive
+     * @param to last index, exclusive
+     */
+    public void applyAll(double[] values, int from, int to) {
+        for (int i = from; i < to; i++) {
+            apply(values[i]);
+        }
+    }
+
+    /**
+     * Creates an instance that can retract values, see {@link RetractableAggregate}. Aggregates that need additional
+     * state for that, like the value counts of {@link MinAggregate}, only keep it in these instances; invertible
+     * aggregates return {@link #getInstance()}.
+     *
+     * @return a new instance that is used as template for all groups
+     */
+    public AbstractAggregate getRetractableInstance() {
+        return getInstance();
+    }
+
     public Object getObject() {
         throw new UnsupportedOperationException();
     }
@@ -73,7 +110,7 @@ public abstract class AbstractAggregate {
         throw new UnsupportedOperationException();
     }
 
-    public Class getAnnotation() {
+    public Class<? extends Annotation> getAnnotation() {
         return annotation;
     }
 
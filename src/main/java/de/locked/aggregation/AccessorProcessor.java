@@ -0,0 +1,242 @@
+/*
+ * Copyright 2013 Dr. Franz Graf.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.locked.aggregation;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+
+/**
+ * Annotation processor that generates an {@link EntityAccessor} for every class with public {@link Id} fields
+ * (declared or inherited).
+ *
+ * The accessor reads all public instance fields of the class with plain field accesses and calls all annotated
+ * public getter methods directly, so the container neither needs reflection nor <code>setAccessible</code> to read
+ * entities. Methods are listed as <code>name()</code> in {@link EntityAccessor#getFieldNames()}.
+ *
+ * Only the field access is generated. The container still collects the keys of an entity in an
+ * <code>Object[]</code> and passes the values to the aggregates of the group through {@link AbstractAggregate}, so
+ * there is no generated key class or aggregation loop per entity class.
+ *
+ * The processor is registered as a service and thus runs automatically when the library is on the compile
+ * classpath. It only claims the annotations of this library, so it just runs for compilations that use them. Classes
+ * that can't be accessed from generated code in their package (private or local classes) are skipped and fall back
+ * to reflection.
+ */
+@SupportedAnnotationTypes("de.locked.aggregation.*")
+public class AccessorProcessor extends AbstractProcessor {
+
+    /**
+     * suffix of the generated class name
+     */
+    static final String SUFFIX = "_Accessor";
+
+    // the field types returned by the typed getters of the accessor
+    private static final Set<TypeKind> NUMERIC = EnumSet.of(TypeKind.BYTE, TypeKind.SHORT, TypeKind.INT,
+            TypeKind.LONG, TypeKind.FLOAT, TypeKind.DOUBLE, TypeKind.CHAR);
+    private static final Set<TypeKind> INTEGRAL = EnumSet.of(TypeKind.BYTE, TypeKind.SHORT, TypeKind.INT,
+            TypeKind.LONG);
+    private static final Set<TypeKind> CHAR = EnumSet.of(TypeKind.CHAR);
+    private static final Set<TypeKind> BOOLEAN = EnumSet.of(TypeKind.BOOLEAN);
+
+    private final Set<String> generated = new HashSet<>();
+
+    /**
+     * Name of the accessor class for an entity class. Nested classes are flattened into a top level class of the
+     * same package: <code>pkg.Outer$Inner</code> becomes <code>pkg.Outer_Inner_Accessor</code>.
+     *
+     * @param binaryName binary name of the entity class
+     * @return the binary name of the accessor class
+     */
+    static String accessorName(String binaryName) {
+        int dot = binaryName.lastIndexOf('.');
+        return binaryName.substring(0, dot + 1) + binaryName.substring(dot + 1).replace('$', '_') + SUFFIX;
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        for (TypeElement type : ElementFilter.typesIn(roundEnv.getRootElements())) {
+            process(type);
+        }
+        return false;
+    }
+
+    private void process(TypeElement type) {
+        for (TypeElement nested : ElementFilter.typesIn(type.getEnclosedElements())) {
+            process(nested);
+        }
+        if (!isAccessible(type)) {
+            return;
+        }
+        List<Element> fields = new ArrayList<>();
+        Set<String> names = new HashSet<>();
+        boolean hasId = false;
+        List<? extends Element> members = processingEnv.getElementUtils().getAllMembers(type);
+        for (VariableElement field : ElementFilter.fieldsIn(members)) {
+            Set<Modifier> modifiers = field.getModifiers();
+            if (!modifiers.contains(Modifier.PUBLIC) || modifiers.contains(Modifier.STATIC)) {
+                continue;
+            }
+            if (!names.add(field.getSimpleName().toString())) {
+                return; // hidden fields can't be told apart by name
+            }
+            fields.add(field);
+            hasId |= field.getAnnotation(Id.class) != null;
+        }
+        if (!hasId) {
+            return;
+        }
+        for (ExecutableElement method : ElementFilter.methodsIn(members)) {
+            Set<Modifier> modifiers = method.getModifiers();
+            if (modifiers.contains(Modifier.PUBLIC) && !modifiers.contains(Modifier.STATIC)
+                    && method.getParameters().isEmpty() && method.getThrownTypes().isEmpty()
+                    && method.getReturnType().getKind() != TypeKind.VOID && isAnnotated(method)) {
+                fields.add(method);
+            }
+        }
+        String name = accessorName(processingEnv.getElementUtils().getBinaryName(type).toString());
+        if (generated.add(name)) {
+            write(type, name, fields);
+        }
+    }
+
+    /**
+     * @return true if the method carries an annotation that may bind it to an aggregate
+     */
+    private boolean isAnnotated(ExecutableElement method) {
+        for (AnnotationMirror annotation : method.getAnnotationMirrors()) {
+            String name = annotation.getAnnotationType().toString();
+            if (!name.startsWith("java.") && !name.startsWith("jdk.")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return true if code in the package of the type can refer to it by its canonical name
+     */
+    private boolean isAccessible(TypeElement type) {
+        for (Element e = type; e.getKind() != ElementKind.PACKAGE; e = e.getEnclosingElement()) {
+            if (!e.getKind().isClass() && !e.getKind().isInterface()) {
+                return false;
+            }
+            if (e.getModifiers().contains(Modifier.PRIVATE)) {
+                return false;
+            }
+            NestingKind nesting = ((TypeElement) e).getNestingKind();
+            if (nesting == NestingKind.LOCAL || nesting == NestingKind.ANONYMOUS) {
+                return false;
+            }
+        }
+        return type.getKind() == ElementKind.CLASS;
+    }
+
+    private void write(TypeElement type, String accessorName, List<Element> fields) {
+        String entity = processingEnv.getTypeUtils().erasure(type.asType()).toString();
+        int dot = accessorName.lastIndexOf('.');
+        String simpleName = accessorName.substring(dot + 1);
+        StringBuilder s = new StringBuilder();
+        if (dot > 0) {
+            s.append("package ").append(accessorName.substring(0, dot)).append(";\n\n");
+        }
+        s.append("/**\n * Generated by ").append(getClass().getName()).append(" for {@link ").append(entity)
+                .append("}.\n */\n");
+        s.append("@SuppressWarnings(\"rawtypes\")\n");
+        s.append("public final class ").append(simpleName).append(" implements ")
+                .append(EntityAccessor.class.getName()).append('<').append(entity).append("> {\n\n");
+
+        s.append("    private static final String[] FIELDS = {");
+        for (int i = 0; i < fields.size(); i++) {
+            s.append(i == 0 ? "" : ", ").append('"').append(accessOf(fields.get(i))).append('"');
+        }
+        s.append("};\n\n");
+        s.append("    @Override\n    public String[] getFieldNames() {\n        return FIELDS.clone();\n    }\n");
+
+        writeGetter(s, entity, "Object", "get", fields, null);
+        writeGetter(s, entity, "double", "getDouble", fields, NUMERIC);
+        writeGetter(s, entity, "long", "getLong", fields, INTEGRAL);
+        writeGetter(s, entity, "char", "getChar", fields, CHAR);
+        writeGetter(s, entity, "boolean", "getBoolean", fields, BOOLEAN);
+        s.append("}\n");
+
+        try (Writer w = processingEnv.getFiler().createSourceFile(accessorName, type).openWriter()) {
+            w.write(s.toString());
+        } catch (IOException ex) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                    "Couldn't write " + accessorName + ": " + ex.getMessage(), type);
+        }
+    }
+
+    /**
+     * @return the name of a field or the call of a getter method
+     */
+    private static String accessOf(Element member) {
+        return member.getSimpleName() + (member.getKind() == ElementKind.METHOD ? "()" : "");
+    }
+
+    /**
+     * @return the type of a field or the return type of a getter method
+     */
+    private static TypeMirror typeOf(Element member) {
+        return member.getKind() == ElementKind.METHOD
+                ? ((ExecutableElement) member).getReturnType()
+                : member.asType();
+    }
+
+    /**
+     * Writes a switch over the field positions that returns the value of all fields of the given kinds.
+     */
+    private void writeGetter(StringBuilder s, String entity, String returnType, String method,
+            List<Element> fields, Set<TypeKind> kinds) {
+        s.append("\n    @Override\n    public ").append(returnType).append(' ').append(method).append('(')
+                .append(entity).append(" entity, int field) {\n        switch (field) {\n");
+        for (int i = 0; i < fields.size(); i++) {
+            TypeMirror fieldType = typeOf(fields.get(i));
+            if (kinds == null || kinds.contains(fieldType.getKind())) {
+                s.append("            case ").append(i).append(":\n                return entity.")
+                        .append(accessOf(fields.get(i))).append(";\n");
+            }
+        }
+        s.append("            default:\n                throw new IllegalArgumentException(\"Field \" + field")
+                .append(" + \" can't be read by ").append(method).append("\");\n        }\n    }\n");
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2013 Dr. Franz Graf.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.locked.aggregation;
+
+import java.lang.annotation.Annotation;
+
+/**
+ * Typed alternative to extending {@link AbstractAggregate}.
+ *
+ * An aggregate function declares the type of values it consumes and keeps its per group state in an object of type
+ * <code>S</code> that is created, updated, merged and finally converted into the result by the function itself. The
+ * function object is stateless and shared by all groups; each group holds its state in a small adapter next to the
+ * other aggregates of the group. Whether the state is mutated in place or replaced is up to the function: the
+ * container always continues with the returned state.
+ *
+ * The input type is checked against the type of the annotated field when the container is prepared. A function
+ * consuming <code>Number</code> can thus be used on all numeric fields, one consuming <code>Integer</code> only on
+ * <code>int</code> fields. Values are passed boxed; functions over numeric fields that should receive primitive
+ * values implement {@link DoubleAggregateFunction}.
+ *
+ * Functions are registered by {@link Container#registerAggregate(de.locked.aggregation.AggregateFunction)}.
+ *
+ * @param <I> type of the input values
+ * @param <S> type of the per group state
+ * @param <R> type of the result
+ */
+public interface AggregateFunction<I, S, R> {
+
+    /**
+     * @return the annotation that marks the fields this function is applied to
+     */
+    Class<? extends Annotation> getAnnotation();
+
+    /**
+     * @return the type of the input values; primitive fields are passed as their wrapper types
+     */
+    Class<I> getInputType();
+
+    /**
+     * @return a new, empty state
+     */
+    S createState();
+
+    /**
+     * Adds a value to the state.
+     *
+     * @param state the current state
+     * @param value the value of the annotated field
+     * @return the new state
+     */
+    S accumulate(S state, I value);
+
+    /**
+     * Combines two states, e.g. of two partial aggregations of the same group.
+     *
+     * @param left the state of this group
+     * @param right the state that should be added, must not be modified
+     * @return the combined state
+     */
+    S merge(S left, S right);
+
+    /**
+     * @param state the state of a group
+     * @return the result of the aggregation
+     */
+    R finish(S state);
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2013 Dr. Franz Graf.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.locked.aggregation;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.lang.annotation.Annotation;
+
+/**
+ * Keeps the payload of the entity with the largest value, see {@link ArgMax}.
+ */
+public class ArgMaxAggregate extends AbstractAggregate implements PayloadAggregate, ExchangeableAggregate {
+
+    boolean empty = true;
+    double value;
+    Object payload;
+
+    public ArgMaxAggregate() {
+        this(ArgMax.class);
+    }
+
+    protected ArgMaxAggregate(Class<? extends Annotation> annotation) {
+        super(annotation);
+    }
+
+    /**
+     * @param candidate the new value
+     * @param current the value kept so far
+     * @return true if the candidate replaces the current value
+     */
+    protected boolean wins(double candidate, double current) {
+        return candidate > current;
+    }
+
+    @Override
+    public void apply(double v, Object payload) {
+        if (empty || wins(v, value)) {
+            empty = false;
+            value = v;
+            this.payload = payload;
+        }
+    }
+
+    @Override
+    public void merge(AbstractAggregate other) {
+        ArgMaxAggregate o = (ArgMaxAggregate) other;
+        if (!o.empty) {
+            apply(o.value, o.payload);
+        }
+    }
+
+    @Override
+    public void writeState(DataOutput out) throws IOException {
+        out.writeBoolean(empty);
+        out.writeDouble(value);
+        StateIO.writeValue(out, payload);
+    }
+
+    @Override
+    public void readState(DataInput in) throws IOException {
+        empty = in.readBoolean();
+        value = in.readDouble();
+        payload = StateIO.readValue(in);
+    }
+
+    @Override
+    public AbstractAggregate getInstance() {
+        return new ArgMaxAggregate();
+    }
+
+    @Override
+    public Object getObject() {
+        return payload;
+    }
+}
@@ -16,13 +16,21 @@
 package de.locked.aggregation;
 
 import static java.lang.annotation.ElementType.FIELD;
+import static java.lang.annotation.ElementType.METHOD;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.lang.annotation.Target;
 
 @Retention(RetentionPolicy.RUNTIME)
-@Target(value = {FIELD})
+@Target(value = {FIELD, METHOD})
 public @interface Avg {
 
     String alias();
+
+    /**
+     * Views in which this aggregate is computed as well, see {@link Id#views()}. Empty for all views.
+     *
+     * @return names of the views
+     */
+    String[] views() default {};
 }
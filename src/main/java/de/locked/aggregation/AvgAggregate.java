@@ -15,11 +15,15 @@
  */
 package de.locked.aggregation;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
 /**
  *
  * @author Franz
  */
-public class AvgAggregate extends AbstractAggregate {
+public class AvgAggregate extends AbstractAggregate implements RetractableAggregate, ExchangeableAggregate {
 
     private int i = 0;
     private double sum = 0;
@@ -34,6 +38,31 @@ public class AvgAggregate extends AbstractAggregate {
         sum += v;
     }
 
+    @Override
+    public void retract(double v) {
+        i--;
+        sum -= v;
+    }
+
+    @Override
+    public void merge(AbstractAggregate other) {
+        AvgAggregate o = (AvgAggregate) other;
+        i += o.i;
+        sum += o.sum;
+    }
+
+    @Override
+    public void writeState(DataOutput out) throws IOException {
+        out.writeInt(i);
+        out.writeDouble(sum);
+    }
+
+    @Override
+    public void readState(DataInput in) throws IOException {
+        i = in.readInt();
+        sum = in.readDouble();
+    }
+
     @Override
     public double getDouble() {
         return sum / i;
@@ -0,0 +1,35 @@
+/*
+ * Copyright 2013 Dr. Franz Graf.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.locked.aggregation;
+
+/**
+ * What happens if a producer hands a batch to a full queue.
+ */
+public enum Backpressure {
+
+    /**
+     * wait until the queue has space again
+     */
+    BLOCK,
+    /**
+     * throw an IllegalStateException, the batch is not aggregated
+     */
+    FAIL,
+    /**
+     * silently discard the batch (but count the discarded entities)
+     */
+    DROP
+}
@@ -0,0 +1,371 @@
+/*
+ * Copyright 2013 Dr. Franz Graf.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.locked.aggregation;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Worker threads that each aggregate batches from their own bounded queue into their own container, shared by
+ * {@link IngestionPipeline} and {@link ShardedContainer}.
+ *
+ * Entities are routed to the workers by the hash of their <code>@Id</code> fields, so the containers hold disjoint
+ * groups and their results can simply be concatenated. Producers fill one batch per worker; they are spread over
+ * several stripes of batches to reduce contention. Full batches are queued according to a {@link Backpressure}
+ * policy, partial batches are queued by {@link #flush()}.
+ *
+ * @param <T> the entity class
+ */
+final class BatchWorkers<T> {
+
+    /**
+     * time between two checks whether a worker is still alive while close waits for space in its queue
+     */
+    private static final long CLOSE_POLL_MILLIS = 100;
+
+    private final ContainerFactory<T> factory;
+    private final int batchSize;
+    /**
+     * what is closed, for error messages
+     */
+    private final String owner;
+    private final List<Worker> workers = new ArrayList<>();
+    /**
+     * batches that are filled by the producers, one per worker in every stripe
+     */
+    private final List<Stripe> stripes = new ArrayList<>();
+    /**
+     * prepared container that is only used to compute the key hash of the entities
+     */
+    private volatile Container<T> router;
+    private final Object routerLock = new Object();
+
+    /**
+     * marker that stops a worker
+     */
+    private final List<T> poison = new ArrayList<>(0);
+
+    /**
+     * guards {@link #pending}
+     */
+    private final Object lock = new Object();
+    /**
+     * number of batches that were queued but not yet processed
+     */
+    private long pending = 0;
+    private volatile Throwable failure;
+    private final AtomicLong dropped = new AtomicLong();
+    private volatile boolean closed = false;
+
+    /**
+     * Creates the workers and starts their threads.
+     *
+     * @param factory creates the container of each worker
+     * @param count number of workers
+     * @param batchSize number of entities that are handed to a worker at once
+     * @param capacity number of batches that can be queued per worker
+     * @param name prefix of the thread names, followed by the number of the worker
+     * @param owner what is closed, for error messages
+     */
+    BatchWorkers(ContainerFactory<T> factory, int count, int batchSize, int capacity, String name, String owner) {
+        this.factory = factory;
+        this.batchSize = batchSize;
+        this.owner = owner;
+        for (int i = 0; i < count; i++) {
+            Worker worker = new Worker(factory.create(), capacity, name + i);
+            workers.add(worker);
+            worker.start();
+        }
+        int stripeCount = Integer.highestOneBit(Runtime.getRuntime().availableProcessors()) * 2;
+        for (int i = 0; i < stripeCount; i++) {
+            stripes.add(new Stripe());
+        }
+    }
+
+    int size() {
+        return workers.size();
+    }
+
+    /**
+     * Adds the entity to the batch of its worker and queues the batch if it is full.
+     *
+     * @param entity the entity
+     * @param policy what to do if the queue of the worker is full
+     * @throws IllegalStateException if the workers were closed, a worker failed or the queue is full and the policy
+     * is {@link Backpressure#FAIL}
+     */
+    void add(T entity, Backpressure policy) {
+        checkOpen();
+        int worker = workerOf(entity);
+        Stripe stripe = stripes.get((int) (Thread.currentThread().getId() & (stripes.size() - 1)));
+        List<T> full = null;
+        synchronized (stripe) {
+            List<T> batch = stripe.batches.get(worker);
+            batch.add(entity);
+            if (batch.size() >= batchSize) {
+                full = batch;
+                stripe.batches.set(worker, new ArrayList<T>(batchSize));
+            }
+        }
+        if (full != null) {
+            enqueue(worker, full, policy);
+        }
+    }
+
+    /**
+     * Queues the partial batches, waiting for space regardless of any policy, and waits until all queued batches
+     * are processed.
+     *
+     * @throws InterruptedException if the thread was interrupted while waiting
+     * @throws IllegalStateException if a worker failed
+     */
+    void flush() throws InterruptedException {
+        for (Stripe stripe : stripes) {
+            List<List<T>> partial = new ArrayList<>(workers.size());
+            synchronized (stripe) {
+                for (int i = 0; i < workers.size(); i++) {
+                    partial.add(stripe.batches.get(i));
+                    stripe.batches.set(i, new ArrayList<T>(batchSize));
+                }
+            }
+            for (int i = 0; i < workers.size(); i++) {
+                if (!partial.get(i).isEmpty()) {
+                    enqueue(i, partial.get(i), Backpressure.BLOCK);
+                }
+            }
+        }
+        synchronized (lock) {
+            while (pending > 0 && failure == null) {
+                lock.wait();
+            }
+        }
+        checkFailure();
+    }
+
+    /**
+     * @return number of entities that were discarded with {@link Backpressure#DROP}
+     */
+    long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * @param entity the entity
+     * @return the worker owning the group of the entity
+     */
+    int workerOf(T entity) {
+        return workerOf(router(entity).keyHash(entity));
+    }
+
+    /**
+     * Maps the key hash to a worker. The hash is spread first, as the containers of the workers use its low bits.
+     *
+     * @param hash hash of the group key
+     * @return the worker
+     */
+    int workerOf(int hash) {
+        return ((hash * 0x9E3779B9) >>> 1) % workers.size();
+    }
+
+    private Container<T> router(T entity) {
+        Container<T> r = router;
+        if (r == null) {
+            synchronized (routerLock) {
+                if (router == null) {
+                    Container<T> c = factory.create();
+                    c.keyHash(entity); // prepares the container
+                    router = c;
+                }
+                r = router;
+            }
+        }
+        return r;
+    }
+
+    /**
+     * Hands a batch to a worker.
+     *
+     * @param worker the worker
+     * @param batch the batch
+     * @param policy what to do if the queue is full
+     * @throws IllegalStateException if the thread was interrupted while waiting or the queue is full and the policy
+     * is {@link Backpressure#FAIL}
+     */
+    private void enqueue(int worker, List<T> batch, Backpressure policy) {
+        synchronized (lock) {
+            pending++;
+        }
+        BlockingQueue<List<T>> queue = workers.get(worker).queue;
+        if (policy == Backpressure.BLOCK) {
+            try {
+                queue.put(batch);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                done();
+                throw new IllegalStateException("Interrupted while waiting for the queue", ex);
+            }
+        } else if (!queue.offer(batch)) {
+            done();
+            if (policy == Backpressure.FAIL) {
+                throw new IllegalStateException("Queue is full, " + batch.size() + " entities were rejected");
+            }
+            dropped.addAndGet(batch.size());
+        }
+    }
+
+    /**
+     * Merges the containers of all workers.
+     *
+     * @param result the container to merge into
+     */
+    void mergeInto(Container<T> result) {
+        for (Worker worker : workers) {
+            synchronized (worker.lock) {
+                result.merge(worker.container);
+            }
+        }
+    }
+
+    /**
+     * @return read only view of the groups of all workers, which must only be read while no batches are queued
+     */
+    Collection<Container.Result> results() {
+        List<Collection<Container.Result>> parts = new ArrayList<>(workers.size());
+        for (Worker worker : workers) {
+            synchronized (worker.lock) {
+                parts.add(worker.container.getResults());
+            }
+        }
+        return new ConcatenatedCollection<>(parts);
+    }
+
+    /**
+     * Stops the workers after they processed all queued batches. Entities in partial batches are discarded. A
+     * worker that died doesn't block closing. Closing twice has no effect.
+     *
+     * If the thread is interrupted, it stops waiting for the workers, which finish in the background, and keeps its
+     * interrupt status.
+     */
+    void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            for (Worker worker : workers) {
+                while (!worker.queue.offer(poison, CLOSE_POLL_MILLIS, TimeUnit.MILLISECONDS) && worker.isAlive()) {
+                    // the worker is still busy with its queue
+                }
+            }
+            for (Worker worker : workers) {
+                worker.join();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @throws IllegalStateException if the workers were closed or a worker failed
+     */
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("The " + owner + " is closed");
+        }
+        checkFailure();
+    }
+
+    /**
+     * @throws IllegalStateException if a worker failed
+     */
+    private void checkFailure() {
+        if (failure != null) {
+            throw new IllegalStateException("A worker failed", failure);
+        }
+    }
+
+    /**
+     * Marks one queued batch as processed.
+     */
+    private void done() {
+        synchronized (lock) {
+            pending--;
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * The batches of one stripe, guarded by the stripe.
+     */
+    private final class Stripe {
+
+        private final List<List<T>> batches = new ArrayList<>(workers.size());
+
+        Stripe() {
+            for (int i = 0; i < workers.size(); i++) {
+                batches.add(new ArrayList<T>(batchSize));
+            }
+        }
+    }
+
+    /**
+     * Thread that aggregates batches into its own container. The container is guarded by the lock.
+     */
+    private final class Worker extends Thread {
+
+        private final Container<T> container;
+        private final BlockingQueue<List<T>> queue;
+        private final Object lock = new Object();
+
+        Worker(Container<T> container, int capacity, String name) {
+            super(name);
+            this.container = container;
+            this.queue = new ArrayBlockingQueue<>(capacity);
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                List<T> batch;
+                try {
+                    batch = queue.take();
+                } catch (InterruptedException ex) {
+                    return;
+                }
+                if (batch == poison) {
+                    return;
+                }
+                try {
+                    synchronized (lock) {
+                        for (T entity : batch) {
+                            container.aggregate(entity);
+                        }
+                    }
+                } catch (RuntimeException | Error ex) {
+                    failure = ex;
+                } finally {
+                    done();
+                }
+            }
+        }
+    }
+}
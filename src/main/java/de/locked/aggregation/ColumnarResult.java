@@ -0,0 +1,275 @@
+/*
+ * Copyright 2013 Dr. Franz Graf.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.locked.aggregation;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The groups of a container in columnar form, see {@link Container#exportColumns()}.
+ *
+ * There is one array per key field and one per alias, row <code>i</code> of all arrays belongs to the same group.
+ * Key columns are <code>int[]</code>, <code>long[]</code> or <code>double[]</code> for primitive key fields and
+ * <code>Object[]</code> otherwise. Alias columns hold the value of {@link AbstractAggregate#getDouble()} or, for
+ * aggregates without a numeric result and for aggregate functions, the value of
+ * {@link AbstractAggregate#getObject()}.
+ */
+public final class ColumnarResult {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final int size;
+    private final List<String> keyNames;
+    private final Object[] keyColumns;
+    private final List<String> aliases;
+    /**
+     * numeric alias columns, null for object columns
+     */
+    private final double[][] numbers;
+    /**
+     * object alias columns, null for numeric columns
+     */
+    private final Object[][] objects;
+
+    ColumnarResult(int size, List<String> keyNames, Object[] keyColumns, List<String> aliases, double[][] numbers,
+            Object[][] objects) {
+        this.size = size;
+        this.keyNames = Collections.unmodifiableList(keyNames);
+        this.keyColumns = keyColumns;
+        this.aliases = Collections.unmodifiableList(aliases);
+        this.numbers = numbers;
+        this.objects = objects;
+    }
+
+    /**
+     * @return number of groups, which is the length of every column
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return names of the key fields in the order of the keys
+     */
+    public List<String> getKeyNames() {
+        return keyNames;
+    }
+
+    public List<String> getAliases() {
+        return aliases;
+    }
+
+    /**
+     * @param i index of the key field
+     * @return the <code>int[]</code>, <code>long[]</code>, <code>double[]</code> or <code>Object[]</code> with the
+     * values of the key field
+     */
+    public Object getKeyColumn(int i) {
+        return keyColumns[i];
+    }
+
+    /**
+     * @param alias the alias
+     * @return true if the column of the alias is a <code>double[]</code>
+     */
+    public boolean isNumeric(String alias) {
+        return numbers[indexOf(alias)] != null;
+    }
+
+    /**
+     * @param alias the alias
+     * @return the values of the alias
+     * @throws IllegalStateException if the aggregate of the alias has no numeric result
+     */
+    public double[] getColumn(String alias) {
+        double[] column = numbers[indexOf(alias)];
+        if (column == null) {
+            throw new IllegalStateException("Alias " + alias + " has no numeric result");
+        }
+        return column;
+    }
+
+    /**
+     * @param alias the alias
+     * @return the values of the alias
+     * @throws IllegalStateException if the column of the alias is numeric
+     */
+    public Object[] getObjectColumn(String alias) {
+        Object[] column = objects[indexOf(alias)];
+        if (column == null) {
+            throw new IllegalStateException("Alias " + alias + " is numeric");
+        }
+        return column;
+    }
+
+    /**
+     * Writes the columns as CSV with a header line, encoded as UTF-8. The rows are formatted into reused buffers,
+     * the channel is not closed.
+     *
+     * @param channel the target, e.g. a FileChannel
+     * @throws IOException if writing fails
+     */
+    public void writeCsv(WritableByteChannel channel) throws IOException {
+        CsvWriter writer = new CsvWriter(channel);
+        for (int k = 0; k < keyNames.size(); k++) {
+            writer.appendText(keyNames.get(k));
+        }
+        for (String alias : aliases) {
+            writer.appendText(alias);
+        }
+        writer.endLine();
+        for (int row = 0; row < size; row++) {
+            for (Object column : keyColumns) {
+                if (column instanceof int[]) {
+                    writer.append(((int[]) column)[row]);
+                } else if (column instanceof long[]) {
+                    writer.append(((long[]) column)[row]);
+                } else if (column instanceof double[]) {
+                    writer.append(((double[]) column)[row]);
+                } else {
+                    writer.appendText(((Object[]) column)[row]);
+                }
+            }
+            for (int a = 0; a < numbers.length; a++) {
+                if (numbers[a] != null) {
+                    writer.append(numbers[a][row]);
+                } else {
+                    writer.appendText(objects[a][row]);
+                }
+            }
+            writer.endLine();
+        }
+        writer.finish();
+    }
+
+    private int indexOf(String alias) {
+        int i = aliases.indexOf(alias);
+        if (i < 0) {
+            throw new IllegalArgumentException("Unknown alias " + alias);
+        }
+        return i;
+    }
+
+    /**
+     * Formats one line at a time into a reused char buffer and encodes it into a reused byte buffer that is written
+     * to the channel whenever it is full.
+     */
+    private static final class CsvWriter {
+
+        private final WritableByteChannel channel;
+        private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+        private final ByteBuffer bytes = ByteBuffer.allocate(BUFFER_SIZE);
+        private final StringBuilder line = new StringBuilder();
+        private CharBuffer chars = CharBuffer.allocate(256);
+        private boolean lineStart = true;
+
+        CsvWriter(WritableByteChannel channel) {
+            this.channel = channel;
+        }
+
+        void append(int v) {
+            separate().append(v);
+        }
+
+        void append(long v) {
+            separate().append(v);
+        }
+
+        void append(double v) {
+            separate().append(v);
+        }
+
+        void appendText(Object v) {
+            StringBuilder b = separate();
+            if (v == null) {
+                return;
+            }
+            String s = v.toString();
+            if (s.indexOf(',') < 0 && s.indexOf('"') < 0 && s.indexOf('\n') < 0 && s.indexOf('\r') < 0) {
+                b.append(s);
+                return;
+            }
+            b.append('"');
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                if (c == '"') {
+                    b.append('"');
+                }
+                b.append(c);
+            }
+            b.append('"');
+        }
+
+        void endLine() throws IOException {
+            line.append('\n');
+            if (chars.capacity() < line.length()) {
+                chars = CharBuffer.allocate(Math.max(line.length(), chars.capacity() * 2));
+            }
+            chars.clear();
+            line.getChars(0, line.length(), chars.array(), 0);
+            chars.limit(line.length());
+            line.setLength(0);
+            lineStart = true;
+            encode(false);
+        }
+
+        void finish() throws IOException {
+            chars.clear();
+            chars.limit(0);
+            encode(true);
+            while (encoder.flush(bytes).isOverflow()) {
+                drain();
+            }
+            drain();
+        }
+
+        private StringBuilder separate() {
+            if (!lineStart) {
+                line.append(',');
+            }
+            lineStart = false;
+            return line;
+        }
+
+        private void encode(boolean endOfInput) throws IOException {
+            while (true) {
+                CoderResult result = encoder.encode(chars, bytes, endOfInput);
+                if (result.isOverflow()) {
+                    drain();
+                } else if (result.isUnderflow()) {
+                    return;
+                } else {
+                    result.throwException();
+                }
+            }
+        }
+
+        private void drain() throws IOException {
+            bytes.flip();
+            while (bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+            bytes.clear();
+        }
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2013 Dr. Franz Graf.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.locked.aggregation;
+
+import java.util.AbstractCollection;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Read only view of several collections one after the other, e.g. of the disjoint groups of several partitions or
+ * containers.
+ *
+ * @param <E> the element type
+ */
+final class ConcatenatedCollection<E> extends AbstractCollection<E> {
+
+    private final List<? extends Collection<? extends E>> parts;
+
+    /**
+     * @param parts the collections, at least one; changes of the collections are visible in the view
+     */
+    ConcatenatedCollection(List<? extends Collection<? extends E>> parts) {
+        this.parts = parts;
+    }
+
+    @Override
+    public Iterator<E> iterator() {
+        return new Iterator<E>() {
+            private int part = 0;
+            private Iterator<? extends E> current = parts.get(0).iterator();
+
+            @Override
+            public boolean hasNext() {
+                while (!current.hasNext() && part < parts.size() - 1) {
+                    current = parts.get(++part).iterator();
+                }
+                return current.hasNext();
+            }
+
+            @Override
+            public E next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return current.next();
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+        for (Collection<? extends E> part : parts) {
+            size += part.size();
+        }
+        return size;
+    }
+}
@@ -15,19 +15,33 @@
  */
 package de.locked.aggregation;
 
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.lang.annotation.Annotation;
+import java.lang.management.ManagementFactory;
 import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Spliterator;
 import java.util.logging.Logger;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import javax.management.JMException;
+import javax.management.ObjectName;
 
 /**
  * The Container class acts as aggregation container into which simple entities are pushed and aggregated.
@@ -40,6 +54,8 @@ import java.util.logging.Logger;
  *
  * New aggregation functions must extend {@link AbstractAggregate} and must be registered in the container
  * ({@link #registerAggregate(de.locked.aggregation.AbstractAggregate)}) before the first entities are aggregated.
+ * Alternatively, a typed {@link AggregateFunction} can be registered
+ * ({@link #registerAggregate(de.locked.aggregation.AggregateFunction)}).
  *
  * <code>
  * Container&lt;Entity&gt; container = new Container<>();
@@ -52,12 +68,44 @@ import java.util.logging.Logger;
 public class Container<T> {
 
     private static final Logger LOG = Logger.getLogger(Container.class.getName());
+    /**
+     * share of lookups the combiner must answer to be worth its comparisons
+     */
+    private static final double MIN_HIT_RATE = 0.5;
+    /**
+     * estimated number of groups from which the adaptive mode partitions the table, and the groups per partition
+     */
+    private static final long PARTITION_GROUPS = 1 << 20;
+    private static final long GROUPS_PER_PARTITION = 1 << 16;
+    private static final int PARTITION_BUFFER = 256;
+    /**
+     * number of single entities after which the counters are published to other threads
+     */
+    private static final int PUBLISH_INTERVAL = 1 << 12;
+    /**
+     * the adaptive mode expects at most this many groups per sampled entity, larger estimates are not trusted
+     */
+    private static final long MAX_GROUPS_PER_SAMPLE = 16;
+    /**
+     * slots of the combiner for interleaved hot keys in adaptive mode
+     */
+    private static final int HOT_KEY_SLOTS = 64;
 
     /**
      * fields acting as primary keys
      */
     private final List<Field> idFields;
 
+    /**
+     * readers for the id fields, in the order of the key array
+     */
+    private final List<ValueReader> idReaders = new ArrayList<>();
+
+    /**
+     * whether all id fields are primitives, so that the combiner can be probed without boxing the keys
+     */
+    private boolean primitiveKeys;
+
     /**
      * aggregate objects that were registered
      */
@@ -72,22 +120,170 @@ public class Container<T> {
      * The list of aliases in the entity objects
      */
     private final List<String> aliasList = new ArrayList<>();
+    /**
+     * views of every alias, empty for all views
+     */
+    private final List<String[]> aliasViews = new ArrayList<>();
+    /**
+     * additional groupings by name, see {@link Id#views()}
+     */
+    private final Map<String, View> views = new LinkedHashMap<>();
+    /**
+     * values of the current entity per element, shared by the default grouping and all views
+     */
+    private Rows row;
+    /**
+     * layout of the records that are aggregated instead of entities, see {@link RecordFile}
+     */
+    private RecordLayout recordLayout;
 
     /**
      * Aggregation from a primary key (Key) to the aggregation. This is what you actually want to iterate afterwards!
      */
-    private final Map<Result, Result> resultAggregation;
+    private GroupTable resultAggregation;
+
+    /**
+     * the class the container was prepared with (null before the first aggregate)
+     */
+    private Class<?> entityClass;
 
     /**
      * current state of the container
      */
-    private State currentState = new OpenState();
+    private State<T> currentState = new OpenState();
+
+    /**
+     * Optional direct-mapped cache of recently used groups in front of resultAggregation (null if disabled)
+     */
+    private Result[] combiner;
+
+    /**
+     * hash codes of the keys in the combiner slots
+     */
+    private int[] combinerHashes;
+
+    /**
+     * the group table if the keys have a small domain and groups are indexed directly, null otherwise
+     */
+    private DenseGroupTable dense;
+
+    /**
+     * reusable array for reading the keys of an entity when the combiner is enabled
+     */
+    private Object[] scratchKeys;
+
+    /**
+     * receives the finished groups in sorted input mode (null if the input is not sorted)
+     */
+    private ResultSink sortedSink;
+
+    /**
+     * whether an ordering violation in sorted input mode switches to hashing instead of failing
+     */
+    private boolean fallbackToHash;
+
+    /**
+     * the only group that is held in sorted input mode
+     */
+    private Result openGroup;
+
+    /**
+     * keys and values waiting per partition in partitioned mode (null otherwise), each buffer is created on first use
+     */
+    private Rows[] pending;
+    private int pendingCapacity;
+
+    /**
+     * registered and annotated filters, resolved to elements at prepare time
+     */
+    private final List<Filter> filters = new ArrayList<>();
+    /**
+     * elements of the registered measures
+     */
+    private final List<Element> measures = new ArrayList<>();
+
+    /**
+     * whether entities can be retracted, see {@link #setRetractable(boolean)}
+     */
+    private boolean retractable = false;
+
+    /**
+     * whether snapshots may be taken by other threads, see {@link #setConcurrentSnapshots(boolean)}
+     */
+    private boolean concurrentSnapshots = false;
+    /**
+     * whether all modifications hold the write lock, as snapshots or evictIdle may be called by other threads
+     */
+    private boolean lockWrites = false;
+    /**
+     * held by all modifications if they are locked, while a snapshot collects the groups and while idle groups are
+     * evicted
+     */
+    private final Object writeLock = new Object();
+    /**
+     * allows only one snapshot at a time
+     */
+    private final Object snapshotLock = new Object();
+    /**
+     * number of the latest snapshot
+     */
+    private int epoch = 0;
+    /**
+     * whether a snapshot is copying groups, so that groups must be copied before they are modified
+     */
+    private volatile boolean copying = false;
+    /**
+     * result of every filter for the current entity
+     */
+    private boolean[] filterResults;
+    /**
+     * groups and one value column of the current chunk in {@link #aggregateAll(java.util.List)}
+     */
+    private Result[] batchGroups;
+    private double[] batchValues;
+    /**
+     * keys and values of the entities that are collected to choose the group table, see {@link #setAdaptive(int)}
+     */
+    private int sampleSize = 0;
+    private Rows sample;
+    /**
+     * expected number of groups, the entity count at which the plan is checked again and the combiner counters at
+     * the last check
+     */
+    private long estimatedGroups;
+    private long nextPlanCheck = Long.MAX_VALUE;
+    private long checkedHits;
+    private long checkedMisses;
+
+    /**
+     * whether the time spent in key lookup and aggregation is measured
+     */
+    private boolean timing = false;
+
+    //<editor-fold defaultstate="collapsed" desc="counters, see ContainerStats">
+    // plain fields only written by the aggregating thread, other threads see them as of the last publication
+    private long entityCount = 0;
+    private long groupsCreated = 0;
+    private long combinerHits = 0;
+    private long combinerMisses = 0;
+    private long keyNanos = 0;
+    private long aggregateNanos = 0;
+    /**
+     * entity count at the last publication of the counters. The aggregating thread writes it every
+     * {@link #PUBLISH_INTERVAL} entities and after every batch, merge and drain; readers read it before the counters.
+     */
+    private volatile long published = 0;
+    /**
+     * rough heap size of one group, computed at prepare time
+     */
+    private long bytesPerGroup = 0;
+    //</editor-fold>
 
     /**
      * Initialized the container and registeres the default aggregation functions
      */
     public Container() {
-        this.resultAggregation = new HashMap<>();
+        this.resultAggregation = new HashGroupTable();
         this.idFields = new ArrayList<>();
         this.aggregates = new ArrayList<>();
 
@@ -98,6 +294,14 @@ public class Container<T> {
         aggregates.add(new MinAggregate());
         aggregates.add(new MaxAggregate());
         aggregates.add(new DistinctAggregate());
+        aggregates.add(new VarianceAggregate());
+        aggregates.add(new StdDevAggregate());
+        aggregates.add(new CovarianceAggregate());
+        aggregates.add(new CorrelationAggregate());
+        aggregates.add(new ArgMaxAggregate());
+        aggregates.add(new ArgMinAggregate());
+        aggregates.add(new FirstAggregate());
+        aggregates.add(new LastAggregate());
     }
 
     /**
@@ -106,7 +310,59 @@ public class Container<T> {
      * @return Map from key to list of results
      */
     public Collection<Result> getResults() {
-        return resultAggregation.keySet();
+        drainPartitions();
+        return resultAggregation.groups();
+    }
+
+    /**
+     * Obtain the result as a spliterator that splits the group storage in place: hash tables by ranges of their
+     * buckets, partitioned tables by partitions and dense tables by ranges of their slots. Nothing is copied, so a
+     * parallel consumer can start right away. The size is exact until the spliterator is split.
+     *
+     * Groups must not be added or removed while the spliterator is used.
+     *
+     * @return a spliterator over all groups
+     */
+    public Spliterator<Result> getResultSpliterator() {
+        drainPartitions();
+        return resultAggregation.spliterator();
+    }
+
+    /**
+     * Obtain the result as a stream, e.g. for scoring or exporting the groups on all cores.
+     *
+     * @param parallel true for a parallel stream
+     * @return a stream of all groups
+     * @see #getResultSpliterator()
+     */
+    public Stream<Result> getResultStream(boolean parallel) {
+        return StreamSupport.stream(getResultSpliterator(), parallel);
+    }
+
+    /**
+     * Obtain the groups of a view, see {@link Id#views()}. Each view only holds the aggregates that are declared for
+     * it, or that don't restrict their views.
+     *
+     * Views are aggregated and merged together with the default grouping, but are neither part of snapshots nor of
+     * the exported state or columns.
+     *
+     * @param view name of the view
+     * @return the groups of the view
+     * @throws IllegalArgumentException if the entities don't declare the view
+     */
+    public Collection<Result> getResults(String view) {
+        View v = views.get(view);
+        if (v == null) {
+            throw new IllegalArgumentException("Unknown view " + view + ", available are " + views.keySet());
+        }
+        return v.table.groups();
+    }
+
+    /**
+     * @return the names of all views, empty before the first entity was aggregated
+     */
+    public Collection<String> getViews() {
+        return Collections.unmodifiableCollection(views.keySet());
     }
 
     /**
@@ -119,195 +375,2007 @@ public class Container<T> {
     }
 
     /**
-     * Checked call from the state machine at the first call to aggregate.
+     * Enables a small direct-mapped cache of recently seen keys in front of the main lookup.
      *
-     * @param clazz the class of the aggregate object.
+     * Consecutive entities with the same key (sorted or bursty input) are then resolved by a single comparison
+     * instead of building a new key object and probing the whole map. A size of 1 just remembers the previous key,
+     * larger sizes (rounded up to a power of two) also catch interleaved hot keys. A size of 0 disables the cache.
+     *
+     * Must be called before the first entity is aggregated.
+     *
+     * @param size the number of cache slots
      */
-    private void doPrepare(Class clazz) {
-//        Field[] fields = clazz.getDeclaredFields();
-        Field[] fields = clazz.getFields();
-            
-        for (Field f : fields) {
-            if (f.isAnnotationPresent(Id.class)) {
-                f.setAccessible(true);
-                idFields.add(f);
+    public void setCombinerSize(int size) {
+        currentState.configure();
+        if (size < 0) {
+            throw new IllegalArgumentException("combiner size must not be negative: " + size);
+        }
+        setCombinerSlots(size);
+    }
+
+    /**
+     * @param size the number of cache slots, rounded up to a power of two, or 0
+     */
+    private void setCombinerSlots(int size) {
+        if (size == 0) {
+            combiner = null;
+            combinerHashes = null;
+        } else {
+            int slots = Integer.highestOneBit(size);
+            if (slots < size) {
+                slots <<= 1;
             }
-            for (AbstractAggregate aggregate : aggregates) {
-                Class annotationClass = aggregate.getAnnotation();
-                if (f.isAnnotationPresent(annotationClass)) {
-                    Annotation annotation = f.getAnnotation(annotationClass);
-                    String alias = getAliasFor(annotation);
-                    Element tuple = new Element(aggregate, alias, f);
-                    aggregationMapCache.add(tuple);
-                    aliasList.add(alias);
-                }
+            combiner = new Result[slots];
+            combinerHashes = new int[slots];
+        }
+    }
+
+    /**
+     * Declares that the entities arrive sorted by their keys (in the order given by {@link Id#order()}).
+     *
+     * Instead of keeping all groups until the end, the container then only holds the current group and hands it to
+     * the sink as soon as an entity with a different key arrives. Key boundaries are detected by comparing with the
+     * previous key, so no hashing is involved. The last group is handed out by {@link #flush()}. All id fields must
+     * be of primitive or <code>Comparable</code> types.
+     *
+     * If an entity arrives whose key is smaller than the previous one, the container throws an
+     * IllegalStateException, or, if <code>fallbackToHash</code> is set, continues with hashing: the current and all
+     * later groups are then kept in the container and available by {@link #getResults()}. Keys that were already
+     * handed to the sink may thus show up a second time with the rest of their values.
+     *
+     * Must be called before the first entity is aggregated.
+     *
+     * @param sink receives each finished group
+     * @param fallbackToHash true to switch to hashing instead of failing on unsorted input
+     */
+    public void setSortedInput(ResultSink sink, boolean fallbackToHash) {
+        currentState.configure();
+        if (sink == null) {
+            throw new IllegalArgumentException("sink must not be null");
+        }
+        this.sortedSink = sink;
+        this.fallbackToHash = fallbackToHash;
+    }
+
+    /**
+     * Enables two level, radix partitioned aggregation for very large numbers of groups.
+     *
+     * The groups are split by their hash into the given number of partitions, each with its own small hash table.
+     * Entities are not aggregated immediately: their keys and values are read right away and collected per
+     * partition, and each full buffer is aggregated into its partition at once. The lookups of a buffer thus only
+     * touch one small table that stays in the CPU cache instead of missing the cache on every lookup in a single huge
+     * table. No references to the entities are kept, so they may be reused or modified as soon as
+     * {@link #aggregate(java.lang.Object)} returns. Entities that are still buffered are aggregated by
+     * {@link #flush()} and before the results are read. As the partitions don't share any groups, they can also be
+     * aggregated by separate containers on separate threads.
+     *
+     * Has no effect in sorted input mode. Must be called before the first entity is aggregated.
+     *
+     * @param partitions number of partitions, rounded up to a power of two
+     * @param bufferSize number of entities that are collected per partition before they are aggregated
+     */
+    public void setPartitions(int partitions, int bufferSize) {
+        currentState.configure();
+        if (partitions < 2 || bufferSize < 1) {
+            throw new IllegalArgumentException("At least two partitions and a buffer of one entity are required");
+        }
+        if (resultAggregation instanceof EvictingGroupTable) {
+            throw new IllegalStateException("Partitions can't be combined with eviction");
+        }
+        usePartitions(partitions, bufferSize);
+    }
+
+    /**
+     * Replaces the group table by a partitioned one and moves all existing groups.
+     *
+     * @param partitions number of partitions, rounded up to a power of two
+     * @param bufferSize number of entities that are collected per partition
+     */
+    private void usePartitions(int partitions, int bufferSize) {
+        int p = Integer.highestOneBit(partitions);
+        if (p < partitions) {
+            p <<= 1;
+        }
+        replaceTable(new PartitionedGroupTable(p));
+        @SuppressWarnings("unchecked")
+        Rows[] buffers = (Rows[]) new Container<?>.Rows[p];
+        pending = buffers;
+        pendingCapacity = bufferSize;
+    }
+
+    /**
+     * Moves all groups into the new table.
+     *
+     * @param table the new table
+     */
+    private void replaceTable(GroupTable table) {
+        for (Result group : resultAggregation.groups()) {
+            table.put(group);
+        }
+        resultAggregation = table;
+    }
+
+    /**
+     * Lets the container choose its group table from the first entities instead of configuring it by hand.
+     *
+     * The first <code>sampleSize</code> entities are only collected. Their keys give the number of distinct keys, how
+     * often keys repeat and whether equal keys arrive next to each other. From that the container estimates the
+     * final number of groups and pre-sizes its hash table, or partitions it for very many groups (see
+     * {@link #setPartitions(int, int)}). It enables the combiner (see {@link #setCombinerSize(int)}) with a single
+     * slot for clustered keys or with more slots for a few hot keys, if that would have answered at least half of the
+     * sampled lookups. Then the sample is aggregated. Key domains that fit a direct index are always indexed, and
+     * sorted input, partitions or eviction that were configured explicitly are kept as they are.
+     *
+     * Whenever the number of entities doubled afterwards, the plan is checked against the actual counts: the combiner
+     * is dropped if its hit rate falls below one half, and the groups are moved into a partitioned table if there
+     * turn out to be far more than estimated.
+     *
+     * Must be called before the first entity is aggregated.
+     *
+     * @param sampleSize number of entities to sample, 0 disables the adaptive mode
+     */
+    public void setAdaptive(int sampleSize) {
+        currentState.configure();
+        if (sampleSize < 0) {
+            throw new IllegalArgumentException("sample size must not be negative: " + sampleSize);
+        }
+        this.sampleSize = sampleSize;
+    }
+
+    /**
+     * Chooses the group table and the combiner from the collected sample and aggregates the sample.
+     */
+    private void planFromSample() {
+        Rows rows = sample;
+        int n = rows.size;
+        sample = null;
+
+        Map<Result, int[]> counts = new HashMap<>();
+        Result[] slots = new Result[HOT_KEY_SLOTS];
+        Result previous = null;
+        int runHits = 0;
+        int slotHits = 0;
+        for (int i = 0; i < n; i++) {
+            Result key = rows.keys[i];
+            int[] count = counts.get(key);
+            if (count == null) {
+                counts.put(key, new int[]{1});
+            } else {
+                count[0]++;
+            }
+            if (key.equals(previous)) {
+                runHits++;
             }
+            previous = key;
+            int slot = key.hashCode() & (HOT_KEY_SLOTS - 1);
+            if (key.equals(slots[slot])) {
+                slotHits++;
+            }
+            slots[slot] = key;
         }
 
-        if (idFields.isEmpty()) {
-            throw new IllegalStateException("No fields with the @Id annotation were found!");
+        // bias-corrected Chao1 estimator: keys seen once hint at keys that weren't seen at all. It stays finite
+        // without keys seen twice, but grows with the square of the sample then, so it is capped.
+        int once = 0;
+        int twice = 0;
+        for (int[] count : counts.values()) {
+            if (count[0] == 1) {
+                once++;
+            } else if (count[0] == 2) {
+                twice++;
+            }
         }
-        if (aliasList.isEmpty()) {
-            throw new IllegalStateException("No fields with aggregation annotations were found!");
+        double unseen = once * (once - 1.0) / (2.0 * (twice + 1));
+        estimatedGroups = Math.min(counts.size() + (long) unseen, MAX_GROUPS_PER_SAMPLE * n);
+
+        if (estimatedGroups > PARTITION_GROUPS) {
+            usePartitions((int) Math.min(1 << 10, estimatedGroups / GROUPS_PER_PARTITION), PARTITION_BUFFER);
+            combiner = null;
+            combinerHashes = null;
+        } else {
+            long capacity = estimatedGroups * 4 / 3 + 1;
+            replaceTable(new HashGroupTable((int) capacity));
+            int hits = Math.max(runHits, slotHits);
+            if (hits >= MIN_HIT_RATE * n) {
+                setCombinerSlots(slotHits > runHits ? HOT_KEY_SLOTS : 1);
+            } else {
+                setCombinerSlots(0);
+            }
         }
-        
-        // sort the id fields by the specified order
-        Collections.sort(idFields, new Comparator<Field>() {
+        LOG.fine("Sampled " + n + " entities with " + counts.size() + " keys, expecting " + estimatedGroups
+                + " groups, " + (pending != null ? pending.length + " partitions" : "hash table")
+                + ", combiner " + (combiner == null ? 0 : combiner.length));
+
+        // the sample is small, so it is aggregated directly even if the table is partitioned
+        for (int i = 0; i < n; i++) {
+            Result key = rows.keys[i];
+            applyRow(combiner != null ? combine(key.keys) : lookup(key), rows, i);
+        }
+        nextPlanCheck = 2 * entityCount;
+        checkedHits = combinerHits;
+        checkedMisses = combinerMisses;
+    }
 
-            @Override
-            public int compare(Field o1, Field o2) {
-                int x = o1.getAnnotation(Id.class).order();
-                int y = o2.getAnnotation(Id.class).order();
-                return Integer.compare(x, y);
+    /**
+     * Checks the plan of {@link #planFromSample()} against the counts since the last check.
+     */
+    private void checkPlan() {
+        nextPlanCheck = 2 * entityCount;
+        if (combiner != null) {
+            long hits = combinerHits - checkedHits;
+            long lookups = hits + combinerMisses - checkedMisses;
+            if (hits < MIN_HIT_RATE * lookups) {
+                LOG.fine("Dropping the combiner, only " + hits + " of " + lookups + " lookups were hits");
+                setCombinerSlots(0);
             }
-        });
+        }
+        checkedHits = combinerHits;
+        checkedMisses = combinerMisses;
+        int groups = resultAggregation.size();
+        if (pending == null && groups > PARTITION_GROUPS && groups > 4 * estimatedGroups) {
+            LOG.fine("Partitioning " + groups + " groups, " + estimatedGroups + " were expected");
+            usePartitions((int) Math.min(1 << 10, groups / GROUPS_PER_PARTITION), PARTITION_BUFFER);
+            setCombinerSlots(0);
+        }
+        estimatedGroups = Math.max(estimatedGroups, groups);
     }
 
     /**
-     * Get and return the "alias" value from the annotation.
+     * Bounds the number of groups that are held by the container, e.g. for aggregating unbounded live streams.
      *
-     * If no such annotation is present, the class name is returned as a default.
+     * Groups that weren't used for the given idle time are removed, as are the least recently used groups once more
+     * than <code>maxGroups</code> groups exist. Each group is handed to the sink before it is removed. If an entity
+     * with the key of a removed group arrives later, a new group is started that will be handed out again.
      *
-     * @param annotation The Annotation to get the value from
-     * @return the 'value' or the classname if no value is found (which shouldn't be)
+     * Idle groups are removed while entities are aggregated or by calling {@link #evictIdle()}. The combiner cache
+     * is not used in this mode. Has no effect in sorted input mode and can't be combined with partitions. Must be
+     * called before the first entity is aggregated.
+     *
+     * @param maxGroups maximum number of groups, 0 for no limit
+     * @param idleMillis time in milliseconds after which unused groups are removed, 0 for no limit
+     * @param sink receives each removed group
      */
-    private String getAliasFor(Annotation annotation) {
-        try {
-            String alias = annotation.getClass().getName();
-            Method method = annotation.getClass().getMethod("alias");
-            if (method != null) {
-                Object returnString = method.invoke(annotation);
-                if (returnString != null && returnString instanceof String) {
-                    alias = (String) returnString;
-                }
-            }
-            return alias;
-        } catch (NoSuchMethodException | SecurityException | IllegalAccessException | IllegalArgumentException |
-                InvocationTargetException ex) {
-            throw new IllegalArgumentException("Couldn't extract 'alias' from annotation " + annotation.getClass(), ex);
+    public void setEviction(int maxGroups, long idleMillis, ResultSink sink) {
+        currentState.configure();
+        if (sink == null || maxGroups < 0 || idleMillis < 0) {
+            throw new IllegalArgumentException("A sink and non negative limits are required");
+        }
+        if (resultAggregation instanceof PartitionedGroupTable) {
+            throw new IllegalStateException("Eviction can't be combined with partitions");
         }
+        resultAggregation = new EvictingGroupTable(maxGroups, idleMillis, sink);
+        lockWrites = true;
     }
 
     /**
-     * Initializes a copy of the aggregations.
+     * Removes all groups that exceeded the idle time of {@link #setEviction(int, long, ResultSink)} and hands them
+     * to the sink. Does nothing if no idle time is set.
      *
-     * @return List of aggregation containers
+     * May be called by another thread than the aggregating one, e.g. by a timer: with eviction enabled, all
+     * modifications of the container hold the same internal lock.
      */
-    private List<Element> getCopy() {
-        List<Element> m = new ArrayList<>(aggregationMapCache.size());
-        for (Element e : aggregationMapCache) {
-            m.add(e.getInstance());
+    public void evictIdle() {
+        if (resultAggregation instanceof EvictingGroupTable) {
+            synchronized (writeLock) {
+                ((EvictingGroupTable) resultAggregation).expire(System.currentTimeMillis());
+            }
         }
-        return m;
     }
 
     /**
-     * Add this object to the aggregation container.
+     * Hands the currently open group to the sink in sorted input mode and aggregates all buffered entities in
+     * partitioned mode. Does nothing otherwise.
+     */
+    public void flush() {
+        synchronized (writeLock) {
+            doFlush();
+        }
+    }
+
+    private void doFlush() {
+        drainPartitions();
+        if (openGroup != null) {
+            Result group = openGroup;
+            openGroup = null;
+            sortedSink.accept(group);
+        }
+    }
+
+    /**
+     * Enables measuring the time spent in key lookup and in applying the aggregates, see {@link #getStats()}.
      *
-     * @param object
+     * This adds two calls to {@link System#nanoTime()} per entity and is thus disabled by default. All other
+     * counters are always maintained. Must be called before the first entity is aggregated.
+     *
+     * @param timing true to enable time measurement
      */
-    public void aggregate(T object) {
-        currentState.aggregate(object);
+    public void setTimingEnabled(boolean timing) {
+        currentState.configure();
+        this.timing = timing;
+    }
+
+    /**
+     * Enables {@link #retract(java.lang.Object)}.
+     *
+     * Min, Max and Distinct then count the occurrences of their values, so that they can still be computed after a
+     * value was removed. Distinct always keeps the exact values. Retraction can't be combined with sorted input or
+     * eviction, as groups that left the container can't be updated anymore. Aggregates that can't retract values,
+     * like First, Last, ArgMax and aggregate functions, are rejected when the container is prepared.
+     *
+     * @param retractable whether entities can be retracted
+     */
+    public void setRetractable(boolean retractable) {
+        currentState.configure();
+        this.retractable = retractable;
+    }
+
+    /**
+     * Allows {@link #snapshot()} to be called by other threads while entities are aggregated.
+     *
+     * All modifications of the container then hold an internal lock, which a snapshot only takes for collecting the
+     * references to the groups. The groups are copied afterwards, while aggregation continues: a group that is
+     * modified before the snapshot copied it is copied by the modifying thread first.
+     *
+     * @param concurrentSnapshots whether snapshots may be taken concurrently
+     */
+    public void setConcurrentSnapshots(boolean concurrentSnapshots) {
+        currentState.configure();
+        this.concurrentSnapshots = concurrentSnapshots;
+        this.lockWrites = concurrentSnapshots || resultAggregation instanceof EvictingGroupTable;
+    }
+
+    /**
+     * Returns a point-in-time copy of all groups, which doesn't change when more entities are aggregated.
+     *
+     * Without {@link #setConcurrentSnapshots(boolean)} this must be called by the aggregating thread.
+     *
+     * @return read only copies of the groups
+     */
+    public Collection<Result> snapshot() {
+        requireCapability(MergeableAggregate.class, "copied for snapshots");
+        synchronized (snapshotLock) {
+            Result[] groups;
+            int e;
+            synchronized (writeLock) {
+                drainPartitions();
+                groups = resultAggregation.groups().toArray(new Result[resultAggregation.size()]);
+                e = ++epoch;
+                copying = true;
+            }
+            try {
+                List<Result> copies = new ArrayList<>(groups.length);
+                for (Result group : groups) {
+                    synchronized (group) {
+                        freeze(group, e);
+                        copies.add(group.frozen);
+                        group.frozen = null;
+                    }
+                }
+                return Collections.unmodifiableList(copies);
+            } finally {
+                copying = false;
+            }
+        }
+    }
+
+    /**
+     * Copies the group before it is modified, if a snapshot is running and didn't copy it yet.
+     *
+     * @param group the group that is about to be modified
+     */
+    private void touch(Result group) {
+        if (copying && group.version != epoch) {
+            synchronized (group) {
+                freeze(group, epoch);
+            }
+        }
+    }
+
+    /**
+     * Stores the copy of the group for the snapshot, unless this was done already. Must hold the lock of the group.
+     *
+     * @param group the group
+     * @param e the epoch of the snapshot
+     */
+    private static void freeze(Result group, int e) {
+        if (group.version != e) {
+            Result copy = new Result(group.keys);
+            List<Element> elements = new ArrayList<>(group.elements.size());
+            for (Element element : group.elements) {
+                Element c = element.getInstance();
+                ((MergeableAggregate) c.agg).merge(element.agg);
+                elements.add(c);
+            }
+            copy.init(elements);
+            copy.entities = group.entities;
+            group.frozen = copy;
+            group.version = e;
+        }
+    }
+
+    /**
+     * Feeds a computed value of every entity into an aggregate, as if the entity had a field with that value.
+     *
+     * @param alias alias of the result
+     * @param aggregate the aggregate, e.g. <code>new SumAggregate()</code>; it is used as template for all groups
+     * @param measure computes the value from the entity
+     */
+    public void registerMeasure(String alias, AbstractAggregate aggregate, Measure<? super T> measure) {
+        currentState.configure();
+        measures.add(new Element(aggregate.getInstance(), alias, ValueReader.of(alias, measure), null));
+    }
+
+    /**
+     * Restricts aggregates to the entities accepted by the filter, in the same way as a {@link Where} field.
+     *
+     * The filter is evaluated once per entity, no matter how many aggregates it restricts. An alias can be restricted
+     * by only one filter without suffix; preparing the container fails otherwise.
+     *
+     * @param filter the filter
+     * @param suffix if not empty, filtered copies named alias + suffix are added and the original aggregates stay
+     * unfiltered
+     * @param aliases aliases of the filtered aggregates
+     */
+    public void registerFilter(EntityFilter<? super T> filter, String suffix, String... aliases) {
+        currentState.configure();
+        @SuppressWarnings("unchecked") // only entities of this container are passed to the filter
+        EntityFilter<Object> entityFilter = (EntityFilter<Object>) filter;
+        filters.add(new Filter(entityFilter, suffix, aliases));
+    }
+
+    /**
+     * Obtain a snapshot of the counters of this container.
+     *
+     * The counters are plain fields updated by the aggregating thread only, which publishes them every few thousand
+     * entities and after every batch, merge and drain, so other threads see them with that delay. The aggregating
+     * thread itself always sees the current values. The snapshot isn't atomic: counters read one after the other may
+     * belong to different entities.
+     *
+     * @return the current counters
+     */
+    public ContainerStats getStats() {
+        acquireCounters();
+        long groups = groupCount();
+        return new ContainerStats(entityCount, groups, groupsCreated, evictions(), combinerHits, combinerMisses,
+                resultAggregation.getRehashes(),
+                keyNanos, aggregateNanos, groups * bytesPerGroup);
+    }
+
+    /**
+     * Makes the counters visible to other threads, see {@link #acquireCounters()}.
+     */
+    private void publishCounters() {
+        published = entityCount;
+    }
+
+    /**
+     * Reads the publication mark, so that the counters read afterwards are at least as recent as the last
+     * {@link #publishCounters()}.
+     *
+     * @return entity count at the last publication
+     */
+    private long acquireCounters() {
+        return published;
+    }
+
+    /**
+     * Registers the counters of this container as MXBean at the platform MBean server.
+     *
+     * @param name value of the <code>name</code> property of the object name
+     * @return the object name, which can be used to unregister the bean again
+     */
+    public ObjectName registerMBean(String name) {
+        try {
+            ObjectName objectName = new ObjectName("de.locked.aggregation:type=Container,name="
+                    + ObjectName.quote(name));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new Monitor(), objectName);
+            return objectName;
+        } catch (JMException ex) {
+            throw new IllegalStateException("Couldn't register container as " + name, ex);
+        }
+    }
+
+    /**
+     * Checked call from the state machine at the first call to aggregate.
+     *
+     * @param clazz the class of the aggregate object.
+     */
+    private void doPrepare(Class<?> clazz) {
+        doPrepare(clazz, findAccessor(clazz));
+    }
+
+    /**
+     * @param clazz the class of the aggregate object.
+     * @param accessor reads the fields of the entities, null for reflection
+     */
+    private void doPrepare(Class<?> clazz, EntityAccessor<?> accessor) {
+        entityClass = clazz;
+//        Field[] fields = clazz.getDeclaredFields();
+        Field[] fields = clazz.getFields();
+            
+        for (Field f : fields) {
+            if (f.isAnnotationPresent(Id.class)) {
+                idFields.add(f);
+            }
+            for (AbstractAggregate aggregate : aggregates) {
+                Class<? extends Annotation> annotationClass = aggregate.getAnnotation();
+                if (f.isAnnotationPresent(annotationClass)) {
+                    Annotation annotation = f.getAnnotation(annotationClass);
+                    String alias = getAliasFor(annotation);
+                    Field pair = getFieldFor(annotation, "with", clazz);
+                    Field payload = getFieldFor(annotation, "payload", clazz);
+                    Element tuple = payload != null
+                            ? Element.withPayload(aggregate.getInstance(annotation), alias,
+                                    ValueReader.of(f, accessor), ValueReader.of(payload, accessor))
+                            : new Element(aggregate.getInstance(annotation), alias, ValueReader.of(f, accessor),
+                                    pair == null ? null : ValueReader.of(pair, accessor));
+                    aggregationMapCache.add(tuple);
+                    aliasList.add(alias);
+                    aliasViews.add(getViewsFor(annotation));
+                }
+            }
+        }
+        for (Method m : getterMethods(clazz)) {
+            for (AbstractAggregate aggregate : aggregates) {
+                Class<? extends Annotation> annotationClass = aggregate.getAnnotation();
+                if (m.isAnnotationPresent(annotationClass)) {
+                    Annotation annotation = m.getAnnotation(annotationClass);
+                    String alias = getAliasFor(annotation);
+                    Field pair = getFieldFor(annotation, "with", clazz);
+                    Field payload = getFieldFor(annotation, "payload", clazz);
+                    aggregationMapCache.add(payload != null
+                            ? Element.withPayload(aggregate.getInstance(annotation), alias,
+                                    ValueReader.of(m, accessor), ValueReader.of(payload, accessor))
+                            : new Element(aggregate.getInstance(annotation), alias, ValueReader.of(m, accessor),
+                                    pair == null ? null : ValueReader.of(pair, accessor)));
+                    aliasList.add(alias);
+                    aliasViews.add(getViewsFor(annotation));
+                }
+            }
+        }
+        for (Element measure : measures) {
+            aggregationMapCache.add(measure);
+            aliasList.add(measure.alias);
+            aliasViews.add(new String[0]);
+        }
+
+        if (idFields.isEmpty()) {
+            throw new IllegalStateException("No fields with the @Id annotation were found!");
+        }
+        if (aliasList.isEmpty()) {
+            throw new IllegalStateException("No fields with aggregation annotations were found!");
+        }
+        prepareFilters(clazz, accessor);
+        if (concurrentSnapshots) {
+            requireCapability(MergeableAggregate.class, "copied for snapshots");
+        }
+        if (retractable) {
+            if (sortedSink != null || resultAggregation instanceof EvictingGroupTable) {
+                throw new IllegalStateException("Retraction can't be combined with sorted input or eviction");
+            }
+            for (int i = 0; i < aggregationMapCache.size(); i++) {
+                Element element = aggregationMapCache.get(i);
+                if (!element.canRetract()) {
+                    throw new IllegalStateException(element.alias + " can't retract values, "
+                            + element.agg.getClass().getName() + " is not retractable");
+                }
+                aggregationMapCache.set(i, element.retractable());
+            }
+        }
+        
+        // sort the id fields by the specified order
+        Collections.sort(idFields, new Comparator<Field>() {
+
+            @Override
+            public int compare(Field o1, Field o2) {
+                int x = o1.getAnnotation(Id.class).order();
+                int y = o2.getAnnotation(Id.class).order();
+                return Integer.compare(x, y);
+            }
+        });
+        for (Field f : idFields) {
+            if (sortedSink != null && !f.getType().isPrimitive() && !Comparable.class.isAssignableFrom(f.getType())) {
+                throw new IllegalStateException("Id field " + f.getName()
+                        + " is not comparable, input can't be sorted");
+            }
+            idReaders.add(ValueReader.of(f, accessor));
+        }
+        primitiveKeys = true;
+        for (ValueReader r : idReaders) {
+            primitiveKeys &= r.getType().isPrimitive();
+        }
+        scratchKeys = new Object[idFields.size()];
+        prepareViews();
+        if (resultAggregation instanceof HashGroupTable && sortedSink == null) {
+            DenseGroupTable.Domain[] domains = new DenseGroupTable.Domain[idFields.size()];
+            for (int i = 0; i < domains.length; i++) {
+                domains[i] = DenseGroupTable.Domain.of(idFields.get(i));
+            }
+            if (DenseGroupTable.slotCount(domains) > 0) {
+                // an index is cheaper than the combiner
+                dense = new DenseGroupTable(domains);
+                resultAggregation = dense;
+                combiner = null;
+                combinerHashes = null;
+            }
+        }
+        if (sampleSize > 0 && resultAggregation.getClass() == HashGroupTable.class && sortedSink == null
+                && views.isEmpty()) {
+            sample = new Rows(sampleSize);
+        }
+        if (combiner != null && resultAggregation instanceof EvictingGroupTable) {
+            // cached groups would neither be marked as used nor be removed from the cache
+            LOG.warning("The combiner is not used together with eviction");
+            combiner = null;
+            combinerHashes = null;
+        }
+        bytesPerGroup = estimateBytesPerGroup(idFields.size(), aggregationMapCache.size());
+    }
+
+    /**
+     * Loads the accessor that was generated by the {@link AccessorProcessor} for the given class.
+     *
+     * @param clazz the entity class
+     * @return a new instance of the accessor or null if none was generated
+     */
+    private static EntityAccessor<?> findAccessor(Class<?> clazz) {
+        String name = AccessorProcessor.accessorName(clazz.getName());
+        try {
+            Class<?> accessorClass = Class.forName(name, true, clazz.getClassLoader());
+            if (EntityAccessor.class.isAssignableFrom(accessorClass)) {
+                return (EntityAccessor<?>) accessorClass.getDeclaredConstructor().newInstance();
+            }
+            LOG.warning(name + " is no EntityAccessor, falling back to reflection");
+        } catch (ClassNotFoundException ex) {
+            // no accessor generated, use reflection
+        } catch (ReflectiveOperationException | LinkageError ex) {
+            LOG.warning("Couldn't instantiate " + name + ", falling back to reflection: " + ex);
+        }
+        return null;
+    }
+
+    /**
+     * Rough size of a group on a 64 bit VM with compressed references: the Result with its key array and boxed keys,
+     * the map entry and the list of elements with one aggregate each.
+     */
+    private static long estimateBytesPerGroup(int keys, int elements) {
+        long result = 32 + align(16 + 4 * keys) + 16 * keys;
+        long mapEntry = 32 + 8;
+        long elementList = 16 + 24 + align(16 + 4 * elements);
+        return result + mapEntry + elementList + elements * (24 + 32);
+    }
+
+    private static long align(long bytes) {
+        return (bytes + 7) & ~7;
+    }
+
+    /**
+     * Creates the views that the id fields declare and assigns the aggregates to them.
+     */
+    private void prepareViews() {
+        Map<String, List<Integer>> keys = new LinkedHashMap<>();
+        for (int i = 0; i < idFields.size(); i++) {
+            for (String name : idFields.get(i).getAnnotation(Id.class).views()) {
+                if (!keys.containsKey(name)) {
+                    keys.put(name, new ArrayList<Integer>());
+                }
+                keys.get(name).add(i);
+            }
+        }
+        if (keys.isEmpty()) {
+            return;
+        }
+        if (sortedSink != null || pending != null || resultAggregation instanceof EvictingGroupTable
+                || retractable) {
+            throw new IllegalStateException("Views can't be combined with sorted input, partitions, eviction or"
+                    + " retraction");
+        }
+        for (int e = 0; e < aliasList.size(); e++) {
+            for (String name : aliasViews.get(e)) {
+                if (!keys.containsKey(name)) {
+                    throw new IllegalStateException("Alias " + aliasList.get(e) + " refers to the unknown view "
+                            + name);
+                }
+            }
+        }
+        for (Map.Entry<String, List<Integer>> entry : keys.entrySet()) {
+            List<Integer> elements = new ArrayList<>();
+            for (int e = 0; e < aliasList.size(); e++) {
+                String[] names = aliasViews.get(e);
+                if (names.length == 0 || Arrays.asList(names).contains(entry.getKey())) {
+                    elements.add(e);
+                }
+            }
+            views.put(entry.getKey(), new View(toArray(entry.getValue()), toArray(elements)));
+        }
+        row = new Rows(1);
+    }
+
+    private static int[] toArray(List<Integer> list) {
+        int[] array = new int[list.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = list.get(i);
+        }
+        return array;
+    }
+
+    /**
+     * @param annotation an aggregate annotation
+     * @return the value of its 'views' attribute, empty if there is none
+     */
+    private static String[] getViewsFor(Annotation annotation) {
+        try {
+            Object views = annotation.getClass().getMethod("views").invoke(annotation);
+            return views instanceof String[] ? (String[]) views : new String[0];
+        } catch (NoSuchMethodException ex) {
+            return new String[0];
+        } catch (SecurityException | IllegalAccessException | IllegalArgumentException |
+                InvocationTargetException ex) {
+            throw new IllegalArgumentException("Couldn't extract 'views' from annotation " + annotation.getClass(), ex);
+        }
+    }
+
+    /**
+     * Get and return the "alias" value from the annotation.
+     *
+     * If no such annotation is present, the class name is returned as a default.
+     *
+     * @param annotation The Annotation to get the value from
+     * @return the 'value' or the classname if no value is found (which shouldn't be)
+     */
+    private String getAliasFor(Annotation annotation) {
+        try {
+            String alias = annotation.getClass().getName();
+            Method method = annotation.getClass().getMethod("alias");
+            if (method != null) {
+                Object returnString = method.invoke(annotation);
+                if (returnString != null && returnString instanceof String) {
+                    alias = (String) returnString;
+                }
+            }
+            return alias;
+        } catch (NoSuchMethodException | SecurityException | IllegalAccessException | IllegalArgumentException |
+                InvocationTargetException ex) {
+            throw new IllegalArgumentException("Couldn't extract 'alias' from annotation " + annotation.getClass(), ex);
+        }
+    }
+
+    /**
+     * Get the field that is named by an attribute of the annotation, like the "with" value of a two-field annotation
+     * like {@link Covariance} or the "payload" value of {@link ArgMax}.
+     *
+     * @param annotation The Annotation to get the value from
+     * @param attribute name of the attribute
+     * @param clazz the entity class
+     * @return the named field or null if the annotation has no such attribute
+     */
+    private Field getFieldFor(Annotation annotation, String attribute, Class<?> clazz) {
+        String name;
+        try {
+            name = (String) annotation.annotationType().getMethod(attribute).invoke(annotation);
+        } catch (NoSuchMethodException ex) {
+            return null;
+        } catch (SecurityException | IllegalAccessException | IllegalArgumentException |
+                InvocationTargetException ex) {
+            throw new IllegalArgumentException("Couldn't extract '" + attribute + "' from annotation "
+                    + annotation.getClass(), ex);
+        }
+        try {
+            return clazz.getField(name);
+        } catch (NoSuchFieldException ex) {
+            throw new IllegalStateException("No public field '" + name + "' found for " + annotation, ex);
+        }
+    }
+
+    /**
+     * Initializes a copy of the aggregations.
+     *
+     * @return List of aggregation containers
+     */
+    private List<Element> getCopy() {
+        List<Element> m = new ArrayList<>(aggregationMapCache.size());
+        for (Element e : aggregationMapCache) {
+            m.add(e.getInstance());
+        }
+        return m;
+    }
+
+    /**
+     * Checks that all aggregates support an operation before any group is modified by it.
+     *
+     * @param capability the interface the aggregates must implement
+     * @param operation what is done with the aggregates, for the message
+     * @throws IllegalStateException if an aggregate doesn't implement the interface
+     */
+    private void requireCapability(Class<?> capability, String operation) {
+        for (Element element : aggregationMapCache) {
+            if (!capability.isInstance(element.agg)) {
+                throw new IllegalStateException(element.alias + " can't be " + operation + ", "
+                        + element.agg.getClass().getName() + " is no " + capability.getSimpleName());
+            }
+        }
+    }
+
+    /**
+     * Removes an entity that was aggregated before, e.g. because the record was deleted upstream. Requires
+     * {@link #setRetractable(boolean)}.
+     *
+     * The values of the entity are removed from all aggregates of its group. Count, Sum, Avg, Variance and
+     * Covariance are updated exactly, Min, Max and Distinct by their value counts. A group is removed once all of its
+     * entities were retracted.
+     *
+     * @param object an entity with the same values as the aggregated one
+     * @throws IllegalStateException if retraction is not enabled
+     * @throws IllegalArgumentException if no group exists for the entity
+     */
+    public void retract(T object) {
+        if (lockWrites) {
+            synchronized (writeLock) {
+                currentState.retract(object);
+            }
+        } else {
+            currentState.retract(object);
+        }
+    }
+
+    /**
+     * Replaces an aggregated entity by its new version, e.g. after the record was corrected upstream. The versions may
+     * belong to different groups.
+     *
+     * @param previous an entity with the same values as the aggregated one
+     * @param current the new version
+     * @see #retract(java.lang.Object)
+     */
+    public void update(T previous, T current) {
+        retract(previous);
+        aggregate(current);
+    }
+
+    /**
+     * Add this object to the aggregation container.
+     *
+     * @param object
+     */
+    public void aggregate(T object) {
+        if (lockWrites) {
+            synchronized (writeLock) {
+                currentState.aggregate(object);
+            }
+        } else {
+            currentState.aggregate(object);
+        }
+    }
+
+    /**
+     * Adds a batch of objects to the aggregation container. The result is the same as calling
+     * {@link #aggregate(java.lang.Object)} for every object, but numeric values are read column by column and every run
+     * of consecutive objects of the same group is passed to its aggregate in a single
+     * {@link AbstractAggregate#applyAll(double[], int, int)} call. Batches that are clustered by their keys profit
+     * most.
+     *
+     * With sorted input, partitions or eviction the objects are aggregated one by one.
+     *
+     * @param objects the objects
+     */
+    public void aggregateAll(List<? extends T> objects) {
+        if (lockWrites) {
+            synchronized (writeLock) {
+                currentState.aggregateAll(objects);
+            }
+        } else {
+            currentState.aggregateAll(objects);
+        }
+    }
+
+    /**
+     * checked aggregateAll call from the state machine
+     *
+     * @param objects the objects
+     */
+    private void doAggregateAll(List<? extends T> objects) {
+        if (sortedSink != null || pending != null || sample != null || !views.isEmpty()
+                || resultAggregation instanceof EvictingGroupTable) {
+            for (T object : objects) {
+                doAggregate(object);
+            }
+            publishCounters();
+            return;
+        }
+        if (batchGroups == null) {
+            batchGroups = new Result[1024];
+            batchValues = new double[batchGroups.length];
+        }
+        try {
+            for (int from = 0; from < objects.size(); from += batchGroups.length) {
+                aggregateChunk(objects.subList(from, Math.min(objects.size(), from + batchGroups.length)));
+            }
+            publishCounters();
+        } catch (IllegalArgumentException | IllegalAccessException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Aggregates at most {@code batchGroups.length} objects: first all keys, then every element as a column.
+     *
+     * @param objects the objects
+     */
+    private void aggregateChunk(List<? extends T> objects) throws IllegalAccessException {
+        long start = timing ? System.nanoTime() : 0;
+        int n = objects.size();
+        Result[] groups = batchGroups;
+        for (int i = 0; i < n; i++) {
+            groups[i] = getKeyFor(objects.get(i));
+            touch(groups[i]);
+            groups[i].entities++;
+        }
+        entityCount += n;
+        if (entityCount >= nextPlanCheck) {
+            checkPlan();
+        }
+        if (timing) {
+            long now = System.nanoTime();
+            keyNanos += now - start;
+            start = now;
+        }
+        List<Element> template = aggregationMapCache;
+        for (int e = 0; e < template.size(); e++) {
+            Element element = template.get(e);
+            if (element.kind != Element.NUMBER || element.filter >= 0) {
+                continue;
+            }
+            double[] values = batchValues;
+            for (int i = 0; i < n; i++) {
+                values[i] = element.reader.getDouble(objects.get(i));
+            }
+            for (int i = 0; i < n;) {
+                int end = i + 1;
+                while (end < n && groups[end] == groups[i]) {
+                    end++;
+                }
+                groups[i].elements.get(e).agg.applyAll(values, i, end);
+                i = end;
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            T object = objects.get(i);
+            boolean[] passed = evaluateFilters(object);
+            for (Element tuple : groups[i].elements) {
+                if (tuple.filter >= 0 ? passed[tuple.filter] : tuple.kind != Element.NUMBER) {
+                    apply(tuple, object);
+                }
+            }
+            groups[i] = null;
+        }
+        if (timing) {
+            aggregateNanos += System.nanoTime() - start;
+        }
+    }
+
+    /**
+     * checked aggregate call from the state machine
+     *
+     * @param object The object that should be aggregated, or a record cursor: all values are read by value readers
+     */
+    private void doAggregate(Object object) {
+        try {
+            long start = timing ? System.nanoTime() : 0;
+            if ((++entityCount & (PUBLISH_INTERVAL - 1)) == 0) {
+                publishCounters();
+            }
+            if (sample != null) {
+                sample.add(new Result(readKeys(object, new Object[idFields.size()])), object);
+                if (sample.size == sample.capacity()) {
+                    planFromSample();
+                }
+                return;
+            }
+            if (entityCount >= nextPlanCheck) {
+                checkPlan();
+            }
+            if (pending != null && sortedSink == null) {
+                bufferEntity(object);
+                if (timing) {
+                    keyNanos += System.nanoTime() - start;
+                }
+                return;
+            }
+            if (!views.isEmpty()) {
+                applyViews(object);
+                if (timing) {
+                    aggregateNanos += System.nanoTime() - start;
+                }
+                return;
+            }
+            Result key = getKeyFor(object);
+            if (timing) {
+                long now = System.nanoTime();
+                keyNanos += now - start;
+                start = now;
+            }
+            applyElements(key, object);
+            if (timing) {
+                aggregateNanos += System.nanoTime() - start;
+            }
+        } catch (IllegalArgumentException | IllegalAccessException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Collects the keys and values of the entity in the buffer of its partition and aggregates the buffer if it is
+     * full.
+     *
+     * @param object the entity
+     */
+    private void bufferEntity(Object object) throws IllegalAccessException {
+        Result requestKey = new Result(readKeys(object, new Object[idFields.size()]));
+        int p = ((PartitionedGroupTable) resultAggregation).partitionOf(requestKey.hashCode());
+        Rows rows = pending[p];
+        if (rows == null) {
+            rows = new Rows(pendingCapacity);
+            pending[p] = rows;
+        }
+        rows.add(requestKey, object);
+        if (rows.size == rows.capacity()) {
+            drainPartition(p);
+        }
+    }
+
+    /**
+     * Aggregates the buffered entities of all partitions.
+     */
+    private void drainPartitions() {
+        if (sample != null && sample.size > 0) {
+            planFromSample();
+        }
+        if (pending != null) {
+            for (int p = 0; p < pending.length; p++) {
+                drainPartition(p);
+            }
+        }
+        publishCounters();
+    }
+
+    /**
+     * Aggregates the buffered entities of one partition.
+     *
+     * @param p the partition
+     */
+    private void drainPartition(int p) {
+        Rows rows = pending[p];
+        if (rows == null) {
+            return;
+        }
+        long start = timing ? System.nanoTime() : 0;
+        for (int i = 0; i < rows.size; i++) {
+            applyRow(lookup(rows.keys[i]), rows, i);
+        }
+        rows.clear();
+        if (timing) {
+            aggregateNanos += System.nanoTime() - start;
+        }
+    }
+
+    /**
+     * Applies the values of the entity to the aggregates of its group.
+     *
+     * @param key the group
+     * @param object the entity
+     */
+    private void applyElements(Result key, Object object) throws IllegalAccessException {
+        touch(key);
+        boolean[] passed = evaluateFilters(object);
+        key.entities++;
+        // do the aggregation(s), indexed to avoid an iterator per entity
+        List<Element> elements = key.elements;
+        for (int i = 0; i < elements.size(); i++) {
+            Element tuple = elements.get(i);
+            if (tuple.filter >= 0 && !passed[tuple.filter]) {
+                continue;
+            }
+            apply(tuple, object);
+        }
+    }
+
+    /**
+     * Reads the keys and values of the entity once and applies them to its group in the default grouping and to its
+     * group in every view.
+     *
+     * @param object the entity
+     */
+    private void applyViews(Object object) throws IllegalAccessException {
+        Object[] k = readKeys(object, new Object[idFields.size()]);
+        Result group = lookup(new Result(k));
+        row.add(group, object);
+        applyRow(group, row, 0);
+        for (View view : views.values()) {
+            Result viewGroup = view.groupFor(k);
+            viewGroup.entities++;
+            for (int i = 0; i < view.elements.length; i++) {
+                row.apply(viewGroup.elements.get(i), view.elements[i]);
+            }
+        }
+        row.clear();
+    }
+
+    /**
+     * Applies the values of a row that was read before to the aggregates of its group.
+     *
+     * @param group the group
+     * @param rows the buffer holding the row
+     * @param i index of the row
+     */
+    private void applyRow(Result group, Rows rows, int i) {
+        touch(group);
+        group.entities++;
+        int base = i * rows.width;
+        List<Element> elements = group.elements;
+        for (int e = 0; e < elements.size(); e++) {
+            rows.apply(elements.get(e), base + e);
+        }
+    }
+
+    /**
+     * Applies the value of the entity to one aggregate.
+     *
+     * @param tuple the element of the group
+     * @param object the entity
+     */
+    private void apply(Element tuple, Object object) throws IllegalAccessException {
+        ValueReader r = tuple.reader;
+        AbstractAggregate agg = tuple.agg;
+
+        switch (tuple.kind) {
+            case Element.NUMBER:
+                agg.apply(r.getDouble(object));
+                break;
+            case Element.LONG:
+                ((IntegralAggregate) agg).apply(r.getLong(object));
+                break;
+            case Element.CHAR:
+                agg.apply(r.getChar(object));
+                break;
+            case Element.BOOLEAN:
+                agg.apply(r.getBoolean(object));
+                break;
+            case Element.PAIR:
+                ((PairAggregate) agg).apply(r.getDouble(object), tuple.pair.getDouble(object));
+                break;
+            case Element.PAYLOAD:
+                ((PayloadAggregate) agg).apply(r.getDouble(object), tuple.pair.get(object));
+                break;
+            default:
+                agg.apply(r.get(object));
+        }
+    }
+
+    /**
+     * Removes the values of the entity from the aggregates of its group, the reverse of
+     * {@link #applyElements(Result, Object)}.
+     *
+     * @param key the group
+     * @param object the entity
+     */
+    private void retractElements(Result key, T object) throws IllegalAccessException {
+        touch(key);
+        boolean[] passed = evaluateFilters(object);
+        List<Element> elements = key.elements;
+        for (int i = 0; i < elements.size(); i++) {
+            Element tuple = elements.get(i);
+            if (tuple.filter >= 0 && !passed[tuple.filter]) {
+                continue;
+            }
+            ValueReader r = tuple.reader;
+            AbstractAggregate agg = tuple.agg;
+
+            switch (tuple.kind) {
+                case Element.NUMBER:
+                    ((RetractableAggregate) agg).retract(r.getDouble(object));
+                    break;
+                case Element.LONG:
+                    ((RetractableIntegralAggregate) agg).retract(r.getLong(object));
+                    break;
+                case Element.CHAR:
+                    ((RetractableObjectAggregate) agg).retract(r.getChar(object));
+                    break;
+                case Element.BOOLEAN:
+                    ((RetractableObjectAggregate) agg).retract(r.getBoolean(object));
+                    break;
+                case Element.PAIR:
+                    ((RetractablePairAggregate) agg).retract(r.getDouble(object), tuple.pair.getDouble(object));
+                    break;
+                default:
+                    ((RetractableObjectAggregate) agg).retract(r.get(object));
+            }
+        }
+        key.entities--;
+    }
+
+    /**
+     * Evaluates every filter once for the entity.
+     *
+     * @param object the entity
+     * @return the result per filter or null if there are no filters
+     */
+    private boolean[] evaluateFilters(Object object) {
+        boolean[] passed = filterResults;
+        if (passed != null) {
+            for (int i = 0; i < passed.length; i++) {
+                passed[i] = filters.get(i).filter.accept(object);
+            }
+        }
+        return passed;
+    }
+
+    /**
+     * checked retract call from the state machine
+     *
+     * @param object the entity to remove
+     */
+    private void doRetract(T object) {
+        if (!retractable) {
+            throw new IllegalStateException("Retraction is not enabled, see setRetractable");
+        }
+        drainPartitions();
+        try {
+            Object[] k = readKeys(object, new Object[idFields.size()]);
+            Result key = resultAggregation.get(new Result(k));
+            if (key == null) {
+                throw new IllegalArgumentException("No group for " + Arrays.toString(k));
+            }
+            retractElements(key, object);
+            if (key.entities == 0) {
+                resultAggregation.remove(key);
+                if (combiner != null) {
+                    int slot = Arrays.deepHashCode(key.keys) & (combiner.length - 1);
+                    if (combiner[slot] == key) {
+                        combiner[slot] = null;
+                    }
+                }
+            }
+        } catch (IllegalAccessException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Registers an Aggregate (an aggregation function) to the container
+     *
+     * @param agg The aggregate object to the Container if this object is not already registered.
+     */
+    public void registerAggregate(AbstractAggregate agg) {
+        currentState.register(agg);
+    }
+
+    /**
+     * Registers a typed aggregate function to the container.
+     *
+     * @param function the function that should be applied to all fields carrying its annotation
+     */
+    public void registerAggregate(AggregateFunction<?, ?, ?> function) {
+        currentState.register(new FunctionAggregate<>(function));
+    }
+
+    /**
+     * Merges the groups of another container of the same entity type into this one.
+     *
+     * Groups that exist in both containers are combined by {@link MergeableAggregate#merge(AbstractAggregate)},
+     * all others are copied. The other container is not modified and can be discarded afterwards. Both containers
+     * must have the same aggregates registered. Min, Max and Distinct of a retractable container can't merge the
+     * aggregates of a container that is not retractable, as these lack the value counts.
+     *
+     * @param other the container to merge into this one
+     * @throws IllegalStateException if an aggregate is no {@link MergeableAggregate}
+     * @throws IllegalArgumentException if the containers have different aggregates or the value counts are missing
+     */
+    public void merge(Container<T> other) {
+        if (other.entityClass == null) {
+            return; // nothing aggregated yet
+        }
+        if (lockWrites) {
+            synchronized (writeLock) {
+                currentState.merge(other);
+            }
+        } else {
+            currentState.merge(other);
+        }
+    }
+
+    /**
+     * checked merge call from the state machine
+     *
+     * @param other the prepared container that should be merged into this one
+     */
+    private void doMerge(Container<T> other) {
+        if (!other.aliasList.equals(aliasList)) {
+            throw new IllegalArgumentException("Containers have different aggregates: " + other.aliasList
+                    + " vs " + aliasList);
+        }
+        requireCapability(MergeableAggregate.class, "merged");
+        for (Result otherKey : other.getResults()) {
+            Result key = lookup(new Result(otherKey.keys));
+            touch(key);
+            key.entities += otherKey.entities;
+            for (int i = 0; i < key.elements.size(); i++) {
+                ((MergeableAggregate) key.elements.get(i).agg).merge(otherKey.elements.get(i).agg);
+            }
+        }
+        for (Map.Entry<String, View> view : views.entrySet()) {
+            view.getValue().merge(other.views.get(view.getKey()));
+        }
+        publishCounters();
+    }
+
+    /**
+     * Writes the groups of this container as partial state, so that it can be combined with the partial states of
+     * other processes by {@link #mergeState(java.io.InputStream)} or a {@link StateReducer}.
+     *
+     * The state consists of a header with the entity class and the aliases, followed by one record per group with
+     * the keys, the number of entities and the state of its aggregates. Retractable containers include the value
+     * counts of their aggregates, so that the merged entities can still be retracted. All aggregates must implement
+     * {@link ExchangeableAggregate}, and keys and the values of object fields must be primitives or strings (keys may
+     * also be enum constants). This is checked before anything is written. The stream is flushed but not closed.
+     *
+     * @param out the stream
+     * @throws IOException if writing fails
+     * @throws IllegalStateException if an aggregate, key or value can't be written
+     */
+    public void writeState(OutputStream out) throws IOException {
+        requireCapability(ExchangeableAggregate.class, "written to partial states");
+        for (Field f : idFields) {
+            if (!StateIO.isEncodable(f.getType()) && !f.getType().isEnum()) {
+                throw new IllegalStateException("Key " + f.getName() + " of type " + f.getType().getName()
+                        + " can't be written to partial states");
+            }
+        }
+        for (Element e : aggregationMapCache) {
+            ValueReader values = e.kind == Element.OBJECT ? e.reader : e.kind == Element.PAYLOAD ? e.pair : null;
+            if (values != null && !StateIO.isEncodable(values.getType())) {
+                throw new IllegalStateException(e.alias + " can't be written to partial states, values of type "
+                        + values.getType().getName() + " are not supported");
+            }
+        }
+        drainPartitions();
+        DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+        data.writeInt(StateIO.MAGIC);
+        data.writeByte(StateIO.VERSION);
+        StateIO.writeString(data, entityClass == null ? "" : entityClass.getName());
+        data.writeBoolean(retractable);
+        data.writeInt(idFields.size());
+        data.writeInt(aliasList.size());
+        for (String alias : aliasList) {
+            StateIO.writeString(data, alias);
+        }
+        for (Result key : resultAggregation.groups()) {
+            data.writeBoolean(true);
+            for (Object k : key.keys) {
+                StateIO.writeValue(data, k);
+            }
+            data.writeInt(key.entities);
+            for (Element e : key.elements) {
+                ((ExchangeableAggregate) e.agg).writeState(data);
+            }
+        }
+        data.writeBoolean(false);
+        data.flush();
+    }
+
+    /**
+     * Reads one partial state written by {@link #writeState(java.io.OutputStream)} and merges it into this container.
+     * The state is decoded completely before any group is merged, so a truncated or malformed state leaves the
+     * container unchanged.
+     *
+     * The container must already be prepared for the entity class of the state, either by aggregating or by
+     * {@link #prepare(java.lang.Class)}: the state only names its entity class, which is compared with the one of
+     * the container but never loaded. Keys are checked against the types of the id fields.
+     *
+     * Nothing beyond the end of the partial state is read, so several states can be read from the same stream.
+     * Buffering is left to the caller.
+     *
+     * @param in the stream
+     * @throws IOException if reading fails or the stream is not a valid partial state
+     * @throws IllegalArgumentException if the state was written by a container of another entity class, with other
+     * aggregates or another retraction setting
+     * @throws IllegalStateException if the container is not prepared
+     */
+    public void mergeState(InputStream in) throws IOException {
+        if (lockWrites) {
+            synchronized (writeLock) {
+                doMergeState(in);
+            }
+        } else {
+            doMergeState(in);
+        }
+    }
+
+    private void doMergeState(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+        if (data.readInt() != StateIO.MAGIC) {
+            throw new IOException("Not a partial state");
+        }
+        byte version = data.readByte();
+        if (version != StateIO.VERSION) {
+            throw new IOException("Unsupported partial state version " + version);
+        }
+        String className = StateIO.readString(data);
+        boolean retractableState = data.readBoolean();
+        int keyCount = data.readInt();
+        List<String> aliases = new ArrayList<>();
+        for (int i = StateIO.readCount(data); i > 0; i--) {
+            aliases.add(StateIO.readString(data));
+        }
+        if (className.isEmpty()) {
+            data.readBoolean(); // empty container
+            return;
+        }
+        if (entityClass == null) {
+            throw new IllegalStateException("The container must be prepared for " + className
+                    + " before partial states are merged");
+        }
+        if (!className.equals(entityClass.getName())) {
+            throw new IllegalArgumentException("State of " + className + " can't be merged into a container of "
+                    + entityClass.getName());
+        }
+        if (!aliases.equals(aliasList) || keyCount != idFields.size()) {
+            throw new IllegalArgumentException("Containers have different aggregates: " + aliases + " vs "
+                    + aliasList);
+        }
+        if (retractableState != retractable) {
+            throw new IllegalArgumentException("Partial states can only be merged into containers with the same"
+                    + " retraction setting");
+        }
+        requireCapability(ExchangeableAggregate.class, "merged from partial states");
+        // decode everything before the first group is touched, so a broken state leaves the container unchanged
+        List<Result> partials = new ArrayList<>();
+        while (data.readBoolean()) {
+            Object[] keys = new Object[keyCount];
+            for (int i = 0; i < keyCount; i++) {
+                keys[i] = StateIO.readValue(data, idFields.get(i).getType());
+            }
+            Result partial = new Result(keys);
+            partial.entities = StateIO.readCount(data);
+            partial.init(getCopy());
+            for (Element e : partial.elements) {
+                ((ExchangeableAggregate) e.agg).readState(data);
+            }
+            partials.add(partial);
+        }
+        for (Result partial : partials) {
+            Result key = lookup(new Result(partial.keys));
+            touch(key);
+            key.entities += partial.entities;
+            for (int i = 0; i < key.elements.size(); i++) {
+                ((ExchangeableAggregate) key.elements.get(i).agg).merge(partial.elements.get(i).agg);
+            }
+        }
+        publishCounters();
+    }
+
+    /**
+     * Adds the filters of {@link Where} fields and binds all filters to the elements of their aliases.
+     *
+     * @param clazz the entity class
+     * @param accessor the generated accessor, may be null
+     */
+    private void prepareFilters(Class<?> clazz, EntityAccessor<?> accessor) {
+        for (Field f : clazz.getFields()) {
+            if (f.isAnnotationPresent(Where.class)) {
+                addFilter(ValueReader.of(f, accessor), f.getAnnotation(Where.class));
+            }
+        }
+        for (Method m : getterMethods(clazz)) {
+            if (m.isAnnotationPresent(Where.class)) {
+                addFilter(ValueReader.of(m, accessor), m.getAnnotation(Where.class));
+            }
+        }
+        for (int i = 0; i < filters.size(); i++) {
+            Filter filter = filters.get(i);
+            for (String alias : filter.aliases) {
+                int index = aliasList.indexOf(alias);
+                if (index < 0) {
+                    throw new IllegalStateException("Filter refers to the unknown alias " + alias);
+                }
+                Element element = aggregationMapCache.get(index);
+                if (filter.suffix.isEmpty()) {
+                    if (element.filter >= 0) {
+                        throw new IllegalStateException("Alias " + alias + " is restricted by more than one filter,"
+                                + " combine them into one filter");
+                    }
+                    aggregationMapCache.set(index, element.filtered(alias, i));
+                } else {
+                    if (aliasList.contains(alias + filter.suffix)) {
+                        throw new IllegalStateException("Filtered alias " + alias + filter.suffix + " already exists");
+                    }
+                    aggregationMapCache.add(element.filtered(alias + filter.suffix, i));
+                    aliasList.add(alias + filter.suffix);
+                    aliasViews.add(aliasViews.get(index));
+                }
+            }
+        }
+        filterResults = filters.isEmpty() ? null : new boolean[filters.size()];
+    }
+
+    private void addFilter(ValueReader reader, Where where) {
+        if (!reader.getType().equals(boolean.class) && !reader.getType().equals(Boolean.class)) {
+            throw new IllegalStateException("Filter " + reader.getName() + " is not boolean");
+        }
+        filters.add(new Filter(new FieldFilter(reader), where.suffix(), where.aliases()));
+    }
+
+    /**
+     * Public instance methods without parameters that may carry annotations, sorted by name so that the order of the
+     * aliases doesn't depend on the JVM.
+     *
+     * @param clazz the entity class
+     * @return the getter methods
+     */
+    private static List<Method> getterMethods(Class<?> clazz) {
+        List<Method> methods = new ArrayList<>();
+        for (Method m : clazz.getMethods()) {
+            if (m.getParameterTypes().length == 0 && !Modifier.isStatic(m.getModifiers())
+                    && !m.getReturnType().equals(void.class) && m.getDeclaringClass() != Object.class) {
+                methods.add(m);
+            }
+        }
+        Collections.sort(methods, new Comparator<Method>() {
+
+            @Override
+            public int compare(Method o1, Method o2) {
+                return o1.getName().compareTo(o2.getName());
+            }
+        });
+        return methods;
+    }
+
+    /**
+     * Exports all groups into one array per key field and alias.
+     *
+     * The groups are read directly, without cloning keys or looking up aliases per group. Whether an alias column is
+     * numeric is decided by the type of its aggregate, so it is the same for every export of the container, even an
+     * empty one.
+     *
+     * @return the columns
+     */
+    public ColumnarResult exportColumns() {
+        drainPartitions();
+        Collection<Result> groups = resultAggregation.groups();
+        int size = groups.size();
+        List<String> keyNames = new ArrayList<>(idFields.size());
+        Object[] keyColumns = new Object[idFields.size()];
+        for (int k = 0; k < keyColumns.length; k++) {
+            Class<?> type = idFields.get(k).getType();
+            keyNames.add(idFields.get(k).getName());
+            if (type == int.class || type == short.class || type == byte.class) {
+                keyColumns[k] = new int[size];
+            } else if (type == long.class) {
+                keyColumns[k] = new long[size];
+            } else if (type == double.class || type == float.class) {
+                keyColumns[k] = new double[size];
+            } else {
+                keyColumns[k] = new Object[size];
+            }
+        }
+        double[][] numbers = new double[aliasList.size()][];
+        Object[][] objects = new Object[aliasList.size()][];
+        for (int a = 0; a < numbers.length; a++) {
+            if (hasNumericResult(aggregationMapCache.get(a).agg)) {
+                numbers[a] = new double[size];
+            } else {
+                objects[a] = new Object[size];
+            }
+        }
+        int row = 0;
+        for (Result group : groups) {
+            for (int k = 0; k < keyColumns.length; k++) {
+                Object column = keyColumns[k];
+                Object key = group.keys[k];
+                if (column instanceof int[]) {
+                    ((int[]) column)[row] = ((Number) key).intValue();
+                } else if (column instanceof long[]) {
+                    ((long[]) column)[row] = (Long) key;
+                } else if (column instanceof double[]) {
+                    ((double[]) column)[row] = ((Number) key).doubleValue();
+                } else {
+                    ((Object[]) column)[row] = key;
+                }
+            }
+            for (int a = 0; a < numbers.length; a++) {
+                AbstractAggregate agg = group.elements.get(a).agg;
+                if (numbers[a] != null) {
+                    numbers[a][row] = agg.getDouble();
+                } else {
+                    objects[a][row] = agg.getObject();
+                }
+            }
+            row++;
+        }
+        return new ColumnarResult(size, keyNames, keyColumns, new ArrayList<>(aliasList), numbers, objects);
+    }
+
+    /**
+     * @param agg the aggregate
+     * @return true if the aggregate implements {@link AbstractAggregate#getDouble()}. The result type of aggregate
+     * functions is not known, so their results are always exported as objects.
+     */
+    private static boolean hasNumericResult(AbstractAggregate agg) {
+        if (agg instanceof FunctionAggregate) {
+            return false;
+        }
+        try {
+            return agg.getClass().getMethod("getDouble").getDeclaringClass() != AbstractAggregate.class;
+        } catch (NoSuchMethodException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Prepares the container for reading the entities from binary records instead of entity objects, see
+     * {@link RecordFile}. Does nothing if the container was prepared for the same layout before.
+     *
+     * @param layout the layout of the records
+     * @throws IllegalStateException if the container already aggregated other input or needs a value that isn't part
+     * of the records
+     */
+    void prepareRecords(RecordLayout layout) {
+        if (recordLayout == layout) {
+            return;
+        }
+        if (!(currentState instanceof Container.OpenState)) {
+            throw new IllegalStateException("The container already aggregated other input than these records");
+        }
+        doPrepare(layout.getEntityClass(), layout.getAccessor());
+        List<ValueReader> readers = new ArrayList<>(idReaders);
+        for (Element element : aggregationMapCache) {
+            readers.add(element.reader);
+            if (element.pair != null) {
+                readers.add(element.pair);
+            }
+        }
+        for (Filter filter : filters) {
+            if (!(filter.filter instanceof FieldFilter)) {
+                throw new IllegalStateException("Registered filters can't be applied to records");
+            }
+            readers.add(((FieldFilter) filter.filter).reader);
+        }
+        for (ValueReader reader : readers) {
+            if (!layout.contains(reader.getName())) {
+                throw new IllegalStateException(reader.getName() + " is not part of the record layout");
+            }
+        }
+        recordLayout = layout;
+        currentState = new AggregateState();
+    }
+
+    /**
+     * Aggregates the record a cursor of {@link #prepareRecords(RecordLayout)} points to.
+     *
+     * @param cursor the cursor
+     * @throws IllegalStateException if the container is not prepared for records
+     */
+    void aggregateRecord(RecordLayout.Cursor cursor) {
+        if (recordLayout == null) {
+            throw new IllegalStateException("The container is not prepared for records");
+        }
+        if (lockWrites) {
+            synchronized (writeLock) {
+                doAggregate(cursor);
+            }
+        } else {
+            doAggregate(cursor);
+        }
+    }
+
+    /**
+     * Prepares the container for the entity class without aggregating an entity, e.g. before partial states are
+     * merged by {@link #mergeState(java.io.InputStream)}. Afterwards the container can't be configured anymore.
+     *
+     * @param clazz the entity class
+     * @throws IllegalStateException if the container is already prepared
+     */
+    public void prepare(Class<? extends T> clazz) {
+        currentState.configure();
+        doPrepare(clazz);
+        currentState = new AggregateState();
+    }
+
+    /**
+     * checked register call from the state machine
+     *
+     * @param agg the Aggregate that should be registered into the container
+     */
+    private void doRegisterAggregate(AbstractAggregate agg) {
+        if (!aggregates.contains(agg)) {
+            aggregates.add(agg);
+        }
+    }
+
+    @Override
+    public String toString() {
+        String s = "";
+        for (Result key : getResults()) {
+            s += key.toString() + ": ";
+            for (Element tuple : key.elements) {
+                s += "\n\t" + tuple.alias;
+            }
+            s += "\n";
+        }
+        return s;
+    }
+
+    /**
+     * Get the according key from the map.
+     *
+     * @param requestKey
+     * @return
+     */
+    private Result getKeyFor(Object object) throws IllegalArgumentException, IllegalAccessException {
+        if (sortedSink != null) {
+            return getSortedKeyFor(object);
+        }
+        if (dense != null) {
+            return getDenseKeyFor(object);
+        }
+        if (combiner != null) {
+            return getCombinedKeyFor(object);
+        }
+        return lookup(new Result(readKeys(object, new Object[idFields.size()])));
+    }
+
+    /**
+     * Resolves the group by its index in the dense table. The keys are only boxed when the group is created.
+     *
+     * @param object the entity
+     * @return the group of the entity
+     */
+    private Result getDenseKeyFor(Object object) throws IllegalAccessException {
+        int index = 0;
+        for (int i = 0; i < idReaders.size(); i++) {
+            DenseGroupTable.Domain domain = dense.getDomain(i);
+            ValueReader r = idReaders.get(i);
+            int position;
+            switch (domain.kind) {
+                case DenseGroupTable.Domain.BOOLEAN:
+                    position = r.getBoolean(object) ? 1 : 0;
+                    break;
+                case DenseGroupTable.Domain.ENUM:
+                    Object v = r.get(object);
+                    position = v == null ? 0 : ((Enum) v).ordinal() + 1;
+                    break;
+                default:
+                    position = domain.checkedIndex(r.getType() == char.class ? r.getChar(object) : r.getLong(object));
+            }
+            index = index * domain.size + position;
+        }
+        Result key = dense.getAt(index);
+        if (key == null) {
+            key = create(new Result(readKeys(object, new Object[idFields.size()])));
+            dense.putAt(index, key);
+        }
+        return key;
+    }
+
+    /**
+     * Resolves the key through the combiner cache and only falls back to the map on a cache miss.
+     *
+     * @param object the entity
+     * @return the group of the entity
+     */
+    private Result getCombinedKeyFor(Object object) throws IllegalArgumentException, IllegalAccessException {
+        if (primitiveKeys) {
+            int hash = primitiveKeyHash(object);
+            int slot = hash & (combiner.length - 1);
+            Result cached = combiner[slot];
+            if (cached != null && combinerHashes[slot] == hash && primitiveKeysEqual(cached.keys, object)) {
+                combinerHits++;
+                return cached;
+            }
+        }
+        return combine(readKeys(object, scratchKeys));
+    }
+
+    /**
+     * @param object an entity with primitive id fields
+     * @return the same hash code as {@link Arrays#deepHashCode(java.lang.Object[])} of the boxed keys
+     */
+    private int primitiveKeyHash(Object object) throws IllegalAccessException {
+        int hash = 1;
+        for (int i = 0; i < idReaders.size(); i++) {
+            ValueReader r = idReaders.get(i);
+            Class<?> type = r.getType();
+            int h;
+            if (type == double.class) {
+                h = Double.hashCode(r.getDouble(object));
+            } else if (type == float.class) {
+                h = Float.hashCode((float) r.getDouble(object));
+            } else if (type == long.class) {
+                h = Long.hashCode(r.getLong(object));
+            } else if (type == char.class) {
+                h = r.getChar(object);
+            } else if (type == boolean.class) {
+                h = Boolean.hashCode(r.getBoolean(object));
+            } else {
+                h = (int) r.getLong(object); // int, short and byte hash to their value
+            }
+            hash = 31 * hash + h;
+        }
+        return hash;
+    }
+
+    /**
+     * @param keys the keys of a group
+     * @param object an entity with primitive id fields
+     * @return true if the entity belongs to the group, compared like the boxed keys
+     */
+    private boolean primitiveKeysEqual(Object[] keys, Object object) throws IllegalAccessException {
+        for (int i = 0; i < keys.length; i++) {
+            ValueReader r = idReaders.get(i);
+            Class<?> type = r.getType();
+            boolean equal;
+            if (type == double.class || type == float.class) {
+                equal = Double.doubleToLongBits(((Number) keys[i]).doubleValue())
+                        == Double.doubleToLongBits(r.getDouble(object));
+            } else if (type == char.class) {
+                equal = (Character) keys[i] == r.getChar(object);
+            } else if (type == boolean.class) {
+                equal = (Boolean) keys[i] == r.getBoolean(object);
+            } else {
+                equal = ((Number) keys[i]).longValue() == r.getLong(object);
+            }
+            if (!equal) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param k the keys of an entity, copied before they are kept if they are the scratch keys
+     * @return the group of the keys
+     */
+    private Result combine(Object[] k) {
+        int hash = Arrays.deepHashCode(k);
+        int slot = hash & (combiner.length - 1);
+        Result cached = combiner[slot];
+        if (cached != null && combinerHashes[slot] == hash && Arrays.deepEquals(cached.keys, k)) {
+            combinerHits++;
+            return cached;
+        }
+        combinerMisses++;
+        Result key = lookup(new Result(k == scratchKeys ? k.clone() : k));
+        combiner[slot] = key;
+        combinerHashes[slot] = hash;
+        return key;
     }
 
     /**
-     * checked aggregate call from the state machine
+     * Resolves the key in sorted input mode by comparing it with the key of the open group.
      *
-     * @param object The object that should be aggregated
+     * @param object the entity
+     * @return the group of the entity
      */
-    private void doAggregate(T object) {
-        try {
-            Result key = getKeyFor(object);
-
-            // do the aggregation(s)
-            for (Element tuple : key.elements) {
-                Field f = tuple.field;
-                Class type = f.getType();
-                AbstractAggregate agg = tuple.agg;
-
-                if (type.equals(int.class)) {
-                    agg.apply(f.getInt(object));
-                } else if (type.equals(byte.class)) {
-                    agg.apply(f.getByte(object));
-                } else if (type.equals(float.class)) {
-                    agg.apply(f.getFloat(object));
-                } else if (type.equals(double.class)) {
-                    agg.apply(f.getDouble(object));
-                } else if (type.equals(long.class)) {
-                    agg.apply(f.getLong(object));
-                } else if (type.equals(char.class)) {
-                    agg.apply(f.getChar(object));
-                } else if (type.equals(short.class)) {
-                    agg.apply(f.getShort(object));
-                } else if (type.equals(boolean.class)) {
-                    agg.apply(f.getBoolean(object));
-                } else {
-                    agg.apply(f.get(object));
+    private Result getSortedKeyFor(Object object) throws IllegalArgumentException, IllegalAccessException {
+        Object[] k = readKeys(object, scratchKeys);
+        if (openGroup != null) {
+            if (Arrays.deepEquals(openGroup.keys, k)) {
+                return openGroup;
+            }
+            if (compareKeys(k, openGroup.keys) < 0) {
+                if (!fallbackToHash) {
+                    throw new IllegalStateException("Input is not sorted: " + new Result(k.clone())
+                            + "arrived after " + openGroup);
                 }
+                LOG.warning("Input is not sorted, switching to hashing at " + new Result(k.clone()));
+                resultAggregation.put(openGroup);
+                openGroup = null;
+                sortedSink = null;
+                return lookup(new Result(k.clone()));
             }
-        } catch (IllegalArgumentException | IllegalAccessException ex) {
-            throw new IllegalStateException(ex);
+            sortedSink.accept(openGroup);
         }
+        openGroup = new Result(k.clone());
+        openGroup.init(getCopy());
+        groupsCreated++;
+        return openGroup;
     }
 
     /**
-     * Registers an Aggregate (an aggregation function) to the container
+     * Compares two keys lexicographically. Null values are smaller than all others.
      *
-     * @param agg The aggregate object to the Container if this object is not already registered.
+     * @param a the first key
+     * @param b the second key
+     * @return a negative value, zero or a positive value if a is smaller, equal or greater than b
      */
-    public void registerAggregate(AbstractAggregate agg) {
-        currentState.register(agg);
+    static int compareKeys(Object[] a, Object[] b) {
+        for (int i = 0; i < a.length; i++) {
+            if (a[i] == b[i]) {
+                continue;
+            }
+            if (a[i] == null) {
+                return -1;
+            }
+            if (b[i] == null) {
+                return 1;
+            }
+            @SuppressWarnings("unchecked")
+            int cmp = ((Comparable) a[i]).compareTo(b[i]);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return 0;
     }
 
     /**
-     * checked register call from the state machine
-     *
-     * @param agg the Aggregate that should be registered into the container
+     * @return number of groups removed by eviction
      */
-    private void doRegisterAggregate(AbstractAggregate agg) {
-        if (!aggregates.contains(agg)) {
-            aggregates.add(agg);
+    private long evictions() {
+        if (resultAggregation instanceof EvictingGroupTable) {
+            return ((EvictingGroupTable) resultAggregation).getEvictions();
         }
+        return 0;
     }
 
-    @Override
-    public String toString() {
-        String s = "";
-        for (Result key : resultAggregation.keySet()) {
-            s += key.toString() + ": ";
-            for (Element tuple : key.elements) {
-                s += "\n\t" + tuple.alias;
-            }
-            s += "\n";
-        }
-        return s;
+    /**
+     * @return the number of groups currently held by the container
+     */
+    private int groupCount() {
+        return resultAggregation.size() + (openGroup == null ? 0 : 1);
     }
 
     /**
-     * Get the according key from the map.
+     * Returns the group for the given request key and creates it if it doesn't exist yet.
      *
-     * @param requestKey
-     * @return
+     * @param requestKey a fresh key object that may be stored in the map
+     * @return the group
      */
-    private Result getKeyFor(T object) throws IllegalArgumentException, IllegalAccessException {
-        Result requestKey = buildRequestKey(object);
+    private Result lookup(Result requestKey) {
         Result key = resultAggregation.get(requestKey);
         if (key == null) {
-            requestKey.init(getCopy());
-            resultAggregation.put(requestKey, requestKey);
-            key = requestKey;
+            key = create(requestKey);
+            resultAggregation.put(key);
         }
         return key;
     }
 
+    /**
+     * Initializes a new group with fresh aggregates.
+     *
+     * @param group the new group
+     * @return the group
+     */
+    private Result create(Result group) {
+        group.init(getCopy());
+        group.version = epoch; // not part of a running snapshot
+        groupsCreated++;
+        return group;
+    }
+
+    /**
+     * Hash of the group key of the entity, equal to the hash code of its {@link Result}. Prepares the container on
+     * the first call, so it can not be configured afterwards.
+     *
+     * @param object the entity
+     * @return hash code of the group of the entity
+     */
+    @SuppressWarnings("unchecked")
+    int keyHash(T object) {
+        if (entityClass == null) {
+            prepare((Class<? extends T>) object.getClass());
+        }
+        try {
+            return new Result(readKeys(object, new Object[idFields.size()])).hashCode();
+        } catch (IllegalAccessException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
     // 35% of exec time are burnt in this method.
-    private Result buildRequestKey(T object) throws IllegalAccessException, IllegalArgumentException {
-        Object[] k = new Object[idFields.size()];
-        for (int i = 0; i < idFields.size(); i++) {
-            Field f = idFields.get(i);
-            k[i] = f.get(object);
+    private Object[] readKeys(Object object, Object[] k) throws IllegalAccessException, IllegalArgumentException {
+        for (int i = 0; i < k.length; i++) {
+            k[i] = idReaders.get(i).get(object);
         }
-        return new Result(k);
+        return k;
     }
 
     /**
@@ -332,6 +2400,15 @@ public class Container<T> {
          * The "cells" of the result
          */
         private List<Element> elements;
+        /**
+         * number of aggregated entities, which tells when a group becomes empty by retraction
+         */
+        private int entities;
+        /**
+         * epoch of the latest snapshot that copied this group, and the copy until the snapshot picked it up
+         */
+        private volatile int version;
+        private Result frozen;
 
         /**
          * Create a new key object from the given object array as primary keys.
@@ -356,7 +2433,8 @@ public class Container<T> {
          * @return
          */
         private Element getElement(String alias) {
-            for (Element element : elements) {
+            for (int i = 0; i < elements.size(); i++) {
+                Element element = elements.get(i);
                 if (element.getAlias().equals(alias)) {
                     return element;
                 }
@@ -371,6 +2449,14 @@ public class Container<T> {
             return keys.clone();
         }
 
+        /**
+         * @param i position of the key
+         * @return the key without copying the array
+         */
+        Object key(int i) {
+            return keys[i];
+        }
+
         @Override
         public String toString() {
             String s = "Key: ";
@@ -467,19 +2553,180 @@ public class Container<T> {
      */
     static class Element {
 
+        // the different ways of reading the field and calling the aggregate, resolved once at prepare time
+        static final int OBJECT = 0;
+        static final int NUMBER = 1;
+        static final int CHAR = 2;
+        static final int BOOLEAN = 3;
+        static final int PAIR = 4;
+        static final int PAYLOAD = 5;
+        static final int LONG = 6;
+
         private final String alias;
         private final AbstractAggregate agg;
-        private final Field field;
+        private final ValueReader reader;
+        /**
+         * second field of two-field aggregates or payload field, null otherwise
+         */
+        private final ValueReader pair;
+        private final int kind;
+        /**
+         * index of the filter that restricts the aggregate, -1 if it sees all entities
+         */
+        private final int filter;
 
-        public Element(AbstractAggregate agg, String alias, Field field) {
+        Element(AbstractAggregate agg, String alias, ValueReader reader, ValueReader pair) {
+            this(typed(agg, reader, pair), alias, reader, pair, kindOf(agg, reader, pair), -1);
+        }
+
+        private Element(AbstractAggregate agg, String alias, ValueReader reader, ValueReader pair, int kind,
+                int filter) {
             this.agg = agg;
             this.alias = alias;
-            this.field = field;
-            field.setAccessible(true);
+            this.reader = reader;
+            this.pair = pair;
+            this.kind = kind;
+            this.filter = filter;
+        }
+
+        /**
+         * @param agg the aggregate
+         * @param alias alias of the result
+         * @param reader the numeric field that selects the payload
+         * @param payload the payload field
+         * @return a new element that passes the payload along with the value
+         */
+        static Element withPayload(AbstractAggregate agg, String alias, ValueReader reader, ValueReader payload) {
+            if (!isNumeric(reader.getType())) {
+                throw new IllegalStateException("Field " + reader.getName() + " must be of a primitive numeric type");
+            }
+            if (!(agg instanceof PayloadAggregate)) {
+                throw new IllegalStateException(agg.getClass().getName() + " of field " + reader.getName()
+                        + " is no PayloadAggregate");
+            }
+            return new Element(agg, alias, reader, payload, PAYLOAD, -1);
         }
 
         public Element getInstance() {
-            return new Element(agg.getInstance(), alias, field);
+            return new Element(agg.getInstance(), alias, reader, pair, kind, filter);
+        }
+
+        /**
+         * @return true if the aggregate can retract the values this element passes to it
+         */
+        private boolean canRetract() {
+            switch (kind) {
+                case NUMBER:
+                    return agg instanceof RetractableAggregate;
+                case LONG:
+                    return agg instanceof RetractableIntegralAggregate;
+                case PAIR:
+                    return agg instanceof RetractablePairAggregate;
+                case PAYLOAD:
+                    return false;
+                default:
+                    return agg instanceof RetractableObjectAggregate;
+            }
+        }
+
+        /**
+         * @return a new element of the same field whose aggregate can retract values
+         */
+        private Element retractable() {
+            return new Element(agg.getRetractableInstance(), alias, reader, pair, kind, filter);
+        }
+
+        /**
+         * @param alias alias of the filtered element
+         * @param filter index of the filter
+         * @return a new element of the same aggregate and field that is restricted by the filter
+         */
+        private Element filtered(String alias, int filter) {
+            return new Element(agg.getInstance(), alias, reader, pair, kind, filter);
+        }
+
+        /**
+         * @return the instance of a {@link TypedAggregate} for the type of the field, the aggregate otherwise
+         */
+        private static AbstractAggregate typed(AbstractAggregate agg, ValueReader field, ValueReader pair) {
+            return agg instanceof TypedAggregate && pair == null
+                    ? ((TypedAggregate) agg).forFieldType(field.getType())
+                    : agg;
+        }
+
+        /**
+         * Determines how the field is passed to the aggregate.
+         *
+         * Typed aggregate functions get the (boxed) value, after checking that the field type matches the declared
+         * input type, unless they consume primitive doubles.
+         */
+        private static int kindOf(AbstractAggregate agg, ValueReader field, ValueReader pair) {
+            Class<?> type = field.getType();
+            if (pair != null) {
+                if (!isNumeric(type) || !isNumeric(pair.getType())) {
+                    throw new IllegalStateException("Fields " + field.getName() + " and " + pair.getName()
+                            + " must both be of a primitive numeric type");
+                }
+                if (!(agg instanceof PairAggregate)) {
+                    throw new IllegalStateException(agg.getClass().getName() + " of field " + field.getName()
+                            + " is no PairAggregate");
+                }
+                return PAIR;
+            }
+            if (agg instanceof FunctionAggregate) {
+                if (((FunctionAggregate) agg).isNumeric() && isNumeric(type) && !type.equals(char.class)) {
+                    return NUMBER;
+                }
+                if (((FunctionAggregate) agg).isNumeric() && Number.class.isAssignableFrom(type)) {
+                    return OBJECT; // converted to Double by the adapter
+                }
+                Class<?> inputType = ((FunctionAggregate) agg).getFunction().getInputType();
+                if (!inputType.isAssignableFrom(wrap(type))) {
+                    throw new IllegalStateException("Field " + field.getName() + " of type " + type.getName()
+                            + " can't be aggregated by a function consuming " + inputType.getName());
+                }
+                return OBJECT;
+            }
+            if (type.equals(char.class)) {
+                return CHAR;
+            } else if (type.equals(boolean.class)) {
+                return BOOLEAN;
+            } else if (agg instanceof IntegralAggregate && isIntegral(type)) {
+                return LONG;
+            } else if (type.isPrimitive()) {
+                return NUMBER;
+            }
+            return OBJECT;
+        }
+
+        private static boolean isIntegral(Class<?> type) {
+            return type.equals(long.class) || type.equals(int.class) || type.equals(short.class)
+                    || type.equals(byte.class);
+        }
+
+        private static boolean isNumeric(Class<?> type) {
+            return type.isPrimitive() && !type.equals(boolean.class);
+        }
+
+        static Class<?> wrap(Class<?> type) {
+            if (!type.isPrimitive()) {
+                return type;
+            } else if (type.equals(int.class)) {
+                return Integer.class;
+            } else if (type.equals(byte.class)) {
+                return Byte.class;
+            } else if (type.equals(float.class)) {
+                return Float.class;
+            } else if (type.equals(double.class)) {
+                return Double.class;
+            } else if (type.equals(long.class)) {
+                return Long.class;
+            } else if (type.equals(char.class)) {
+                return Character.class;
+            } else if (type.equals(short.class)) {
+                return Short.class;
+            }
+            return Boolean.class;
         }
 
         public String getAlias() {
@@ -515,6 +2762,72 @@ public class Container<T> {
         }
     }
 
+    /**
+     * Live view on the counters for JMX.
+     */
+    private class Monitor implements ContainerStatsMXBean {
+
+        @Override
+        public long getEntities() {
+            acquireCounters();
+            return entityCount;
+        }
+
+        @Override
+        public long getGroups() {
+            acquireCounters();
+            return groupCount();
+        }
+
+        @Override
+        public long getGroupsCreated() {
+            acquireCounters();
+            return groupsCreated;
+        }
+
+        @Override
+        public long getEvictions() {
+            acquireCounters();
+            return evictions();
+        }
+
+        @Override
+        public long getCombinerHits() {
+            acquireCounters();
+            return combinerHits;
+        }
+
+        @Override
+        public long getCombinerMisses() {
+            acquireCounters();
+            return combinerMisses;
+        }
+
+        @Override
+        public long getRehashes() {
+            acquireCounters();
+            return resultAggregation.getRehashes();
+        }
+
+        @Override
+        public long getKeyNanos() {
+            acquireCounters();
+            return keyNanos;
+        }
+
+        @Override
+        public long getAggregateNanos() {
+            acquireCounters();
+            return aggregateNanos;
+        }
+
+        @Override
+        public long getEstimatedBytes() {
+            acquireCounters();
+            return groupCount() * bytesPerGroup;
+        }
+    }
+
     /**
      * State machine for checking the currect call order.
      *
@@ -524,7 +2837,15 @@ public class Container<T> {
 
         void register(AbstractAggregate agg);
 
+        void configure();
+
+        void merge(Container<T> other);
+
         void aggregate(T o);
+
+        void aggregateAll(List<? extends T> objects);
+
+        void retract(T o);
     }
 
     /**
@@ -537,12 +2858,281 @@ public class Container<T> {
             doRegisterAggregate(agg);
         }
 
+        @Override
+        public void configure() {
+        }
+
+        @Override
+        public void merge(Container<T> other) {
+            doPrepare(other.entityClass);
+            currentState = new AggregateState();
+            currentState.merge(other);
+        }
+
         @Override
         public void aggregate(T o) {
             doPrepare(o.getClass());
             currentState = new AggregateState();
             currentState.aggregate(o);
         }
+
+        @Override
+        public void aggregateAll(List<? extends T> objects) {
+            if (!objects.isEmpty()) {
+                doPrepare(objects.get(0).getClass());
+                currentState = new AggregateState();
+                currentState.aggregateAll(objects);
+            }
+        }
+
+        @Override
+        public void retract(T o) {
+            throw new IllegalArgumentException("Nothing was aggregated yet");
+        }
+    }
+
+    /**
+     * Keys and values of entities that are read when the entities arrive but applied later or to several groups.
+     *
+     * Holds one cell per row and template element. Only the columns needed by the kinds of the elements are
+     * allocated, and the entities themselves are never referenced.
+     */
+    private final class Rows {
+
+        private final int width;
+        private final Result[] keys;
+        private final double[] values;
+        private final double[] pairs;
+        private final long[] longs;
+        private final Object[] objects;
+        private final boolean[] skipped;
+        private int size = 0;
+
+        /**
+         * @param capacity number of rows
+         */
+        Rows(int capacity) {
+            width = aggregationMapCache.size();
+            boolean hasValues = false;
+            boolean hasPairs = false;
+            boolean hasLongs = false;
+            boolean hasObjects = false;
+            boolean hasFilters = false;
+            for (Element tuple : aggregationMapCache) {
+                hasPairs |= tuple.kind == Element.PAIR;
+                hasLongs |= tuple.kind == Element.LONG;
+                hasObjects |= tuple.kind == Element.OBJECT || tuple.kind == Element.PAYLOAD;
+                hasValues |= tuple.kind != Element.OBJECT && tuple.kind != Element.LONG;
+                hasFilters |= tuple.filter >= 0;
+            }
+            int cells = capacity * width;
+            keys = new Result[capacity];
+            values = hasValues ? new double[cells] : null;
+            pairs = hasPairs ? new double[cells] : null;
+            longs = hasLongs ? new long[cells] : null;
+            objects = hasObjects ? new Object[cells] : null;
+            skipped = hasFilters ? new boolean[cells] : null;
+        }
+
+        int capacity() {
+            return keys.length;
+        }
+
+        /**
+         * Reads the values of the entity into the next row.
+         *
+         * @param key the key of the entity
+         * @param object the entity
+         */
+        void add(Result key, Object object) throws IllegalAccessException {
+            boolean[] passed = evaluateFilters(object);
+            int base = size * width;
+            for (int e = 0; e < width; e++) {
+                Element tuple = aggregationMapCache.get(e);
+                int i = base + e;
+                if (skipped != null) {
+                    skipped[i] = tuple.filter >= 0 && !passed[tuple.filter];
+                    if (skipped[i]) {
+                        continue;
+                    }
+                }
+                ValueReader r = tuple.reader;
+                switch (tuple.kind) {
+                    case Element.NUMBER:
+                        values[i] = r.getDouble(object);
+                        break;
+                    case Element.LONG:
+                        longs[i] = r.getLong(object);
+                        break;
+                    case Element.CHAR:
+                        values[i] = r.getChar(object);
+                        break;
+                    case Element.BOOLEAN:
+                        values[i] = r.getBoolean(object) ? 1 : 0;
+                        break;
+                    case Element.PAIR:
+                        values[i] = r.getDouble(object);
+                        pairs[i] = tuple.pair.getDouble(object);
+                        break;
+                    case Element.PAYLOAD:
+                        values[i] = r.getDouble(object);
+                        objects[i] = tuple.pair.get(object);
+                        break;
+                    default:
+                        objects[i] = r.get(object);
+                }
+            }
+            keys[size++] = key;
+        }
+
+        /**
+         * Applies the value of one cell.
+         *
+         * @param tuple the element of a group
+         * @param i index of the cell, the row times the width plus the index of the element in the template
+         */
+        void apply(Element tuple, int i) {
+            if (skipped != null && skipped[i]) {
+                return;
+            }
+            AbstractAggregate agg = tuple.agg;
+            switch (tuple.kind) {
+                case Element.NUMBER:
+                    agg.apply(values[i]);
+                    break;
+                case Element.LONG:
+                    ((IntegralAggregate) agg).apply(longs[i]);
+                    break;
+                case Element.CHAR:
+                    agg.apply((char) values[i]);
+                    break;
+                case Element.BOOLEAN:
+                    agg.apply(values[i] != 0);
+                    break;
+                case Element.PAIR:
+                    ((PairAggregate) agg).apply(values[i], pairs[i]);
+                    break;
+                case Element.PAYLOAD:
+                    ((PayloadAggregate) agg).apply(values[i], objects[i]);
+                    break;
+                default:
+                    agg.apply(objects[i]);
+            }
+        }
+
+        /**
+         * Removes all rows and drops their references.
+         */
+        void clear() {
+            Arrays.fill(keys, 0, size, null);
+            if (objects != null) {
+                Arrays.fill(objects, 0, size * width, null);
+            }
+            size = 0;
+        }
+    }
+
+    /**
+     * A grouping by a subset of the id fields, see {@link Id#views()}.
+     */
+    private class View {
+
+        /**
+         * indexes of the id fields and of the template elements of this view
+         */
+        private final int[] keys;
+        private final int[] elements;
+        private final HashGroupTable table = new HashGroupTable();
+
+        View(int[] keys, int[] elements) {
+            this.keys = keys;
+            this.elements = elements;
+        }
+
+        /**
+         * @param k the values of all id fields
+         * @return the group of this view, created if needed
+         */
+        Result groupFor(Object[] k) {
+            Object[] viewKeys = new Object[keys.length];
+            for (int i = 0; i < keys.length; i++) {
+                viewKeys[i] = k[keys[i]];
+            }
+            return group(viewKeys);
+        }
+
+        /**
+         * @param viewKeys the keys of the view
+         * @return the group, created if needed
+         */
+        private Result group(Object[] viewKeys) {
+            Result request = new Result(viewKeys);
+            Result group = table.get(request);
+            if (group == null) {
+                List<Element> list = new ArrayList<>(elements.length);
+                for (int e : elements) {
+                    list.add(aggregationMapCache.get(e).getInstance());
+                }
+                request.init(list);
+                table.put(request);
+                group = request;
+            }
+            return group;
+        }
+
+        /**
+         * Adds the groups of the same view of another container.
+         *
+         * @param other the view of the other container
+         */
+        void merge(View other) {
+            for (Result otherGroup : other.table.groups()) {
+                Result group = group(otherGroup.keys);
+                group.entities += otherGroup.entities;
+                for (int i = 0; i < group.elements.size(); i++) {
+                    ((MergeableAggregate) group.elements.get(i).agg).merge(otherGroup.elements.get(i).agg);
+                }
+            }
+        }
+    }
+
+    /**
+     * A filter and the aliases it restricts.
+     */
+    private static class Filter {
+
+        private final EntityFilter<Object> filter;
+        private final String suffix;
+        private final String[] aliases;
+
+        Filter(EntityFilter<Object> filter, String suffix, String[] aliases) {
+            this.filter = filter;
+            this.suffix = suffix;
+            this.aliases = aliases.clone();
+        }
+    }
+
+    /**
+     * Filter on a boolean field or getter, null counts as false.
+     */
+    private static class FieldFilter implements EntityFilter<Object> {
+
+        private final ValueReader reader;
+
+        FieldFilter(ValueReader reader) {
+            this.reader = reader;
+        }
+
+        @Override
+        public boolean accept(Object entity) {
+            try {
+                return reader.getType().equals(boolean.class)
+                        ? reader.getBoolean(entity)
+                        : Boolean.TRUE.equals(reader.get(entity));
+            } catch (IllegalAccessException ex) {
+                throw new IllegalStateException(ex);
+            }
+        }
     }
 
     /**
@@ -557,10 +3147,30 @@ public class Container<T> {
             throw new IllegalStateException("You can only register new functions before doing the first aggregate.");
         }
 
+        @Override
+        public void configure() {
+            throw new IllegalStateException("You can only configure the container before doing the first aggregate.");
+        }
+
+        @Override
+        public void merge(Container<T> other) {
+            doMerge(other);
+        }
+
         @Override
         public void aggregate(T o) {
             doAggregate(o);
         }
+
+        @Override
+        public void aggregateAll(List<? extends T> objects) {
+            doAggregateAll(objects);
+        }
+
+        @Override
+        public void retract(T o) {
+            doRetract(o);
+        }
     }
 
 }
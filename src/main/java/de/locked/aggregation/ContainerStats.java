@@ -0,0 +1,105 @@
+/*
+ * Copyright 2013 Dr. Franz Graf.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.locked.aggregation;
+
+/**
+ * Point-in-time copy of the counters of a container, see {@link Container#getStats()}.
+ */
+public final class ContainerStats implements ContainerStatsMXBean {
+
+    private final long entities;
+    private final long groups;
+    private final long groupsCreated;
+    private final long evictions;
+    private final long combinerHits;
+    private final long combinerMisses;
+    private final long rehashes;
+    private final long keyNanos;
+    private final long aggregateNanos;
+    private final long estimatedBytes;
+
+    ContainerStats(long entities, long groups, long groupsCreated, long evictions, long combinerHits,
+            long combinerMisses, long rehashes, long keyNanos, long aggregateNanos, long estimatedBytes) {
+        this.entities = entities;
+        this.groups = groups;
+        this.groupsCreated = groupsCreated;
+        this.evictions = evictions;
+        this.combinerHits = combinerHits;
+        this.combinerMisses = combinerMisses;
+        this.rehashes = rehashes;
+        this.keyNanos = keyNanos;
+        this.aggregateNanos = aggregateNanos;
+        this.estimatedBytes = estimatedBytes;
+    }
+
+    @Override
+    public long getEntities() {
+        return entities;
+    }
+
+    @Override
+    public long getGroups() {
+        return groups;
+    }
+
+    @Override
+    public long getGroupsCreated() {
+        return groupsCreated;
+    }
+
+    @Override
+    public long getEvictions() {
+        return evictions;
+    }
+
+    @Override
+    public long getCombinerHits() {
+        return combinerHits;
+    }
+
+    @Override
+    public long getCombinerMisses() {
+        return combinerMisses;
+    }
+
+    @Override
+    public long getRehashes() {
+        return rehashes;
+    }
+
+    @Override
+    public long getKeyNanos() {
+        return keyNanos;
+    }
+
+    @Override
+    public long getAggregateNanos() {
+        return aggregateNanos;
+    }
+
+    @Override
+    public long getEstimatedBytes() {
+        return estimatedBytes;
+    }
+
+    @Override
+    public String toString() {
+        return "ContainerStats{" + "entities=" + entities + ", groups=" + groups + ", groupsCreated=" + groupsCreated
+                + ", evictions=" + evictions + ", combinerHits=" + combinerHits + ", combinerMisses=" + combinerMisses
+                + ", rehashes=" + rehashes + ", keyNanos=" + keyNanos + ", aggregateNanos=" + aggregateNanos
+                + ", estimatedBytes=" + estimatedBytes + '}';
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2013 Dr. Franz Graf.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.locked.aggregation;
+
+/**
+ * Management interface of a container, see {@link Container#registerMBean(java.lang.String)}.
+ *
+ * All values are counted since the container was created.
+ */
+public interface ContainerStatsMXBean {
+
+    /**
+     * @return number of aggregated entities
+     */
+    long getEntities();
+
+    /**
+     * @return number of groups currently held by the container
+     */
+    long getGroups();
+
+    /**
+     * @return number of groups that were created
+     */
+    long getGroupsCreated();
+
+    /**
+     * @return number of groups that were removed by eviction
+     */
+    long getEvictions();
+
+    /**
+     * @return number of lookups answered by the combiner cache
+     */
+    long getCombinerHits();
+
+    /**
+     * @return number of lookups that missed the combiner cache
+     */
+    long getCombinerMisses();
+
+    /**
+     * @return number of times the group table was resized
+     */
+    long getRehashes();
+
+    /**
+     * @return time spent reading keys and looking up groups, only measured if timing is enabled
+     */
+    long getKeyNanos();
+
+    /**
+     * @return time spent applying the aggregates, only measured if timing is enabled
+     */
+    long getAggregateNanos();
+
+    /**
+     * @return rough estimate of the heap occupied by the groups, excluding variable sized aggregate state
+     */
+    long getEstimatedBytes();
+}
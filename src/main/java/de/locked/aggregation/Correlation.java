@@ -0,0 +1,46 @@
+/*
+ * Copyright 2013 Dr. Franz Graf.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.locked.aggregation;
+
+import static java.lang.annotation.ElementType.FIELD;
+import static java.lang.annotation.ElementType.METHOD;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Pearson correlation coefficient of the annotated field or getter and the field named by {@link #with()}.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(value = {FIELD, METHOD})
+public @interface Correlation {
+
+    String alias();
+
+    /**
+     * Name of the public numeric field that forms the second variable.
+     *
+     * @return field name
+     */
+    String with();
+
+    /**
+     * Views in which this aggregate is computed as well, see {@link Id#views()}. Empty for all views.
+     *
+     * @return names of the views
+     */
+    String[] views() default {};
+}
@@ -15,7 +15,12 @@
  */
 package de.locked.aggregation;
 
-public class CountAggregate extends AbstractAggregate {
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+public class CountAggregate extends AbstractAggregate implements RetractableAggregate, RetractableObjectAggregate,
+        ExchangeableAggregate {
 
     private int i = 0;
 
@@ -28,6 +33,11 @@ public class CountAggregate extends AbstractAggregate {
         i++;
     }
 
+    @Override
+    public void applyAll(double[] values, int from, int to) {
+        i += to - from;
+    }
+
     @Override
     public void apply(boolean v) {
         i++;
@@ -43,6 +53,31 @@ public class CountAggregate extends AbstractAggregate {
         i++;
     }
 
+    @Override
+    public void retract(Object o) {
+        i--;
+    }
+
+    @Override
+    public void retract(double v) {
+        i--;
+    }
+
+    @Override
+    public void merge(AbstractAggregate other) {
+        i += ((CountAggregate) other).i;
+    }
+
+    @Override
+    public void writeState(DataOutput out) throws IOException {
+        out.writeInt(i);
+    }
+
+    @Override
+    public void readState(DataInput in) throws IOException {
+        i = in.readInt();
+    }
+
     @Override
     public double getDouble() {
         return i;
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2013 Dr. Franz Graf.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.locked.aggregation;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.lang.annotation.Annotation;
+
+/**
+ * Sample covariance of two fields, updated per pair in a single pass and merged by the pairwise update of Chan et al.
+ *
+ * The sums of squares of both variables are maintained as well, so that {@link CorrelationAggregate} can reuse the
+ * same state.
+ */
+public class CovarianceAggregate extends AbstractAggregate implements RetractablePairAggregate,
+        ExchangeableAggregate {
+
+    long n = 0;
+    double meanX = 0;
+    double meanY = 0;
+    /**
+     * co-moment: sum of (x - meanX) * (y - meanY)
+     */
+    double c = 0;
+    double m2x = 0;
+    double m2y = 0;
+
+    public CovarianceAggregate() {
+        this(Covariance.class);
+    }
+
+    protected CovarianceAggregate(Class<? extends Annotation> annotation) {
+        super(annotation);
+    }
+
+    @Override
+    public void apply(double x, double y) {
+        n++;
+        double dx = x - meanX;
+        double dy = y - meanY;
+        meanX += dx / n;
+        meanY += dy / n;
+        c += dx * (y - meanY);
+        m2x += dx * (x - meanX);
+        m2y += dy * (y - meanY);
+    }
+
+    /**
+     * Reverts the update of {@link #apply(double, double)}.
+     */
+    @Override
+    public void retract(double x, double y) {
+        if (n <= 1) {
+            n = 0;
+            meanX = 0;
+            meanY = 0;
+            c = 0;
+            m2x = 0;
+            m2y = 0;
+            return;
+        }
+        double previousX = (n * meanX - x) / (n - 1);
+        double previousY = (n * meanY - y) / (n - 1);
+        c -= (x - previousX) * (y - meanY);
+        m2x = Math.max(0, m2x - (x - previousX) * (x - meanX));
+        m2y = Math.max(0, m2y - (y - previousY) * (y - meanY));
+        meanX = previousX;
+        meanY = previousY;
+        n--;
+    }
+
+    @Override
+    public void merge(AbstractAggregate other) {
+        CovarianceAggregate o = (CovarianceAggregate) other;
+        if (o.n == 0) {
+            return;
+        }
+        long count = n + o.n;
+        double dx = o.meanX - meanX;
+        double dy = o.meanY - meanY;
+        double f = (double) n * o.n / count;
+        c += o.c + dx * dy * f;
+        m2x += o.m2x + dx * dx * f;
+        m2y += o.m2y + dy * dy * f;
+        meanX += dx * o.n / count;
+        meanY += dy * o.n / count;
+        n = count;
+    }
+
+    @Override
+    public void writeState(DataOutput out) throws IOException {
+        out.writeLong(n);
+        out.writeDouble(meanX);
+        out.writeDouble(meanY);
+        out.writeDouble(c);
+        out.writeDouble(m2x);
+        out.writeDouble(m2y);
+    }
+
+    @Override
+    public void readState(DataInput in) throws IOException {
+        n = in.readLong();
+        meanX = in.readDouble();
+        meanY = in.readDouble();
+        c = in.readDouble();
+        m2x = in.readDouble();
+        m2y = in.readDouble();
+    }
+
+    @Override
+    public AbstractAggregate getInstance() {
+        return new CovarianceAggregate();
+    }
+
+    /**
+     * @return the sample covariance or NaN if less than two pairs were aggregated
+     */
+    @Override
+    public double getDouble() {
+        return n < 2 ? Double.NaN : c / (n - 1);
+    }
+}
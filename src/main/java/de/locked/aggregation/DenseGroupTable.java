@@ -0,0 +1,311 @@
+/*
+ * Copyright 2013 Dr. Franz Graf.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.locked.aggregation;
+
+import java.lang.reflect.Field;
+import java.util.AbstractCollection;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * Group table for keys from small domains, which stores every group at an array index computed from its key values.
+ *
+ * A domain is known for boolean, byte and enum fields and for integral fields with bounds declared by
+ * {@link Id#min()} and {@link Id#max()}. The index of a group is the mixed radix number of the positions of its key
+ * values in their domains, so neither hashing nor probing is needed.
+ */
+class DenseGroupTable implements GroupTable {
+
+    /**
+     * largest number of slots that is allocated
+     */
+    static final int MAX_SLOTS = 1 << 16;
+
+    private final Domain[] domains;
+    private final Container.Result[] slots;
+    private int size = 0;
+
+    /**
+     * @param domains the domains of all key fields in key order
+     */
+    DenseGroupTable(Domain[] domains) {
+        this.domains = domains.clone();
+        this.slots = new Container.Result[slotCount(domains)];
+    }
+
+    /**
+     * @param domains the domains of the key fields, may contain null for fields without a small domain
+     * @return the number of slots or -1 if a domain is missing or the table would be too large
+     */
+    static int slotCount(Domain[] domains) {
+        long slots = 1;
+        for (Domain domain : domains) {
+            if (domain == null) {
+                return -1;
+            }
+            slots *= domain.size;
+            if (slots > MAX_SLOTS) {
+                return -1;
+            }
+        }
+        return (int) slots;
+    }
+
+    Domain getDomain(int i) {
+        return domains[i];
+    }
+
+    Container.Result getAt(int index) {
+        return slots[index];
+    }
+
+    void putAt(int index, Container.Result group) {
+        if (slots[index] == null) {
+            size++;
+        }
+        slots[index] = group;
+    }
+
+    @Override
+    public Container.Result get(Container.Result key) {
+        return slots[indexOf(key)];
+    }
+
+    @Override
+    public void put(Container.Result group) {
+        putAt(indexOf(group), group);
+    }
+
+    @Override
+    public void remove(Container.Result group) {
+        int index = indexOf(group);
+        if (slots[index] != null) {
+            slots[index] = null;
+            size--;
+        }
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public long getRehashes() {
+        return 0;
+    }
+
+    @Override
+    public Spliterator<Container.Result> spliterator() {
+        return new SlotSpliterator(0, slots.length, size);
+    }
+
+    @Override
+    public Collection<Container.Result> groups() {
+        return new AbstractCollection<Container.Result>() {
+
+            @Override
+            public Iterator<Container.Result> iterator() {
+                return new Iterator<Container.Result>() {
+                    private int next = advance(0);
+
+                    private int advance(int from) {
+                        while (from < slots.length && slots[from] == null) {
+                            from++;
+                        }
+                        return from;
+                    }
+
+                    @Override
+                    public boolean hasNext() {
+                        return next < slots.length;
+                    }
+
+                    @Override
+                    public Container.Result next() {
+                        if (!hasNext()) {
+                            throw new NoSuchElementException();
+                        }
+                        Container.Result group = slots[next];
+                        next = advance(next + 1);
+                        return group;
+                    }
+
+                    @Override
+                    public void remove() {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    private int indexOf(Container.Result key) {
+        int index = 0;
+        for (int i = 0; i < domains.length; i++) {
+            index = index * domains[i].size + domains[i].indexOf(key.key(i));
+        }
+        return index;
+    }
+
+    /**
+     * Splits the slot array into halves. Only the undivided spliterator knows its exact size, the halves estimate
+     * theirs.
+     */
+    private final class SlotSpliterator implements Spliterator<Container.Result> {
+
+        private int next;
+        private final int fence;
+        private long estimate;
+        private int sized = Spliterator.SIZED;
+
+        SlotSpliterator(int next, int fence, long estimate) {
+            this.next = next;
+            this.fence = fence;
+            this.estimate = estimate;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super Container.Result> action) {
+            while (next < fence) {
+                Container.Result group = slots[next++];
+                if (group != null) {
+                    action.accept(group);
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public void forEachRemaining(Consumer<? super Container.Result> action) {
+            for (; next < fence; next++) {
+                if (slots[next] != null) {
+                    action.accept(slots[next]);
+                }
+            }
+        }
+
+        @Override
+        public Spliterator<Container.Result> trySplit() {
+            int mid = (next + fence) >>> 1;
+            if (mid <= next) {
+                return null;
+            }
+            estimate >>>= 1;
+            sized = 0;
+            SlotSpliterator prefix = new SlotSpliterator(next, mid, estimate);
+            prefix.sized = 0;
+            next = mid;
+            return prefix;
+        }
+
+        @Override
+        public long estimateSize() {
+            return estimate;
+        }
+
+        @Override
+        public int characteristics() {
+            return sized | Spliterator.DISTINCT | Spliterator.NONNULL;
+        }
+    }
+
+    /**
+     * The possible values of one key field.
+     */
+    static final class Domain {
+
+        static final int BOOLEAN = 0;
+        static final int ENUM = 1;
+        static final int INTEGRAL = 2;
+
+        final int kind;
+        final long min;
+        final int size;
+        private final String field;
+
+        private Domain(int kind, long min, int size, String field) {
+            this.kind = kind;
+            this.min = min;
+            this.size = size;
+            this.field = field;
+        }
+
+        /**
+         * @param f an {@link Id} field
+         * @return the domain of the field or null if it is not small
+         */
+        static Domain of(Field f) {
+            Class<?> type = f.getType();
+            Id id = f.getAnnotation(Id.class);
+            if (type == boolean.class) {
+                return new Domain(BOOLEAN, 0, 2, f.getName());
+            } else if (type.isEnum()) {
+                // position 0 is null
+                return new Domain(ENUM, 0, type.getEnumConstants().length + 1, f.getName());
+            } else if (isIntegral(type) && id.max() >= id.min()) {
+                long size = id.max() - id.min() + 1;
+                return size > 0 && size <= MAX_SLOTS ? new Domain(INTEGRAL, id.min(), (int) size, f.getName()) : null;
+            } else if (type == byte.class) {
+                return new Domain(INTEGRAL, Byte.MIN_VALUE, 256, f.getName());
+            }
+            return null;
+        }
+
+        private static boolean isIntegral(Class<?> type) {
+            return type == int.class || type == long.class || type == short.class || type == byte.class
+                    || type == char.class;
+        }
+
+        /**
+         * @param value a key value
+         * @return the position of the value in the domain
+         * @throws IllegalArgumentException if the value is out of the declared bounds
+         */
+        int indexOf(Object value) {
+            if (kind == BOOLEAN) {
+                return (Boolean) value ? 1 : 0;
+            } else if (kind == ENUM) {
+                return value == null ? 0 : ((Enum) value).ordinal() + 1;
+            }
+            long v = value instanceof Character ? (Character) value : ((Number) value).longValue();
+            return checkedIndex(v);
+        }
+
+        /**
+         * @param v an integral key value
+         * @return the position of the value in the domain
+         * @throws IllegalArgumentException if the value is out of the declared bounds
+         */
+        int checkedIndex(long v) {
+            long index = v - min;
+            if (index < 0 || index >= size) {
+                throw new IllegalArgumentException("Key " + v + " of field " + field + " is out of the bounds ["
+                        + min + ", " + (min + size - 1) + "]");
+            }
+            return (int) index;
+        }
+    }
+}
@@ -16,13 +16,29 @@
 package de.locked.aggregation;
 
 import static java.lang.annotation.ElementType.FIELD;
+import static java.lang.annotation.ElementType.METHOD;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.lang.annotation.Target;
 
 @Retention(RetentionPolicy.RUNTIME)
-@Target(value = {FIELD})
+@Target(value = {FIELD, METHOD})
 public @interface Distinct {
 
     String alias();
+
+    /**
+     * Number of distinct values up to which the exact values are kept per group. Beyond that, the values are
+     * replaced by a sketch of constant size and only the estimated count is available.
+     *
+     * @return the maximum number of exact values
+     */
+    int maxExact() default Integer.MAX_VALUE;
+
+    /**
+     * Views in which this aggregate is computed as well, see {@link Id#views()}. Empty for all views.
+     *
+     * @return names of the views
+     */
+    String[] views() default {};
 }
@@ -1,46 +1,519 @@
-/*
- * Copyright 2013 Dr. Franz Graf.
- *
- * Licensed under the Apache License, Version 2.0 (the "License");
- * you may not use this file except in compliance with the License.
- * You may obtain a copy of the License at
- *
- *      http://www.apache.org/licenses/LICENSE-2.0
- *
- * Unless required by applicable law or agreed to in writing, software
- * distributed under the License is distributed on an "AS IS" BASIS,
- * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
- * See the License for the specific language governing permissions and
- * limitations under the License.
- */
-package de.locked.aggregation;
-
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.Collections;
-import java.util.HashSet;
-import java.util.Set;
-
-public class DistinctAggregate extends AbstractAggregate {
-
-    private Set set = new HashSet();
-
-    public DistinctAggregate() {
-        super(Distinct.class);
-    }
-
-    @Override
-    public void apply(Object v) {
-        set.add(v);
-    }
-
-    @Override
-    public AbstractAggregate getInstance() {
-        return new DistinctAggregate();
-    }
-
-    @Override
-    public Collection getCollection() {
-        return Collections.unmodifiableSet(set);
-    }
-}
+/*
+ * Copyright 2013 Dr. Franz Graf.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.locked.aggregation;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.lang.annotation.Annotation;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Collects the distinct values of a field.
+ *
+ * The representation adapts to the number of values, as most groups only see very few of them: up to
+ * {@link #INLINE} values are kept in a small array, larger groups use a HashSet. Values of numeric fields are stored
+ * as primitives in an open addressing set instead, integral values as exact longs and floating point values by their
+ * bits. Once more than {@link Distinct#maxExact()} values were seen, the values are replaced by a HyperLogLog sketch
+ * of constant size and only the estimated count remains available.
+ *
+ * Retractable instances count the occurrences of every value instead, so that a value disappears once all of its
+ * occurrences were retracted. They always keep the exact values.
+ */
+public class DistinctAggregate extends AbstractAggregate implements TypedAggregate, RetractableAggregate,
+        RetractableIntegralAggregate, RetractableObjectAggregate, ExchangeableAggregate {
+
+    /**
+     * maximum number of values that are kept in the inline array
+     */
+    static final int INLINE = 8;
+
+    /**
+     * representations in the partial state
+     */
+    private static final byte OBJECTS = 0;
+    private static final byte NUMBERS = 1;
+    private static final byte SKETCH = 2;
+    private static final byte COUNTS = 3;
+
+    private final int maxExact;
+    /**
+     * primitive numeric type of the field, which the numbers are returned as; null for other fields
+     */
+    private final Class<?> type;
+
+    private Object[] inline;
+    private int inlineSize = 0;
+    private Set<Object> set;
+    private LongHashSet numbers;
+    private HyperLogLog sketch;
+    /**
+     * number of occurrences of every value, only kept by retractable instances
+     */
+    private final Map<Object, int[]> counts;
+
+    public DistinctAggregate() {
+        this(Integer.MAX_VALUE);
+    }
+
+    /**
+     * @param maxExact number of distinct values up to which the exact values are kept
+     */
+    public DistinctAggregate(int maxExact) {
+        this(maxExact, false, null);
+    }
+
+    private DistinctAggregate(int maxExact, boolean retractable, Class<?> type) {
+        super(Distinct.class);
+        if (maxExact < 0) {
+            throw new IllegalArgumentException("maxExact must not be negative: " + maxExact);
+        }
+        this.maxExact = maxExact;
+        this.type = type;
+        this.counts = retractable ? new HashMap<Object, int[]>() : null;
+    }
+
+    @Override
+    public void apply(Object v) {
+        if (counts != null) {
+            add(v, 1);
+        } else if (sketch != null) {
+            sketch.add(hashOf(v));
+        } else if (set != null) {
+            set.add(v);
+            checkSize(set.size());
+        } else if (!inlineContains(v)) {
+            if (inline == null) {
+                inline = new Object[2];
+            } else if (inlineSize == inline.length) {
+                if (inlineSize == INLINE) {
+                    set = new HashSet<>(Arrays.asList(inline));
+                    set.add(v);
+                    inline = null;
+                    inlineSize = 0;
+                    checkSize(set.size());
+                    return;
+                }
+                inline = Arrays.copyOf(inline, inlineSize * 2);
+            }
+            inline[inlineSize++] = v;
+            checkSize(inlineSize);
+        }
+    }
+
+    @Override
+    public void apply(double v) {
+        if (counts != null) {
+            add(box(keyOf(v)), 1);
+        } else {
+            addNumber(keyOf(v));
+        }
+    }
+
+    @Override
+    public void apply(long v) {
+        if (counts != null) {
+            add(box(v), 1);
+        } else {
+            addNumber(v);
+        }
+    }
+
+    /**
+     * @param key the exact long or the bits of the floating point value
+     */
+    private void addNumber(long key) {
+        if (sketch != null) {
+            sketch.add(HyperLogLog.hash(key));
+        } else {
+            if (numbers == null) {
+                numbers = new LongHashSet(1);
+            }
+            numbers.add(key);
+            checkSize(numbers.size());
+        }
+    }
+
+    /**
+     * Adds a value that was boxed in a partial state or by a retractable instance.
+     *
+     * @param v the value
+     */
+    private void applyBoxed(Object v) {
+        if (type != null && v instanceof Number) {
+            addNumber(keyOf((Number) v));
+        } else {
+            apply(v);
+        }
+    }
+
+    @Override
+    public void retract(Object v) {
+        if (counts == null) {
+            throw new UnsupportedOperationException("Only retractable instances can retract values");
+        }
+        int[] count = counts.get(v);
+        if (count != null && --count[0] == 0) {
+            counts.remove(v);
+        }
+    }
+
+    @Override
+    public void retract(double v) {
+        retract(box(keyOf(v)));
+    }
+
+    @Override
+    public void retract(long v) {
+        retract(box(v));
+    }
+
+    @Override
+    public void merge(AbstractAggregate other) {
+        DistinctAggregate o = (DistinctAggregate) other;
+        if (counts != null && o.counts == null) {
+            throw new IllegalArgumentException("A retractable Distinct can't merge an instance without value counts");
+        }
+        if (o.counts != null) {
+            for (Map.Entry<Object, int[]> e : o.counts.entrySet()) {
+                if (counts != null) {
+                    add(e.getKey(), e.getValue()[0]);
+                } else {
+                    applyBoxed(e.getKey());
+                }
+            }
+        } else if (o.sketch != null) {
+            toSketch();
+            sketch.merge(o.sketch);
+        } else if (o.numbers != null) {
+            for (long key : o.numbers.toArray()) {
+                addNumber(key);
+            }
+        } else {
+            for (Object v : o.objects()) {
+                apply(v);
+            }
+        }
+    }
+
+    @Override
+    public void writeState(DataOutput out) throws IOException {
+        if (counts != null) {
+            out.writeByte(COUNTS);
+            out.writeInt(counts.size());
+            for (Map.Entry<Object, int[]> e : counts.entrySet()) {
+                StateIO.writeValue(out, e.getKey());
+                out.writeInt(e.getValue()[0]);
+            }
+        } else if (sketch != null) {
+            out.writeByte(SKETCH);
+            sketch.write(out);
+        } else if (numbers != null) {
+            out.writeByte(NUMBERS);
+            long[] values = numbers.toArray();
+            out.writeInt(values.length);
+            for (long key : values) {
+                out.writeLong(key);
+            }
+        } else {
+            out.writeByte(OBJECTS);
+            Collection<Object> values = objects();
+            out.writeInt(values.size());
+            for (Object v : values) {
+                StateIO.writeValue(out, v);
+            }
+        }
+    }
+
+    @Override
+    public void readState(DataInput in) throws IOException {
+        byte representation = in.readByte();
+        if (representation == COUNTS) {
+            for (int i = StateIO.readCount(in); i > 0; i--) {
+                Object v = StateIO.readValue(in);
+                int n = in.readInt();
+                if (n <= 0) {
+                    throw new IOException("Invalid count " + n + " of " + v);
+                }
+                if (counts != null) {
+                    add(v, n);
+                } else {
+                    applyBoxed(v);
+                }
+            }
+        } else if (representation == SKETCH) {
+            sketch = new HyperLogLog();
+            sketch.read(in);
+        } else if (representation == NUMBERS) {
+            for (int i = StateIO.readCount(in); i > 0; i--) {
+                addNumber(in.readLong());
+            }
+        } else if (representation == OBJECTS) {
+            for (int i = StateIO.readCount(in); i > 0; i--) {
+                applyBoxed(StateIO.readValue(in));
+            }
+        } else {
+            throw new IOException("Unknown representation " + representation);
+        }
+    }
+
+    @Override
+    public AbstractAggregate getInstance(Annotation annotation) {
+        return new DistinctAggregate(((Distinct) annotation).maxExact());
+    }
+
+    @Override
+    public AbstractAggregate getInstance() {
+        return new DistinctAggregate(maxExact, counts != null, type);
+    }
+
+    @Override
+    public AbstractAggregate getRetractableInstance() {
+        return new DistinctAggregate(maxExact, true, type);
+    }
+
+    @Override
+    public AbstractAggregate forFieldType(Class<?> type) {
+        boolean numeric = type.isPrimitive() && type != boolean.class && type != char.class;
+        return new DistinctAggregate(maxExact, counts != null, numeric ? type : null);
+    }
+
+    /**
+     * @return unmodifiable set of the distinct values; numbers have the (boxed) type of the field
+     * @throws IllegalStateException if the values were replaced by a sketch
+     */
+    @Override
+    public Collection<Object> getCollection() {
+        if (sketch != null) {
+            throw new IllegalStateException("More than " + maxExact
+                    + " distinct values were found, only the estimated count is available");
+        }
+        if (numbers != null) {
+            return new NumberSet();
+        }
+        return objects();
+    }
+
+    /**
+     * @return the number of distinct values, which is an estimate once the values were replaced by a sketch
+     */
+    @Override
+    public double getDouble() {
+        return count();
+    }
+
+    @Override
+    public int getInt() {
+        return (int) count();
+    }
+
+    private long count() {
+        if (counts != null) {
+            return counts.size();
+        } else if (sketch != null) {
+            return sketch.estimate();
+        } else if (numbers != null) {
+            return numbers.size();
+        } else if (set != null) {
+            return set.size();
+        }
+        return inlineSize;
+    }
+
+    /**
+     * @return unmodifiable view of the exact object values
+     */
+    private Set<Object> objects() {
+        if (counts != null) {
+            return Collections.unmodifiableSet(counts.keySet());
+        }
+        if (set != null) {
+            return Collections.unmodifiableSet(set);
+        }
+        return new InlineSet();
+    }
+
+    private void add(Object v, int n) {
+        int[] count = counts.get(v);
+        if (count == null) {
+            counts.put(v, new int[]{n});
+        } else {
+            count[0] += n;
+        }
+    }
+
+    private boolean inlineContains(Object v) {
+        for (int i = 0; i < inlineSize; i++) {
+            if (Objects.equals(inline[i], v)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void checkSize(int size) {
+        if (size > maxExact) {
+            toSketch();
+        }
+    }
+
+    /**
+     * Replaces the exact values by a sketch.
+     */
+    private void toSketch() {
+        if (sketch != null) {
+            return;
+        }
+        sketch = new HyperLogLog();
+        if (numbers != null) {
+            for (long key : numbers.toArray()) {
+                sketch.add(HyperLogLog.hash(key));
+            }
+        } else {
+            for (Object v : objects()) {
+                sketch.add(hashOf(v));
+            }
+        }
+        inline = null;
+        inlineSize = 0;
+        set = null;
+        numbers = null;
+    }
+
+    private static long hashOf(Object v) {
+        return HyperLogLog.hash(v == null ? 0 : v.hashCode());
+    }
+
+    private boolean isIntegral() {
+        return type == long.class || type == int.class || type == short.class || type == byte.class;
+    }
+
+    /**
+     * @param v a number of the type of the field
+     * @return the key of the number in {@link #numbers}
+     */
+    private long keyOf(Number v) {
+        return isIntegral() ? v.longValue() : Double.doubleToLongBits(v.doubleValue());
+    }
+
+    private long keyOf(double v) {
+        return isIntegral() ? (long) v : Double.doubleToLongBits(v);
+    }
+
+    /**
+     * @param key a key of {@link #numbers}, or the bits of a double for floating point fields
+     * @return the number as (boxed) type of the field
+     */
+    private Object box(long key) {
+        if (type == long.class) {
+            return key;
+        } else if (type == int.class) {
+            return (int) key;
+        } else if (type == short.class) {
+            return (short) key;
+        } else if (type == byte.class) {
+            return (byte) key;
+        } else if (type == float.class) {
+            return (float) Double.longBitsToDouble(key);
+        }
+        return Double.longBitsToDouble(key);
+    }
+
+    /**
+     * The numbers, boxed only when they are iterated.
+     */
+    private final class NumberSet extends AbstractSet<Object> {
+
+        @Override
+        public int size() {
+            return numbers.size();
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return o != null && o.getClass() == box(0).getClass() && numbers.contains(keyOf((Number) o));
+        }
+
+        @Override
+        public Iterator<Object> iterator() {
+            final long[] keys = numbers.toArray();
+            return new Iterator<Object>() {
+
+                private int i = 0;
+
+                @Override
+                public boolean hasNext() {
+                    return i < keys.length;
+                }
+
+                @Override
+                public Object next() {
+                    if (i == keys.length) {
+                        throw new NoSuchElementException();
+                    }
+                    return box(keys[i++]);
+                }
+            };
+        }
+    }
+
+    /**
+     * The values of the inline array.
+     */
+    private final class InlineSet extends AbstractSet<Object> {
+
+        @Override
+        public int size() {
+            return inlineSize;
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return inlineContains(o);
+        }
+
+        @Override
+        public Iterator<Object> iterator() {
+            return new Iterator<Object>() {
+
+                private int i = 0;
+
+                @Override
+                public boolean hasNext() {
+                    return i < inlineSize;
+                }
+
+                @Override
+                public Object next() {
+                    if (i >= inlineSize) {
+                        throw new NoSuchElementException();
+                    }
+                    return inline[i++];
+                }
+            };
+        }
+    }
+}
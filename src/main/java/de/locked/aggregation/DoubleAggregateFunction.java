@@ -0,0 +1,50 @@
+/*
+ * Copyright 2013 Dr. Franz Graf.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.locked.aggregation;
+
+/**
+ * Aggregate function over numeric fields that receives the values as primitive doubles.
+ *
+ * The values of primitive fields of any numeric type are passed to {@link #accumulate(Object, double)} without
+ * boxing, like the values of the built-in numeric aggregates. Fields of numeric wrapper types like
+ * <code>Integer</code> or <code>Long</code> go through {@link #accumulate(Object, java.lang.Double)} with the value
+ * converted to <code>Double</code>. Null values are passed as they are, so functions for nullable fields override
+ * that method.
+ *
+ * @param <S> type of the per group state
+ * @param <R> type of the result
+ */
+public interface DoubleAggregateFunction<S, R> extends AggregateFunction<Double, S, R> {
+
+    /**
+     * Adds a value to the state.
+     *
+     * @param state the current state
+     * @param value the value of the annotated field
+     * @return the new state
+     */
+    S accumulate(S state, double value);
+
+    @Override
+    default S accumulate(S state, Double value) {
+        return accumulate(state, value.doubleValue());
+    }
+
+    @Override
+    default Class<Double> getInputType() {
+        return Double.class;
+    }
+}
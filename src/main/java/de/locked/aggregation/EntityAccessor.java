@@ -0,0 +1,70 @@
+/*
+ * Copyright 2013 Dr. Franz Graf.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.locked.aggregation;
+
+/**
+ * Reflection free access to the public fields of an entity class.
+ *
+ * Implementations are generated at compile time by {@link AccessorProcessor} for every class with {@link Id} fields
+ * and are picked up automatically by the container. Fields are addressed by their position in
+ * {@link #getFieldNames()}, which the container resolves once when it is prepared.
+ *
+ * @param <T> the entity class
+ */
+public interface EntityAccessor<T> {
+
+    /**
+     * @return the names of all fields that can be read by this accessor
+     */
+    String[] getFieldNames();
+
+    /**
+     * @param entity the entity to read
+     * @param field position of the field in {@link #getFieldNames()}
+     * @return the (boxed) value of the field
+     */
+    Object get(T entity, int field);
+
+    /**
+     * @param entity the entity to read
+     * @param field position of a field of a primitive numeric or char type
+     * @return the value of the field, widened to double
+     */
+    double getDouble(T entity, int field);
+
+    /**
+     * @param entity the entity to read
+     * @param field position of a field of a primitive integral type
+     * @return the value of the field, widened to long
+     */
+    default long getLong(T entity, int field) {
+        return ((Number) get(entity, field)).longValue();
+    }
+
+    /**
+     * @param entity the entity to read
+     * @param field position of a char field
+     * @return the value of the field
+     */
+    char getChar(T entity, int field);
+
+    /**
+     * @param entity the entity to read
+     * @param field position of a boolean field
+     * @return the value of the field
+     */
+    boolean getBoolean(T entity, int field);
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright 2013 Dr. Franz Graf.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.locked.aggregation;
+
+import java.util.AbstractCollection;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Spliterator;
+
+/**
+ * Group table that removes groups that haven't been used for some time or exceed a maximum number of groups (least
+ * recently used first). Each removed group is handed to a sink first.
+ */
+class EvictingGroupTable implements GroupTable {
+
+    private final LinkedHashMap<Container.Result, Slot> map = new LinkedHashMap<>(16, 0.75f, true);
+    private final int maxGroups;
+    private final long idleMillis;
+    private final ResultSink sink;
+    private long rehashes = 0;
+    private int resizeThreshold = 12;
+    private long evictions = 0;
+    /**
+     * earliest time at which the least recently used group can expire, so that lookups only scan for idle groups
+     * when there may be some
+     */
+    private long nextExpiry = Long.MAX_VALUE;
+
+    /**
+     * @param maxGroups maximum number of groups, 0 for no limit
+     * @param idleMillis time after which unused groups are removed, 0 for no limit
+     * @param sink receives the removed groups
+     */
+    EvictingGroupTable(int maxGroups, long idleMillis, ResultSink sink) {
+        this.maxGroups = maxGroups;
+        this.idleMillis = idleMillis;
+        this.sink = sink;
+    }
+
+    @Override
+    public Container.Result get(Container.Result key) {
+        Slot slot = map.get(key);
+        if (idleMillis > 0) {
+            long now = System.currentTimeMillis();
+            if (slot != null) {
+                slot.lastAccess = now;
+            }
+            if (now >= nextExpiry) {
+                expire(now);
+            }
+        }
+        return slot == null ? null : slot.group;
+    }
+
+    @Override
+    public void put(Container.Result group) {
+        long now = idleMillis > 0 ? System.currentTimeMillis() : 0;
+        map.put(group, new Slot(group, now));
+        if (idleMillis > 0) {
+            nextExpiry = Math.min(nextExpiry, now + idleMillis);
+        }
+        if (map.size() > resizeThreshold) {
+            rehashes++;
+            resizeThreshold <<= 1;
+        }
+        if (maxGroups > 0 && map.size() > maxGroups) {
+            Iterator<Slot> eldest = map.values().iterator();
+            Slot slot = eldest.next();
+            eldest.remove();
+            evict(slot);
+        }
+    }
+
+    /**
+     * Removes all groups that weren't used within the idle time.
+     *
+     * @param now the current time in milliseconds
+     */
+    void expire(long now) {
+        if (idleMillis <= 0) {
+            return;
+        }
+        nextExpiry = Long.MAX_VALUE;
+        Iterator<Slot> it = map.values().iterator();
+        while (it.hasNext()) {
+            Slot slot = it.next();
+            if (now - slot.lastAccess < idleMillis) {
+                // all later groups were used more recently
+                nextExpiry = slot.lastAccess + idleMillis;
+                break;
+            }
+            it.remove();
+            evict(slot);
+        }
+    }
+
+    /**
+     * @return number of removed groups
+     */
+    long getEvictions() {
+        return evictions;
+    }
+
+    private void evict(Slot slot) {
+        evictions++;
+        sink.accept(slot.group);
+    }
+
+    @Override
+    public void remove(Container.Result group) {
+        map.remove(group);
+    }
+
+    @Override
+    public int size() {
+        return map.size();
+    }
+
+    @Override
+    public long getRehashes() {
+        return rehashes;
+    }
+
+    @Override
+    public Spliterator<Container.Result> spliterator() {
+        return map.keySet().spliterator();
+    }
+
+    @Override
+    public Collection<Container.Result> groups() {
+        return new AbstractCollection<Container.Result>() {
+
+            @Override
+            public Iterator<Container.Result> iterator() {
+                final Iterator<Container.Result> it = map.keySet().iterator();
+                return new Iterator<Container.Result>() {
+
+                    @Override
+                    public boolean hasNext() {
+                        return it.hasNext();
+                    }
+
+                    @Override
+                    public Container.Result next() {
+                        return it.next();
+                    }
+
+                    @Override
+                    public void remove() {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return map.size();
+            }
+        };
+    }
+
+    private static final class Slot {
+
+        private final Container.Result group;
+        private long lastAccess;
+
+        Slot(Container.Result group, long lastAccess) {
+            this.group = group;
+            this.lastAccess = lastAccess;
+        }
+    }
+}
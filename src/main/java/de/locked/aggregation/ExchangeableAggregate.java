@@ -0,0 +1,43 @@
+/*
+ * Copyright 2013 Dr. Franz Graf.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.locked.aggregation;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Aggregate whose state can be sent to another process as partial result, see
+ * {@link Container#writeState(java.io.OutputStream)}.
+ */
+public interface ExchangeableAggregate extends MergeableAggregate {
+
+    /**
+     * Writes the state of this instance.
+     *
+     * @param out the stream
+     * @throws IOException if writing fails
+     */
+    void writeState(DataOutput out) throws IOException;
+
+    /**
+     * Replaces the state of this new instance by the one written by {@link #writeState(DataOutput)}.
+     *
+     * @param in the stream
+     * @throws IOException if reading fails
+     */
+    void readState(DataInput in) throws IOException;
+}
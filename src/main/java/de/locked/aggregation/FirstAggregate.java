@@ -0,0 +1,184 @@
+/*
+ * Copyright 2013 Dr. Franz Graf.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.locked.aggregation;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.lang.annotation.Annotation;
+
+/**
+ * Keeps the first value in the order of aggregation, see {@link First}.
+ *
+ * Values of primitive fields are kept in a primitive slot and only boxed to the type of the field when the result is
+ * read, values of all other fields are kept as they are.
+ */
+public class FirstAggregate extends AbstractAggregate implements IntegralAggregate, TypedAggregate,
+        ExchangeableAggregate {
+
+    boolean empty = true;
+    /**
+     * the primitive type of the field, null if the values are objects
+     */
+    final Class<?> type;
+    /**
+     * the value of a primitive field: integral values as they are, chars and booleans as numbers and floating point
+     * values by their bits
+     */
+    long bits;
+    Object value;
+
+    public FirstAggregate() {
+        this(First.class, null);
+    }
+
+    protected FirstAggregate(Class<? extends Annotation> annotation, Class<?> type) {
+        super(annotation);
+        this.type = type;
+    }
+
+    /**
+     * @return true if the next value replaces the kept one
+     */
+    protected boolean replaces() {
+        return empty;
+    }
+
+    /**
+     * Creates an instance of the same aggregate for values of the given type.
+     *
+     * @param type the primitive type of the field, null for objects
+     * @return the new instance
+     */
+    protected FirstAggregate create(Class<?> type) {
+        return new FirstAggregate(First.class, type);
+    }
+
+    @Override
+    public void apply(Object o) {
+        if (replaces()) {
+            empty = false;
+            value = o;
+        }
+    }
+
+    @Override
+    public void apply(long v) {
+        if (replaces()) {
+            empty = false;
+            bits = v;
+        }
+    }
+
+    @Override
+    public void apply(char v) {
+        if (type == null) {
+            apply((Object) v);
+        } else {
+            apply((long) v);
+        }
+    }
+
+    @Override
+    public void apply(boolean v) {
+        if (type == null) {
+            apply((Object) v);
+        } else {
+            apply(v ? 1L : 0L);
+        }
+    }
+
+    @Override
+    public void apply(double v) {
+        if (type == null) {
+            apply((Object) v);
+        } else if (type == double.class || type == float.class) {
+            apply(Double.doubleToRawLongBits(v));
+        } else {
+            apply((long) v);
+        }
+    }
+
+    @Override
+    public void merge(AbstractAggregate other) {
+        FirstAggregate o = (FirstAggregate) other;
+        if (!o.empty && replaces()) {
+            empty = false;
+            bits = o.bits;
+            value = o.value;
+        }
+    }
+
+    @Override
+    public void writeState(DataOutput out) throws IOException {
+        out.writeBoolean(empty);
+        StateIO.writeValue(out, getObject());
+    }
+
+    @Override
+    public void readState(DataInput in) throws IOException {
+        empty = in.readBoolean();
+        if (type == null || empty) {
+            value = StateIO.readValue(in);
+        } else {
+            Object v = StateIO.readValue(in, type);
+            if (v instanceof Boolean) {
+                bits = (Boolean) v ? 1 : 0;
+            } else if (v instanceof Character) {
+                bits = (Character) v;
+            } else if (type == double.class || type == float.class) {
+                bits = Double.doubleToRawLongBits(((Number) v).doubleValue());
+            } else {
+                bits = ((Number) v).longValue();
+            }
+        }
+    }
+
+    @Override
+    public AbstractAggregate getInstance() {
+        return create(type);
+    }
+
+    @Override
+    public AbstractAggregate forFieldType(Class<?> type) {
+        return create(type.isPrimitive() ? type : null);
+    }
+
+    /**
+     * @return the kept value, boxed to the type of a primitive field; null if no value was aggregated
+     */
+    @Override
+    public Object getObject() {
+        if (type == null || empty) {
+            return value;
+        } else if (type == long.class) {
+            return bits;
+        } else if (type == int.class) {
+            return (int) bits;
+        } else if (type == short.class) {
+            return (short) bits;
+        } else if (type == byte.class) {
+            return (byte) bits;
+        } else if (type == char.class) {
+            return (char) bits;
+        } else if (type == boolean.class) {
+            return bits != 0;
+        } else if (type == float.class) {
+            return (float) Double.longBitsToDouble(bits);
+        }
+        return Double.longBitsToDouble(bits);
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2013 Dr. Franz Graf.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.locked.aggregation;
+
+import java.util.Collection;
+
+/**
+ * Adapter that lets the container treat an {@link AggregateFunction} like any other aggregate.
+ *
+ * Every group holds one adapter per function, which holds the state of the group. Values of numeric fields are passed
+ * to a {@link DoubleAggregateFunction} as primitives, all others are boxed.
+ *
+ * @param <I> type of the input values
+ * @param <S> type of the per group state
+ * @param <R> type of the result
+ */
+final class FunctionAggregate<I, S, R> extends AbstractAggregate implements MergeableAggregate {
+
+    private final AggregateFunction<I, S, R> function;
+    /**
+     * the function if it consumes primitive doubles, null otherwise
+     */
+    private final DoubleAggregateFunction<S, R> numeric;
+    private S state;
+
+    @SuppressWarnings("unchecked")
+    FunctionAggregate(AggregateFunction<I, S, R> function) {
+        super(function.getAnnotation());
+        this.function = function;
+        this.numeric = function instanceof DoubleAggregateFunction ? (DoubleAggregateFunction<S, R>) function : null;
+        this.state = function.createState();
+    }
+
+    AggregateFunction<I, S, R> getFunction() {
+        return function;
+    }
+
+    @Override
+    public AbstractAggregate getInstance() {
+        return new FunctionAggregate<>(function);
+    }
+
+    /**
+     * Numbers of other types than Double are converted for a {@link DoubleAggregateFunction}.
+     */
+    @Override
+    public void apply(Object o) {
+        if (numeric != null && o != null && !(o instanceof Double)) {
+            o = ((Number) o).doubleValue();
+        }
+        state = function.accumulate(state, function.getInputType().cast(o));
+    }
+
+    /**
+     * Only called for numeric fields of a {@link DoubleAggregateFunction}, see {@link #isNumeric()}.
+     */
+    @Override
+    public void apply(double v) {
+        state = numeric.accumulate(state, v);
+    }
+
+    /**
+     * @return true if the function consumes primitive doubles
+     */
+    boolean isNumeric() {
+        return numeric != null;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void merge(AbstractAggregate other) {
+        state = function.merge(state, ((FunctionAggregate<I, S, R>) other).state);
+    }
+
+    @Override
+    public Object getObject() {
+        return function.finish(state);
+    }
+
+    @Override
+    public double getDouble() {
+        return ((Number) function.finish(state)).doubleValue();
+    }
+
+    @Override
+    public int getInt() {
+        return ((Number) function.finish(state)).intValue();
+    }
+
+    @Override
+    public char getChar() {
+        return (Character) function.finish(state);
+    }
+
+    @Override
+    public boolean getBoolean() {
+        return (Boolean) function.finish(state);
+    }
+
+    @Override
+    public Collection<?> getCollection() {
+        return (Collection) function.finish(state);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return obj instanceof FunctionAggregate && ((FunctionAggregate) obj).function.equals(function);
+    }
+
+    @Override
+    public int hashCode() {
+        return function.hashCode();
+    }
+}
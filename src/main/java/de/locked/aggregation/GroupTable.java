@@ -0,0 +1,68 @@
+/*
+ * Copyright 2013 Dr. Franz Graf.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.locked.aggregation;
+
+import java.util.Collection;
+import java.util.Spliterator;
+
+/**
+ * Storage of the groups of a container.
+ */
+interface GroupTable {
+
+    /**
+     * @param key a key object with the keys of the requested group
+     * @return the group with the same keys or null if there is none
+     */
+    Container.Result get(Container.Result key);
+
+    /**
+     * Adds a new group.
+     *
+     * @param group the group, no group with the same keys must be present
+     */
+    void put(Container.Result group);
+
+    /**
+     * Removes a group, e.g. after all of its entities were retracted.
+     *
+     * @param group the group
+     */
+    void remove(Container.Result group);
+
+    /**
+     * @return number of groups
+     */
+    int size();
+
+    /**
+     * @return number of times the table was resized
+     */
+    long getRehashes();
+
+    /**
+     * @return live, read only view of all groups
+     */
+    Collection<Container.Result> groups();
+
+    /**
+     * Splits the groups in place, without copying them, for parallel consumption. Must not be used while groups are
+     * added or removed.
+     *
+     * @return a spliterator over all groups
+     */
+    Spliterator<Container.Result> spliterator();
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2013 Dr. Franz Graf.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.locked.aggregation;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Spliterator;
+
+/**
+ * Default group table backed by a HashMap.
+ */
+class HashGroupTable implements GroupTable {
+
+    private static final float LOAD_FACTOR = 0.75f;
+
+    private final Map<Container.Result, Container.Result> map;
+    /**
+     * size at which the map will resize next
+     */
+    private int resizeThreshold;
+    private long rehashes = 0;
+
+    HashGroupTable() {
+        this(16);
+    }
+
+    /**
+     * @param capacity initial capacity, rounded up to a power of two
+     */
+    HashGroupTable(int capacity) {
+        int c = Integer.highestOneBit(Math.max(capacity, 1));
+        if (c < capacity) {
+            c <<= 1;
+        }
+        this.map = new HashMap<>(c, LOAD_FACTOR);
+        this.resizeThreshold = (int) (c * LOAD_FACTOR);
+    }
+
+    @Override
+    public Container.Result get(Container.Result key) {
+        return map.get(key);
+    }
+
+    @Override
+    public void put(Container.Result group) {
+        map.put(group, group);
+        if (map.size() > resizeThreshold) {
+            rehashes++;
+            resizeThreshold <<= 1;
+        }
+    }
+
+    @Override
+    public void remove(Container.Result group) {
+        map.remove(group);
+    }
+
+    @Override
+    public int size() {
+        return map.size();
+    }
+
+    @Override
+    public long getRehashes() {
+        return rehashes;
+    }
+
+    /**
+     * The spliterator of the map splits by ranges of its buckets.
+     */
+    @Override
+    public Spliterator<Container.Result> spliterator() {
+        return map.keySet().spliterator();
+    }
+
+    @Override
+    public Collection<Container.Result> groups() {
+        return Collections.unmodifiableSet(map.keySet());
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2013 Dr. Franz Graf.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.locked.aggregation;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * HyperLogLog cardinality sketch with a fixed size of 2^11 one-byte registers (standard error about 2.3%).
+ */
+final class HyperLogLog {
+
+    private static final int P = 11;
+    private static final int M = 1 << P;
+    private static final int MAX_RANK = 64 - P + 1;
+    private static final double ALPHA = 0.7213 / (1 + 1.079 / M);
+
+    private final byte[] registers = new byte[M];
+
+    /**
+     * @param hash a well mixed 64 bit hash of the value, see {@link #hash(long)}
+     */
+    void add(long hash) {
+        int index = (int) (hash >>> (64 - P));
+        int rank = Long.numberOfLeadingZeros((hash << P) | (1L << (P - 1))) + 1;
+        if (rank > registers[index]) {
+            registers[index] = (byte) rank;
+        }
+    }
+
+    void merge(HyperLogLog other) {
+        for (int i = 0; i < M; i++) {
+            if (other.registers[i] > registers[i]) {
+                registers[i] = other.registers[i];
+            }
+        }
+    }
+
+    void write(DataOutput out) throws IOException {
+        out.write(registers);
+    }
+
+    void read(DataInput in) throws IOException {
+        byte[] read = new byte[M];
+        in.readFully(read);
+        for (byte rank : read) {
+            if (rank < 0 || rank > MAX_RANK) {
+                throw new IOException("Invalid register " + rank + ", ranks are 0.." + MAX_RANK);
+            }
+        }
+        System.arraycopy(read, 0, registers, 0, M);
+    }
+
+    /**
+     * @return the estimated number of distinct values
+     */
+    long estimate() {
+        double sum = 0;
+        int zeros = 0;
+        for (byte r : registers) {
+            sum += 1.0 / (1L << r);
+            if (r == 0) {
+                zeros++;
+            }
+        }
+        double estimate = ALPHA * M * M / sum;
+        if (estimate <= 2.5 * M && zeros > 0) {
+            estimate = M * Math.log((double) M / zeros); // linear counting for small cardinalities
+        }
+        return Math.round(estimate);
+    }
+
+    /**
+     * 64 bit finalizer of MurmurHash3.
+     *
+     * @param v the value to hash
+     * @return the mixed value
+     */
+    static long hash(long v) {
+        v ^= v >>> 33;
+        v *= 0xff51afd7ed558ccdL;
+        v ^= v >>> 33;
+        v *= 0xc4ceb9fe1a85ec53L;
+        v ^= v >>> 33;
+        return v;
+    }
+}
@@ -30,4 +30,28 @@ public @interface Id {
      * @return order value
      */
     int order() default 0;
+
+    /**
+     * Smallest value of an integral key field. Together with {@link #max()} this declares a small key domain, for
+     * which the container indexes the groups directly instead of hashing the keys.
+     *
+     * @return smallest key value
+     */
+    long min() default 0;
+
+    /**
+     * Largest value of an integral key field, the domain is unbounded if it is less than {@link #min()}.
+     *
+     * @return largest key value
+     */
+    long max() default -1;
+
+    /**
+     * Names of additional groupings (views) that this field is a key of. Every view groups the entities by the id
+     * fields that list it, in addition to the default grouping by all id fields. All views are computed in the same
+     * pass, see {@link Container#getResults(java.lang.String)}.
+     *
+     * @return names of the views
+     */
+    String[] views() default {};
 }
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2013 Dr. Franz Graf.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.locked.aggregation;
+
+import java.util.Collection;
+
+/**
+ * Accepts entities from any number of producer threads and aggregates them on dedicated consumer threads.
+ *
+ * Producers call {@link #submit(java.lang.Object)}, which only appends the entity to a batch. Entities are routed by
+ * the hash of their <code>@Id</code> fields, so every group is aggregated by exactly one consumer into its own
+ * container and the consumers never contend for groups. Full batches are handed to the consumer through its bounded
+ * queue; what happens if the queue is full is defined by the {@link Backpressure} policy. {@link #await()} hands out
+ * all partial batches, waits until the consumers processed everything that was submitted before and returns the
+ * result. As the containers of the consumers hold disjoint groups, {@link #awaitResults()} can just concatenate them.
+ *
+ * <code>
+ * IngestionPipeline&lt;Entity&gt; pipeline = new IngestionPipeline&lt;&gt;(factory, 4, 1000, 64, Backpressure.BLOCK);
+ * pipeline.submit(entity); // from many threads
+ * Container&lt;Entity&gt; result = pipeline.await();
+ * pipeline.close();
+ * </code>
+ *
+ * @param <T> the entity class
+ */
+public class IngestionPipeline<T> implements AutoCloseable {
+
+    private final ContainerFactory<T> factory;
+    private final Backpressure backpressure;
+    private final BatchWorkers<T> workers;
+
+    /**
+     * Creates the pipeline and starts the consumer threads.
+     *
+     * @param factory creates the container of each consumer and the merged result
+     * @param consumers number of consumer threads
+     * @param batchSize number of entities that are handed to a consumer at once
+     * @param capacity number of batches that can be queued per consumer
+     * @param backpressure what to do if the queue is full
+     */
+    public IngestionPipeline(ContainerFactory<T> factory, int consumers, int batchSize, int capacity,
+            Backpressure backpressure) {
+        if (consumers < 1 || batchSize < 1 || capacity < 1) {
+            throw new IllegalArgumentException("consumers, batch size and capacity must be positive");
+        }
+        this.factory = factory;
+        this.backpressure = backpressure;
+        this.workers = new BatchWorkers<>(factory, consumers, batchSize, capacity, "aggregation-consumer-",
+                "pipeline");
+    }
+
+    /**
+     * Adds an entity to the pipeline. May be called concurrently by any number of threads.
+     *
+     * @param entity the entity to aggregate
+     * @throws IllegalStateException if the pipeline was closed, a consumer failed or the queue is full and the
+     * policy is {@link Backpressure#FAIL}
+     */
+    public void submit(T entity) {
+        workers.add(entity, backpressure);
+    }
+
+    /**
+     * Waits until all entities that were submitted before are aggregated and merges the containers of all consumers.
+     *
+     * Partial batches are queued as well, waiting for space regardless of the backpressure policy. The pipeline
+     * stays open and can be awaited again later; every result includes all entities since the pipeline was created.
+     * The consumers hold disjoint groups, so the merge only copies groups but never combines two of them.
+     *
+     * @return a new container with the merged result
+     * @throws InterruptedException if the thread was interrupted while waiting
+     * @throws IllegalStateException if a consumer failed
+     */
+    public Container<T> await() throws InterruptedException {
+        workers.flush();
+        Container<T> result = factory.create();
+        workers.mergeInto(result);
+        return result;
+    }
+
+    /**
+     * Waits like {@link #await()}, but returns the groups of the consumers without copying them.
+     *
+     * The view must only be read while no entities are submitted.
+     *
+     * @return read only view of the groups of all consumers
+     * @throws InterruptedException if the thread was interrupted while waiting
+     * @throws IllegalStateException if a consumer failed
+     */
+    public Collection<Container.Result> awaitResults() throws InterruptedException {
+        workers.flush();
+        return workers.results();
+    }
+
+    /**
+     * @return number of entities that were discarded with {@link Backpressure#DROP}
+     */
+    public long getDropped() {
+        return workers.getDropped();
+    }
+
+    /**
+     * Stops the consumer threads after they processed all queued batches. Entities in partial batches that were not
+     * handed out by {@link #await()} are discarded. A consumer that died doesn't block closing. An interrupted thread
+     * stops waiting for the consumers and keeps its interrupt status.
+     */
+    @Override
+    public void close() {
+        workers.close();
+    }
+}
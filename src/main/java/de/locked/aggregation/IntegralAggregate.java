@@ -0,0 +1,30 @@
+/*
+ * Copyright 2013 Dr. Franz Graf.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.locked.aggregation;
+
+/**
+ * Aggregate that receives the values of <code>byte</code>, <code>short</code>, <code>int</code> and <code>long</code>
+ * fields as exact longs instead of doubles, which can't tell longs beyond 2^53 apart.
+ *
+ * Retraction of these values goes through {@link RetractableIntegralAggregate}.
+ */
+public interface IntegralAggregate {
+
+    /**
+     * @param v value of the annotated field
+     */
+    void apply(long v);
+}
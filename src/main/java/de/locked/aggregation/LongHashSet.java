@@ -0,0 +1,126 @@
+/*
+ * Copyright 2013 Dr. Franz Graf.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.locked.aggregation;
+
+/**
+ * Minimal open addressing hash set of primitive long values with linear probing.
+ *
+ * Used instead of a <code>HashSet&lt;Long&gt;</code> where one small set is kept per group, as it needs neither boxed
+ * values nor entry objects.
+ */
+final class LongHashSet {
+
+    private static final long FREE = 0;
+
+    private long[] table;
+    /**
+     * the value 0 is used to mark free slots and thus stored separately
+     */
+    private boolean containsFree = false;
+    private int size = 0;
+
+    LongHashSet(int expectedSize) {
+        int capacity = 4;
+        while (capacity * 3 < expectedSize * 4) {
+            capacity <<= 1;
+        }
+        table = new long[capacity];
+    }
+
+    /**
+     * @param v the value to add
+     * @return true if the value was not contained before
+     */
+    boolean add(long v) {
+        if (v == FREE) {
+            if (containsFree) {
+                return false;
+            }
+            containsFree = true;
+            size++;
+            return true;
+        }
+        int mask = table.length - 1;
+        int i = mix(v) & mask;
+        while (table[i] != FREE) {
+            if (table[i] == v) {
+                return false;
+            }
+            i = (i + 1) & mask;
+        }
+        table[i] = v;
+        size++;
+        if (size * 4 > table.length * 3) {
+            rehash(table.length << 1);
+        }
+        return true;
+    }
+
+    boolean contains(long v) {
+        if (v == FREE) {
+            return containsFree;
+        }
+        int mask = table.length - 1;
+        int i = mix(v) & mask;
+        while (table[i] != FREE) {
+            if (table[i] == v) {
+                return true;
+            }
+            i = (i + 1) & mask;
+        }
+        return false;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return all values of the set in no particular order
+     */
+    long[] toArray() {
+        long[] values = new long[size];
+        int j = 0;
+        if (containsFree) {
+            values[j++] = FREE;
+        }
+        for (long v : table) {
+            if (v != FREE) {
+                values[j++] = v;
+            }
+        }
+        return values;
+    }
+
+    private void rehash(int capacity) {
+        long[] old = table;
+        table = new long[capacity];
+        int mask = capacity - 1;
+        for (long v : old) {
+            if (v != FREE) {
+                int i = mix(v) & mask;
+                while (table[i] != FREE) {
+                    i = (i + 1) & mask;
+                }
+                table[i] = v;
+            }
+        }
+    }
+
+    private static int mix(long v) {
+        return (int) HyperLogLog.hash(v);
+    }
+}
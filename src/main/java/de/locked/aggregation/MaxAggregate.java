@@ -15,22 +15,130 @@
  */
 package de.locked.aggregation;
 
-public class MaxAggregate extends AbstractAggregate {
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+
+public class MaxAggregate extends AbstractAggregate implements RetractableAggregate, ExchangeableAggregate {
 
     double max = Double.MIN_VALUE;
+    /**
+     * number of occurrences of every value, only kept by retractable instances
+     */
+    private final TreeMap<Double, int[]> counts;
 
     public MaxAggregate() {
+        this(false);
+    }
+
+    private MaxAggregate(boolean retractable) {
         super(Max.class);
+        this.counts = retractable ? new TreeMap<Double, int[]>() : null;
     }
 
     @Override
     public void apply(double v) {
         max = Math.max(v, max);
+        if (counts != null) {
+            add(v, 1);
+        }
+    }
+
+    @Override
+    public void applyAll(double[] values, int from, int to) {
+        if (counts != null) {
+            super.applyAll(values, from, to);
+            return;
+        }
+        double m0 = max, m1 = max, m2 = max, m3 = max;
+        int i = from;
+        for (; i + 3 < to; i += 4) {
+            m0 = Math.max(values[i], m0);
+            m1 = Math.max(values[i + 1], m1);
+            m2 = Math.max(values[i + 2], m2);
+            m3 = Math.max(values[i + 3], m3);
+        }
+        for (; i < to; i++) {
+            m0 = Math.max(values[i], m0);
+        }
+        max = Math.max(Math.max(m0, m1), Math.max(m2, m3));
+    }
+
+    @Override
+    public void retract(double v) {
+        if (counts == null) {
+            throw new UnsupportedOperationException("Only retractable instances can retract values");
+        }
+        int[] count = counts.get(v);
+        if (count != null && --count[0] == 0) {
+            counts.remove(v);
+            max = counts.isEmpty() ? Double.NEGATIVE_INFINITY : counts.lastKey();
+        }
+    }
+
+    @Override
+    public void merge(AbstractAggregate other) {
+        MaxAggregate o = (MaxAggregate) other;
+        if (counts != null && o.counts == null) {
+            throw new IllegalArgumentException("A retractable Max can't merge an instance without value counts");
+        }
+        max = Math.max(o.max, max);
+        if (counts != null) {
+            for (Map.Entry<Double, int[]> e : o.counts.entrySet()) {
+                add(e.getKey(), e.getValue()[0]);
+            }
+        }
+    }
+
+    private void add(double v, int n) {
+        int[] count = counts.get(v);
+        if (count == null) {
+            counts.put(v, new int[]{n});
+        } else {
+            count[0] += n;
+        }
+    }
+
+    /**
+     * Writes the max and, for retractable instances, the counts of all values.
+     */
+    @Override
+    public void writeState(DataOutput out) throws IOException {
+        out.writeDouble(max);
+        if (counts != null) {
+            out.writeInt(counts.size());
+            for (Map.Entry<Double, int[]> e : counts.entrySet()) {
+                out.writeDouble(e.getKey());
+                out.writeInt(e.getValue()[0]);
+            }
+        }
+    }
+
+    @Override
+    public void readState(DataInput in) throws IOException {
+        max = in.readDouble();
+        if (counts != null) {
+            for (int i = StateIO.readCount(in); i > 0; i--) {
+                double v = in.readDouble();
+                int n = in.readInt();
+                if (n <= 0) {
+                    throw new IOException("Invalid count " + n + " of " + v);
+                }
+                add(v, n);
+            }
+        }
     }
 
     @Override
     public AbstractAggregate getInstance() {
-        return new MaxAggregate();
+        return new MaxAggregate(counts != null);
+    }
+
+    @Override
+    public AbstractAggregate getRetractableInstance() {
+        return new MaxAggregate(true);
     }
 
     @Override
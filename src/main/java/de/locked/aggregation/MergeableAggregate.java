@@ -0,0 +1,34 @@
+/*
+ * Copyright 2013 Dr. Franz Graf.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.locked.aggregation;
+
+/**
+ * Aggregate whose partial results can be combined, which is required for merging containers
+ * ({@link Container#merge(Container)}) and for snapshots ({@link Container#snapshot()}).
+ *
+ * The container checks the aggregates for this interface before it modifies any group.
+ */
+public interface MergeableAggregate {
+
+    /**
+     * Adds the state of another instance of the same aggregate to this one, e.g. to combine partial results of the
+     * same group.
+     *
+     * @param other an instance created by {@link AbstractAggregate#getInstance()} of the same aggregate; it must not
+     * be modified
+     */
+    void merge(AbstractAggregate other);
+}
@@ -15,22 +15,130 @@
  */
 package de.locked.aggregation;
 
-public class MinAggregate extends AbstractAggregate {
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+
+public class MinAggregate extends AbstractAggregate implements RetractableAggregate, ExchangeableAggregate {
 
     double min = Double.MAX_VALUE;
+    /**
+     * number of occurrences of every value, only kept by retractable instances
+     */
+    private final TreeMap<Double, int[]> counts;
 
     public MinAggregate() {
+        this(false);
+    }
+
+    private MinAggregate(boolean retractable) {
         super(Min.class);
+        this.counts = retractable ? new TreeMap<Double, int[]>() : null;
     }
 
     @Override
     public void apply(double v) {
         min = Math.min(v, min);
+        if (counts != null) {
+            add(v, 1);
+        }
+    }
+
+    @Override
+    public void applyAll(double[] values, int from, int to) {
+        if (counts != null) {
+            super.applyAll(values, from, to);
+            return;
+        }
+        double m0 = min, m1 = min, m2 = min, m3 = min;
+        int i = from;
+        for (; i + 3 < to; i += 4) {
+            m0 = Math.min(values[i], m0);
+            m1 = Math.min(values[i + 1], m1);
+            m2 = Math.min(values[i + 2], m2);
+            m3 = Math.min(values[i + 3], m3);
+        }
+        for (; i < to; i++) {
+            m0 = Math.min(values[i], m0);
+        }
+        min = Math.min(Math.min(m0, m1), Math.min(m2, m3));
+    }
+
+    @Override
+    public void retract(double v) {
+        if (counts == null) {
+            throw new UnsupportedOperationException("Only retractable instances can retract values");
+        }
+        int[] count = counts.get(v);
+        if (count != null && --count[0] == 0) {
+            counts.remove(v);
+            min = counts.isEmpty() ? Double.MAX_VALUE : counts.firstKey();
+        }
+    }
+
+    @Override
+    public void merge(AbstractAggregate other) {
+        MinAggregate o = (MinAggregate) other;
+        if (counts != null && o.counts == null) {
+            throw new IllegalArgumentException("A retractable Min can't merge an instance without value counts");
+        }
+        min = Math.min(o.min, min);
+        if (counts != null) {
+            for (Map.Entry<Double, int[]> e : o.counts.entrySet()) {
+                add(e.getKey(), e.getValue()[0]);
+            }
+        }
+    }
+
+    private void add(double v, int n) {
+        int[] count = counts.get(v);
+        if (count == null) {
+            counts.put(v, new int[]{n});
+        } else {
+            count[0] += n;
+        }
+    }
+
+    /**
+     * Writes the min and, for retractable instances, the counts of all values.
+     */
+    @Override
+    public void writeState(DataOutput out) throws IOException {
+        out.writeDouble(min);
+        if (counts != null) {
+            out.writeInt(counts.size());
+            for (Map.Entry<Double, int[]> e : counts.entrySet()) {
+                out.writeDouble(e.getKey());
+                out.writeInt(e.getValue()[0]);
+            }
+        }
+    }
+
+    @Override
+    public void readState(DataInput in) throws IOException {
+        min = in.readDouble();
+        if (counts != null) {
+            for (int i = StateIO.readCount(in); i > 0; i--) {
+                double v = in.readDouble();
+                int n = in.readInt();
+                if (n <= 0) {
+                    throw new IOException("Invalid count " + n + " of " + v);
+                }
+                add(v, n);
+            }
+        }
     }
 
     @Override
     public AbstractAggregate getInstance() {
-        return new MinAggregate();
+        return new MinAggregate(counts != null);
+    }
+
+    @Override
+    public AbstractAggregate getRetractableInstance() {
+        return new MinAggregate(true);
     }
 
     @Override
@@ -0,0 +1,29 @@
+/*
+ * Copyright 2013 Dr. Franz Graf.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.locked.aggregation;
+
+/**
+ * Aggregate over two numeric fields, like {@link CovarianceAggregate}. The second field is named by the
+ * <code>with</code> attribute of the annotation.
+ */
+public interface PairAggregate {
+
+    /**
+     * @param x value of the annotated field
+     * @param y value of the paired field
+     */
+    void apply(double x, double y);
+}
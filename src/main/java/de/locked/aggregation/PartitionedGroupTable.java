@@ -0,0 +1,174 @@
+/*
+ * Copyright 2013 Dr. Franz Graf.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.locked.aggregation;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * Group table that splits the groups by the upper bits of their hash into independent, smaller hash tables.
+ *
+ * Together with the per partition buffering of the container this keeps the working set of a burst of lookups within
+ * one small table, see {@link Container#setPartitions(int, int)}.
+ */
+class PartitionedGroupTable implements GroupTable {
+
+    private final HashGroupTable[] partitions;
+    private final int shift;
+
+    /**
+     * @param partitions number of partitions, must be a power of two greater than one
+     */
+    PartitionedGroupTable(int partitions) {
+        this.partitions = new HashGroupTable[partitions];
+        for (int i = 0; i < partitions; i++) {
+            this.partitions[i] = new HashGroupTable();
+        }
+        this.shift = 32 - Integer.numberOfTrailingZeros(partitions);
+    }
+
+    /**
+     * @param hash the hash code of a key
+     * @return the partition of the key
+     */
+    int partitionOf(int hash) {
+        // spread the bits first, HashMap itself uses the low bits of the same hash
+        return (hash * 0x9E3779B9) >>> shift;
+    }
+
+    int getPartitionCount() {
+        return partitions.length;
+    }
+
+    @Override
+    public Container.Result get(Container.Result key) {
+        return partitions[partitionOf(key.hashCode())].get(key);
+    }
+
+    @Override
+    public void put(Container.Result group) {
+        partitions[partitionOf(group.hashCode())].put(group);
+    }
+
+    @Override
+    public void remove(Container.Result group) {
+        partitions[partitionOf(group.hashCode())].remove(group);
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+        for (HashGroupTable partition : partitions) {
+            size += partition.size();
+        }
+        return size;
+    }
+
+    @Override
+    public long getRehashes() {
+        long rehashes = 0;
+        for (HashGroupTable partition : partitions) {
+            rehashes += partition.getRehashes();
+        }
+        return rehashes;
+    }
+
+    @Override
+    public Spliterator<Container.Result> spliterator() {
+        return new PartitionSpliterator(0, partitions.length);
+    }
+
+    @Override
+    public Collection<Container.Result> groups() {
+        List<Collection<Container.Result>> parts = new ArrayList<>(partitions.length);
+        for (HashGroupTable partition : partitions) {
+            parts.add(partition.groups());
+        }
+        return new ConcatenatedCollection<>(parts);
+    }
+
+    /**
+     * Splits by ranges of partitions first and then within the last partition. The size is exact as long as no
+     * partition was split.
+     */
+    private final class PartitionSpliterator implements Spliterator<Container.Result> {
+
+        private int next;
+        private int fence;
+        /**
+         * the partition that is currently traversed or split, null before
+         */
+        private Spliterator<Container.Result> current;
+
+        PartitionSpliterator(int next, int fence) {
+            this.next = next;
+            this.fence = fence;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super Container.Result> action) {
+            while (current == null || !current.tryAdvance(action)) {
+                if (next >= fence) {
+                    return false;
+                }
+                current = partitions[next++].spliterator();
+            }
+            return true;
+        }
+
+        @Override
+        public void forEachRemaining(Consumer<? super Container.Result> action) {
+            if (current != null) {
+                current.forEachRemaining(action);
+            }
+            for (; next < fence; next++) {
+                partitions[next].spliterator().forEachRemaining(action);
+            }
+        }
+
+        @Override
+        public Spliterator<Container.Result> trySplit() {
+            if (fence - next > 1) {
+                int mid = (next + fence) >>> 1;
+                Spliterator<Container.Result> suffix = new PartitionSpliterator(mid, fence);
+                fence = mid;
+                return suffix;
+            }
+            if (current == null && next < fence) {
+                current = partitions[next++].spliterator();
+            }
+            return current == null ? null : current.trySplit();
+        }
+
+        @Override
+        public long estimateSize() {
+            long size = current == null ? 0 : current.estimateSize();
+            for (int p = next; p < fence; p++) {
+                size += partitions[p].size();
+            }
+            return size;
+        }
+
+        @Override
+        public int characteristics() {
+            int sized = current == null || current.hasCharacteristics(Spliterator.SIZED) ? Spliterator.SIZED : 0;
+            return sized | Spliterator.DISTINCT | Spliterator.NONNULL;
+        }
+    }
+}
@@ -0,0 +1,220 @@
+/*
+ * Copyright 2013 Dr. Franz Graf.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.locked.aggregation;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A file of fixed-width binary records that is aggregated directly from memory without creating entity objects.
+ *
+ * The file is mapped in windows of at most 2 GB and the fields are read from the mapped buffer at the positions of the
+ * {@link RecordLayout}. Every <code>@Id</code>, aggregate, pair, payload and <code>@Where</code> field of the entity
+ * class must be part of the layout. Getters, measures and registered filters need entity objects and are not
+ * supported, nor are partitions; the adaptive mode of the container is ignored.
+ *
+ * Large files can be split into ranges of records that are aggregated by separate containers in parallel:
+ *
+ * <code>
+ * RecordFile file = new RecordFile(path, RecordLayout.of(Event.class));
+ * Container&lt;Event&gt; result = file.aggregate(factory, 8);
+ * </code>
+ */
+public class RecordFile {
+
+    private final Path path;
+    private final RecordLayout layout;
+    private final long records;
+    /**
+     * maximum number of records per mapped window
+     */
+    int windowRecords;
+
+    /**
+     * @param path the file
+     * @param layout the layout of every record
+     * @throws IOException if the size of the file can't be read
+     * @throws IllegalArgumentException if the file size is no multiple of the record size
+     */
+    public RecordFile(Path path, RecordLayout layout) throws IOException {
+        long size = Files.size(path);
+        if (size % layout.getRecordSize() != 0) {
+            throw new IllegalArgumentException("File size " + size + " is no multiple of the record size "
+                    + layout.getRecordSize());
+        }
+        this.path = path;
+        this.layout = layout;
+        this.records = size / layout.getRecordSize();
+        this.windowRecords = Integer.MAX_VALUE / layout.getRecordSize();
+    }
+
+    public long getRecordCount() {
+        return records;
+    }
+
+    /**
+     * Splits the records into ranges of nearly equal size.
+     *
+     * @param parts number of ranges
+     * @return the ranges in file order, less than <code>parts</code> if there are fewer records
+     */
+    public List<Range> split(int parts) {
+        if (parts < 1) {
+            throw new IllegalArgumentException("At least one part is required");
+        }
+        List<Range> ranges = new ArrayList<>(parts);
+        long first = 0;
+        for (int i = 0; i < parts; i++) {
+            long end = records * (i + 1) / parts;
+            if (end > first) {
+                ranges.add(new Range(first, end - first));
+            }
+            first = end;
+        }
+        return ranges;
+    }
+
+    /**
+     * Aggregates all records into the container.
+     *
+     * @param container the container; it must not have aggregated other input than records of this layout
+     * @throws IOException if the file can't be mapped
+     */
+    public void aggregate(Container<?> container) throws IOException {
+        new Range(0, records).aggregate(container);
+    }
+
+    /**
+     * Aggregates the records on several threads, each aggregating one range into its own container, and merges the
+     * containers.
+     *
+     * @param <T> the entity class of the layout
+     * @param factory creates the containers
+     * @param workers number of threads
+     * @return the merged container
+     * @throws IOException if the file can't be mapped
+     * @throws InterruptedException if interrupted while waiting for the workers
+     */
+    public <T> Container<T> aggregate(ContainerFactory<T> factory, int workers) throws IOException,
+            InterruptedException {
+        List<Worker<T>> started = new ArrayList<>();
+        for (Range range : split(workers)) {
+            Worker<T> worker = new Worker<>(range, factory.create());
+            started.add(worker);
+            worker.start();
+        }
+        for (Worker<T> worker : started) {
+            worker.join();
+        }
+        Container<T> result = factory.create();
+        result.prepareRecords(layout);
+        for (Worker<T> worker : started) {
+            if (worker.failure instanceof IOException) {
+                throw (IOException) worker.failure;
+            } else if (worker.failure != null) {
+                throw new IllegalStateException("A worker failed", worker.failure);
+            }
+            result.merge(worker.container);
+        }
+        return result;
+    }
+
+    /**
+     * A range of consecutive records.
+     */
+    public final class Range {
+
+        private final long first;
+        private final long count;
+
+        private Range(long first, long count) {
+            this.first = first;
+            this.count = count;
+        }
+
+        public long getFirst() {
+            return first;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * Aggregates the records of this range into the container.
+         *
+         * @param container the container; it must not have aggregated other input than records of this layout
+         * @throws IOException if the file can't be mapped
+         */
+        public void aggregate(Container<?> container) throws IOException {
+            container.prepareRecords(layout);
+            int size = layout.getRecordSize();
+            RecordLayout.Cursor cursor = new RecordLayout.Cursor();
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                long next = first;
+                long end = first + count;
+                while (next < end) {
+                    int n = (int) Math.min(end - next, windowRecords);
+                    MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, next * size, (long) n * size);
+                    buffer.order(layout.getOrder());
+                    cursor.buffer = buffer;
+                    for (int i = 0; i < n; i++) {
+                        cursor.position = i * size;
+                        container.aggregateRecord(cursor);
+                    }
+                    next += n;
+                }
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "records " + first + " to " + (first + count);
+        }
+    }
+
+    /**
+     * Aggregates one range into its own container.
+     */
+    private static final class Worker<T> extends Thread {
+
+        private final Range range;
+        private final Container<T> container;
+        private volatile Throwable failure;
+
+        Worker(Range range, Container<T> container) {
+            super("aggregation-" + range);
+            this.range = range;
+            this.container = container;
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            try {
+                range.aggregate(container);
+            } catch (IOException | RuntimeException | Error ex) {
+                failure = ex;
+            }
+        }
+    }
+}
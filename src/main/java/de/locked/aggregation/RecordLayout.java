@@ -0,0 +1,255 @@
+/*
+ * Copyright 2013 Dr. Franz Graf.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.locked.aggregation;
+
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Position and type of the fields of an entity class within a fixed-width binary record, see {@link RecordFile}.
+ *
+ * The types are those of the public fields of the entity class. Numbers are stored in their Java sizes, chars as two
+ * bytes and booleans as one byte that is true unless 0.
+ */
+public final class RecordLayout {
+
+    private final Class<?> entityClass;
+    private final int recordSize;
+    private ByteOrder order = ByteOrder.BIG_ENDIAN;
+    private final List<String> names = new ArrayList<>();
+    private int[] offsets = new int[0];
+    private Class<?>[] types = new Class<?>[0];
+    private final Accessor accessor = new Accessor();
+
+    /**
+     * Creates an empty layout whose fields are declared by {@link #field(java.lang.String, int)}.
+     *
+     * @param entityClass the entity class with the aggregation annotations
+     * @param recordSize bytes per record
+     */
+    public RecordLayout(Class<?> entityClass, int recordSize) {
+        if (recordSize < 1) {
+            throw new IllegalArgumentException("record size must be positive: " + recordSize);
+        }
+        this.entityClass = entityClass;
+        this.recordSize = recordSize;
+    }
+
+    /**
+     * Takes the layout from the {@link Offset} annotations of the entity class. The record ends with the last field.
+     *
+     * @param entityClass the entity class
+     * @return the layout
+     */
+    public static RecordLayout of(Class<?> entityClass) {
+        int size = 0;
+        for (Field f : entityClass.getFields()) {
+            if (f.isAnnotationPresent(Offset.class)) {
+                size = Math.max(size, f.getAnnotation(Offset.class).value() + sizeOf(f.getType()));
+            }
+        }
+        return of(entityClass, size);
+    }
+
+    /**
+     * Takes the layout from the {@link Offset} annotations of the entity class, for records with padding at the end.
+     *
+     * @param entityClass the entity class
+     * @param recordSize bytes per record
+     * @return the layout
+     */
+    public static RecordLayout of(Class<?> entityClass, int recordSize) {
+        RecordLayout layout = new RecordLayout(entityClass, recordSize);
+        for (Field f : entityClass.getFields()) {
+            if (f.isAnnotationPresent(Offset.class)) {
+                layout.field(f.getName(), f.getAnnotation(Offset.class).value());
+            }
+        }
+        return layout;
+    }
+
+    /**
+     * Declares the position of a public field of the entity class.
+     *
+     * @param name name of the field
+     * @param offset byte offset within the record
+     * @return this layout
+     */
+    public RecordLayout field(String name, int offset) {
+        Class<?> type;
+        try {
+            type = entityClass.getField(name).getType();
+        } catch (NoSuchFieldException ex) {
+            throw new IllegalArgumentException("No public field '" + name + "' in " + entityClass.getName(), ex);
+        }
+        if (offset < 0 || offset + sizeOf(type) > recordSize) {
+            throw new IllegalArgumentException("Field " + name + " at " + offset + " exceeds the record size "
+                    + recordSize);
+        }
+        if (names.contains(name)) {
+            throw new IllegalArgumentException("Field " + name + " was declared twice");
+        }
+        names.add(name);
+        offsets = Arrays.copyOf(offsets, names.size());
+        offsets[offsets.length - 1] = offset;
+        types = Arrays.copyOf(types, names.size());
+        types[types.length - 1] = type;
+        return this;
+    }
+
+    /**
+     * @param order byte order of the numbers, big endian by default
+     * @return this layout
+     */
+    public RecordLayout order(ByteOrder order) {
+        this.order = order;
+        return this;
+    }
+
+    public Class<?> getEntityClass() {
+        return entityClass;
+    }
+
+    public int getRecordSize() {
+        return recordSize;
+    }
+
+    public ByteOrder getOrder() {
+        return order;
+    }
+
+    /**
+     * @param name name of a field
+     * @return true if the layout declares the field
+     */
+    boolean contains(String name) {
+        return names.contains(name);
+    }
+
+    /**
+     * @return the accessor that reads the fields of a {@link Cursor}
+     */
+    EntityAccessor<?> getAccessor() {
+        return accessor;
+    }
+
+    private static int sizeOf(Class<?> type) {
+        if (type == byte.class || type == boolean.class) {
+            return 1;
+        } else if (type == short.class || type == char.class) {
+            return 2;
+        } else if (type == int.class || type == float.class) {
+            return 4;
+        } else if (type == long.class || type == double.class) {
+            return 8;
+        }
+        throw new IllegalArgumentException("Only primitive fields can be read from records, not " + type.getName());
+    }
+
+    /**
+     * The current record: a buffer and the position of the record in it. One instance is reused for all records.
+     */
+    static final class Cursor {
+
+        ByteBuffer buffer;
+        int position;
+    }
+
+    /**
+     * Reads the declared fields from the record of a cursor.
+     */
+    private final class Accessor implements EntityAccessor<Cursor> {
+
+        @Override
+        public String[] getFieldNames() {
+            return names.toArray(new String[names.size()]);
+        }
+
+        @Override
+        public Object get(Cursor entity, int field) {
+            Class<?> type = types[field];
+            int i = entity.position + offsets[field];
+            if (type == int.class) {
+                return entity.buffer.getInt(i);
+            } else if (type == long.class) {
+                return entity.buffer.getLong(i);
+            } else if (type == double.class) {
+                return entity.buffer.getDouble(i);
+            } else if (type == float.class) {
+                return entity.buffer.getFloat(i);
+            } else if (type == short.class) {
+                return entity.buffer.getShort(i);
+            } else if (type == byte.class) {
+                return entity.buffer.get(i);
+            } else if (type == char.class) {
+                return entity.buffer.getChar(i);
+            }
+            return entity.buffer.get(i) != 0;
+        }
+
+        @Override
+        public double getDouble(Cursor entity, int field) {
+            Class<?> type = types[field];
+            int i = entity.position + offsets[field];
+            if (type == int.class) {
+                return entity.buffer.getInt(i);
+            } else if (type == long.class) {
+                return entity.buffer.getLong(i);
+            } else if (type == double.class) {
+                return entity.buffer.getDouble(i);
+            } else if (type == float.class) {
+                return entity.buffer.getFloat(i);
+            } else if (type == short.class) {
+                return entity.buffer.getShort(i);
+            } else if (type == byte.class) {
+                return entity.buffer.get(i);
+            } else if (type == char.class) {
+                return entity.buffer.getChar(i);
+            }
+            throw new IllegalArgumentException("Field " + names.get(field) + " is not numeric");
+        }
+
+        @Override
+        public long getLong(Cursor entity, int field) {
+            Class<?> type = types[field];
+            int i = entity.position + offsets[field];
+            if (type == int.class) {
+                return entity.buffer.getInt(i);
+            } else if (type == long.class) {
+                return entity.buffer.getLong(i);
+            } else if (type == short.class) {
+                return entity.buffer.getShort(i);
+            } else if (type == byte.class) {
+                return entity.buffer.get(i);
+            }
+            throw new IllegalArgumentException("Field " + names.get(field) + " is not integral");
+        }
+
+        @Override
+        public char getChar(Cursor entity, int field) {
+            return entity.buffer.getChar(entity.position + offsets[field]);
+        }
+
+        @Override
+        public boolean getBoolean(Cursor entity, int field) {
+            return entity.buffer.get(entity.position + offsets[field]) != 0;
+        }
+    }
+}
@@ -0,0 +1,30 @@
+/*
+ * Copyright 2013 Dr. Franz Graf.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.locked.aggregation;
+
+/**
+ * Receives groups that are handed out by the container before the aggregation is finished, e.g. in sorted input
+ * mode ({@link Container#setSortedInput(de.locked.aggregation.ResultSink, boolean)}).
+ */
+public interface ResultSink {
+
+    /**
+     * Called once for every finished group. The container doesn't modify the result afterwards.
+     *
+     * @param result the finished group
+     */
+    void accept(Container.Result result);
+}
@@ -0,0 +1,32 @@
+/*
+ * Copyright 2013 Dr. Franz Graf.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.locked.aggregation;
+
+/**
+ * Aggregate over object, <code>char</code> or <code>boolean</code> fields that can remove values again. The values of
+ * <code>char</code> and <code>boolean</code> fields are passed boxed, as retraction is rare compared to aggregation.
+ *
+ * @see RetractableAggregate
+ */
+public interface RetractableObjectAggregate {
+
+    /**
+     * Removes a value that was applied before.
+     *
+     * @param o the value
+     */
+    void retract(Object o);
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2013 Dr. Franz Graf.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.locked.aggregation;
+
+import java.util.Collection;
+
+/**
+ * Aggregates on several threads, each owning a disjoint set of groups.
+ *
+ * Every entity is routed by the hash of its <code>@Id</code> fields to exactly one shard. A shard is a container
+ * that is only touched by its own worker thread, so a group never exists in more than one shard and the result is
+ * just the concatenation of all shards - no merge step is necessary. Entities are handed to the workers in batches.
+ *
+ * <code>
+ * ShardedContainer&lt;Entity&gt; sharded = new ShardedContainer&lt;&gt;(factory, 8, 1000, 16);
+ * sharded.aggregate(entity); // from any thread
+ * Collection&lt;Result&gt; results = sharded.getResults();
+ * sharded.close();
+ * </code>
+ *
+ * @param <T> the entity class
+ */
+public class ShardedContainer<T> implements AutoCloseable {
+
+    private final BatchWorkers<T> workers;
+
+    /**
+     * Creates the shards and starts their worker threads.
+     *
+     * @param factory creates the container of each shard; configuration like partitions or a combiner is applied per
+     * shard
+     * @param shards number of shards and worker threads
+     * @param batchSize number of entities that are handed to a worker at once
+     * @param capacity number of batches that can be queued per shard before the producers block
+     */
+    public ShardedContainer(ContainerFactory<T> factory, int shards, int batchSize, int capacity) {
+        if (shards < 1 || batchSize < 1 || capacity < 1) {
+            throw new IllegalArgumentException("shards, batch size and capacity must be positive");
+        }
+        this.workers = new BatchWorkers<>(factory, shards, batchSize, capacity, "aggregation-shard-", "container");
+    }
+
+    /**
+     * Routes the entity to the shard owning its group. May be called concurrently by any number of threads, but not
+     * concurrently with {@link #getResults()}.
+     *
+     * @param entity the entity to aggregate
+     * @throws IllegalStateException if the container was closed or a shard failed
+     */
+    public void aggregate(T entity) {
+        workers.add(entity, Backpressure.BLOCK);
+    }
+
+    /**
+     * Waits until all entities are aggregated and returns the groups of all shards.
+     *
+     * @return read only view of the groups of all shards
+     * @throws InterruptedException if the thread was interrupted while waiting
+     * @throws IllegalStateException if a shard failed
+     */
+    public Collection<Container.Result> getResults() throws InterruptedException {
+        workers.flush();
+        return workers.results();
+    }
+
+    /**
+     * @return number of shards
+     */
+    public int getShardCount() {
+        return workers.size();
+    }
+
+    /**
+     * Stops the worker threads after they processed all queued batches. Entities in batches that were not handed
+     * out by {@link #getResults()} are discarded. An interrupted thread stops waiting for the workers and keeps its
+     * interrupt status.
+     */
+    @Override
+    public void close() {
+        workers.close();
+    }
+
+    /**
+     * Maps the key hash to a shard.
+     *
+     * @param hash hash of the group key
+     * @return the shard
+     */
+    int shardOf(int hash) {
+        return workers.workerOf(hash);
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright 2013 Dr. Franz Graf.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.locked.aggregation;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.NotSerializableException;
+
+/**
+ * Encoding of key and field values in the partial state format, see {@link Container#writeState}.
+ *
+ * Only primitives, strings and (as keys) enum constants can be written, each with a one byte tag, so that every
+ * value can be decoded on its own. Decoding never instantiates classes named by the stream: enum constants are
+ * resolved against the type the reader expects, and every value is checked against that type. Lengths read from the
+ * stream are bounded.
+ */
+final class StateIO {
+
+    /**
+     * first bytes of every partial state
+     */
+    static final int MAGIC = 0x41474753;
+    static final int VERSION = 1;
+
+    /**
+     * maximum length of a string in the partial state
+     */
+    static final int MAX_STRING_LENGTH = 1 << 24;
+
+    private static final byte NULL = 0;
+    private static final byte INT = 1;
+    private static final byte LONG = 2;
+    private static final byte DOUBLE = 3;
+    private static final byte FLOAT = 4;
+    private static final byte SHORT = 5;
+    private static final byte BYTE = 6;
+    private static final byte CHAR = 7;
+    private static final byte BOOLEAN = 8;
+    private static final byte STRING = 9;
+    private static final byte ENUM = 10;
+
+    private StateIO() {
+    }
+
+    /**
+     * @param type the declared type of a key or value
+     * @return true if all values of the type can be written
+     */
+    static boolean isEncodable(Class<?> type) {
+        return type.isPrimitive() || type == String.class || type == Integer.class || type == Long.class
+                || type == Double.class || type == Float.class || type == Short.class || type == Byte.class
+                || type == Character.class || type == Boolean.class;
+    }
+
+    static void writeValue(DataOutput out, Object v) throws IOException {
+        if (v == null) {
+            out.writeByte(NULL);
+        } else if (v instanceof Integer) {
+            out.writeByte(INT);
+            out.writeInt((Integer) v);
+        } else if (v instanceof Long) {
+            out.writeByte(LONG);
+            out.writeLong((Long) v);
+        } else if (v instanceof Double) {
+            out.writeByte(DOUBLE);
+            out.writeDouble((Double) v);
+        } else if (v instanceof Float) {
+            out.writeByte(FLOAT);
+            out.writeFloat((Float) v);
+        } else if (v instanceof Short) {
+            out.writeByte(SHORT);
+            out.writeShort((Short) v);
+        } else if (v instanceof Byte) {
+            out.writeByte(BYTE);
+            out.writeByte((Byte) v);
+        } else if (v instanceof Character) {
+            out.writeByte(CHAR);
+            out.writeChar((Character) v);
+        } else if (v instanceof Boolean) {
+            out.writeByte(BOOLEAN);
+            out.writeBoolean((Boolean) v);
+        } else if (v instanceof String) {
+            out.writeByte(STRING);
+            writeString(out, (String) v);
+        } else if (v instanceof Enum) {
+            out.writeByte(ENUM);
+            writeString(out, ((Enum) v).name());
+        } else {
+            throw new NotSerializableException(v.getClass().getName());
+        }
+    }
+
+    /**
+     * Reads a value that may be of any encodable type except enums.
+     */
+    static Object readValue(DataInput in) throws IOException {
+        return readValue(in, Object.class);
+    }
+
+    /**
+     * @param in the stream
+     * @param type the expected type, a primitive type is checked against its wrapper
+     * @return the value, which is null or an instance of the type
+     * @throws IOException if reading fails or the value is of another type
+     */
+    static Object readValue(DataInput in, Class<?> type) throws IOException {
+        byte tag = in.readByte();
+        if (tag == ENUM) {
+            if (!type.isEnum()) {
+                throw new IOException("Unexpected enum constant, expected " + type.getName());
+            }
+            String name = readString(in);
+            for (Object constant : type.getEnumConstants()) {
+                if (((Enum<?>) constant).name().equals(name)) {
+                    return constant;
+                }
+            }
+            throw new IOException("Unknown constant " + name + " of " + type.getName());
+        }
+        Object v = readTagged(tag, in);
+        if (v == null && type.isPrimitive()) {
+            throw new IOException("Unexpected null, expected " + type.getName());
+        }
+        if (v != null && !Container.Element.wrap(type).isInstance(v)) {
+            throw new IOException("Unexpected " + v.getClass().getName() + ", expected " + type.getName());
+        }
+        return v;
+    }
+
+    private static Object readTagged(byte tag, DataInput in) throws IOException {
+        switch (tag) {
+            case NULL:
+                return null;
+            case INT:
+                return in.readInt();
+            case LONG:
+                return in.readLong();
+            case DOUBLE:
+                return in.readDouble();
+            case FLOAT:
+                return in.readFloat();
+            case SHORT:
+                return in.readShort();
+            case BYTE:
+                return in.readByte();
+            case CHAR:
+                return in.readChar();
+            case BOOLEAN:
+                return in.readBoolean();
+            case STRING:
+                return readString(in);
+            default:
+                throw new IOException("Unknown value tag " + tag);
+        }
+    }
+
+    /**
+     * Writes a string without the 64k limit of {@link DataOutput#writeUTF(java.lang.String)}.
+     */
+    static void writeString(DataOutput out, String s) throws IOException {
+        out.writeInt(s.length());
+        out.writeChars(s);
+    }
+
+    /**
+     * Reads a string of at most {@link #MAX_STRING_LENGTH} characters. The string grows while it is read, so a
+     * corrupt length fails at the end of the stream instead of allocating its length up front.
+     */
+    static String readString(DataInput in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > MAX_STRING_LENGTH) {
+            throw new IOException("Invalid string length " + length);
+        }
+        StringBuilder s = new StringBuilder(Math.min(length, 256));
+        for (int i = 0; i < length; i++) {
+            s.append(in.readChar());
+        }
+        return s.toString();
+    }
+
+    /**
+     * Reads a count of a partial state, e.g. a number of values.
+     *
+     * @throws IOException if the count is negative
+     */
+    static int readCount(DataInput in) throws IOException {
+        int count = in.readInt();
+        if (count < 0) {
+            throw new IOException("Invalid count " + count);
+        }
+        return count;
+    }
+}
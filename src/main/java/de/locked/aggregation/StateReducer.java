@@ -0,0 +1,101 @@
+/*
+ * Copyright 2013 Dr. Franz Graf.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.locked.aggregation;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+/**
+ * Combines the partial states of containers from several processes into one container.
+ *
+ * Each worker aggregates its slice of the data and sends its container by
+ * {@link Container#writeState(java.io.OutputStream)}. The reducer decodes the partial states one after the other
+ * and merges every group as soon as it is read, so it only holds the combined result and never all inputs at once.
+ * The partial states are plain data: no classes are loaded and no objects are deserialized on their behalf.
+ *
+ * <code>
+ * // worker
+ * try (Socket socket = new Socket(host, port)) {
+ *     container.writeState(socket.getOutputStream());
+ * }
+ * // reducer
+ * Container&lt;Entity&gt; container = new Container&lt;&gt;();
+ * container.prepare(Entity.class);
+ * StateReducer&lt;Entity&gt; reducer = new StateReducer&lt;&gt;(container);
+ * reducer.accept(serverSocket, workers);
+ * Container&lt;Entity&gt; result = reducer.getResult();
+ * </code>
+ *
+ * @param <T> the entity class
+ */
+public class StateReducer<T> {
+
+    private final Container<T> result;
+    private int partials = 0;
+
+    /**
+     * @param result the container that receives the partial states; it must have the same aggregates registered as
+     * the containers of the workers and be prepared for their entity class, see {@link Container#prepare(Class)}
+     */
+    public StateReducer(Container<T> result) {
+        this.result = result;
+    }
+
+    /**
+     * Reads and merges one partial state from the stream.
+     *
+     * @param in the stream, which is not closed
+     * @throws IOException if reading fails or the stream is not a partial state
+     */
+    public void accept(InputStream in) throws IOException {
+        result.mergeState(in);
+        partials++;
+    }
+
+    /**
+     * Accepts the given number of connections and merges the partial state that is sent on each of them. The
+     * connections are read one after the other; workers that connect meanwhile wait in the backlog of the socket.
+     *
+     * @param server the listening socket
+     * @param count number of partial states to receive
+     * @throws IOException if accepting or reading fails
+     */
+    public void accept(ServerSocket server, int count) throws IOException {
+        for (int i = 0; i < count; i++) {
+            try (Socket socket = server.accept();
+                    InputStream in = new BufferedInputStream(socket.getInputStream())) {
+                accept(in);
+            }
+        }
+    }
+
+    /**
+     * @return number of partial states merged so far
+     */
+    public int getPartials() {
+        return partials;
+    }
+
+    /**
+     * @return the combined container
+     */
+    public Container<T> getResult() {
+        return result;
+    }
+}
@@ -15,7 +15,11 @@
  */
 package de.locked.aggregation;
 
-public class SumAggregate extends AbstractAggregate {
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+public class SumAggregate extends AbstractAggregate implements RetractableAggregate, ExchangeableAggregate {
 
     double sum = 0;
 
@@ -28,6 +32,46 @@ public class SumAggregate extends AbstractAggregate {
         sum += v;
     }
 
+    /**
+     * Sums four independent lanes, so the additions don't wait for each other. The result may differ from the
+     * sequential sum in the last bits.
+     */
+    @Override
+    public void applyAll(double[] values, int from, int to) {
+        double s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+        int i = from;
+        for (; i + 3 < to; i += 4) {
+            s0 += values[i];
+            s1 += values[i + 1];
+            s2 += values[i + 2];
+            s3 += values[i + 3];
+        }
+        for (; i < to; i++) {
+            s0 += values[i];
+        }
+        sum += (s0 + s1) + (s2 + s3);
+    }
+
+    @Override
+    public void retract(double v) {
+        sum -= v;
+    }
+
+    @Override
+    public void merge(AbstractAggregate other) {
+        sum += ((SumAggregate) other).sum;
+    }
+
+    @Override
+    public void writeState(DataOutput out) throws IOException {
+        out.writeDouble(sum);
+    }
+
+    @Override
+    public void readState(DataInput in) throws IOException {
+        sum = in.readDouble();
+    }
+
     @Override
     public AbstractAggregate getInstance() {
         return new SumAggregate();
@@ -0,0 +1,30 @@
+/*
+ * Copyright 2013 Dr. Franz Graf.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.locked.aggregation;
+
+/**
+ * Aggregate whose instances depend on the type of the annotated field, e.g. to return values of that type.
+ */
+public interface TypedAggregate {
+
+    /**
+     * Creates an instance like this one for the given field, used as template for all groups.
+     *
+     * @param type the type of the annotated field, getter or measure
+     * @return the new instance
+     */
+    AbstractAggregate forFieldType(Class<?> type);
+}
@@ -0,0 +1,261 @@
+/*
+ * Copyright 2013 Dr. Franz Graf.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.locked.aggregation;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/**
+ * Reads one value from an entity, either reflectively or through a generated {@link EntityAccessor}. The value is
+ * the content of a field or the result of a getter method.
+ */
+abstract class ValueReader {
+
+    private final String name;
+    private final Class<?> type;
+
+    ValueReader(String name, Class<?> type) {
+        this.name = name;
+        this.type = type;
+    }
+
+    /**
+     * @return name of the field, or of the method followed by <code>()</code>
+     */
+    String getName() {
+        return name;
+    }
+
+    /**
+     * @return type of the field
+     */
+    Class<?> getType() {
+        return type;
+    }
+
+    abstract Object get(Object entity) throws IllegalAccessException;
+
+    abstract double getDouble(Object entity) throws IllegalAccessException;
+
+    abstract long getLong(Object entity) throws IllegalAccessException;
+
+    abstract char getChar(Object entity) throws IllegalAccessException;
+
+    abstract boolean getBoolean(Object entity) throws IllegalAccessException;
+
+    /**
+     * Creates a reader for the given field that uses the accessor if it covers the field and reflection otherwise.
+     *
+     * @param field the field to read
+     * @param accessor the generated accessor of the entity class, may be null
+     * @return the reader
+     */
+    static ValueReader of(Field field, EntityAccessor<?> accessor) {
+        if (accessor != null) {
+            String[] names = accessor.getFieldNames();
+            for (int i = 0; i < names.length; i++) {
+                if (names[i].equals(field.getName())) {
+                    return new AccessorReader(field.getName(), field.getType(), accessor, i);
+                }
+            }
+        }
+        field.setAccessible(true);
+        return new FieldReader(field);
+    }
+
+    /**
+     * Creates a reader for the given getter method that uses the accessor if it covers the method and reflection
+     * otherwise.
+     *
+     * @param method a public method without parameters
+     * @param accessor the generated accessor of the entity class, may be null
+     * @return the reader
+     */
+    static ValueReader of(Method method, EntityAccessor<?> accessor) {
+        String name = method.getName() + "()";
+        if (accessor != null) {
+            String[] names = accessor.getFieldNames();
+            for (int i = 0; i < names.length; i++) {
+                if (names[i].equals(name)) {
+                    return new AccessorReader(name, method.getReturnType(), accessor, i);
+                }
+            }
+        }
+        method.setAccessible(true);
+        return new MethodReader(name, method);
+    }
+
+    /**
+     * Creates a reader for a computed measure.
+     *
+     * @param alias alias of the measure, used as name
+     * @param measure the measure
+     * @return the reader
+     */
+    static ValueReader of(String alias, Measure<?> measure) {
+        return new MeasureReader(alias, measure);
+    }
+
+    private static final class FieldReader extends ValueReader {
+
+        private final Field field;
+
+        FieldReader(Field field) {
+            super(field.getName(), field.getType());
+            this.field = field;
+        }
+
+        @Override
+        Object get(Object entity) throws IllegalAccessException {
+            return field.get(entity);
+        }
+
+        @Override
+        double getDouble(Object entity) throws IllegalAccessException {
+            return field.getDouble(entity);
+        }
+
+        @Override
+        long getLong(Object entity) throws IllegalAccessException {
+            return field.getLong(entity);
+        }
+
+        @Override
+        char getChar(Object entity) throws IllegalAccessException {
+            return field.getChar(entity);
+        }
+
+        @Override
+        boolean getBoolean(Object entity) throws IllegalAccessException {
+            return field.getBoolean(entity);
+        }
+    }
+
+    private static final class MethodReader extends ValueReader {
+
+        private final Method method;
+
+        MethodReader(String name, Method method) {
+            super(name, method.getReturnType());
+            this.method = method;
+        }
+
+        @Override
+        Object get(Object entity) throws IllegalAccessException {
+            try {
+                return method.invoke(entity);
+            } catch (InvocationTargetException ex) {
+                throw new IllegalStateException("Getter " + getName() + " failed", ex.getCause());
+            }
+        }
+
+        @Override
+        double getDouble(Object entity) throws IllegalAccessException {
+            Object v = get(entity);
+            return v instanceof Character ? (Character) v : ((Number) v).doubleValue();
+        }
+
+        @Override
+        long getLong(Object entity) throws IllegalAccessException {
+            return ((Number) get(entity)).longValue();
+        }
+
+        @Override
+        char getChar(Object entity) throws IllegalAccessException {
+            return (Character) get(entity);
+        }
+
+        @Override
+        boolean getBoolean(Object entity) throws IllegalAccessException {
+            return (Boolean) get(entity);
+        }
+    }
+
+    private static final class MeasureReader extends ValueReader {
+
+        private final Measure<Object> measure;
+
+        @SuppressWarnings("unchecked") // the reader only gets entities of the class the measure was registered for
+        MeasureReader(String alias, Measure<?> measure) {
+            super(alias, double.class);
+            this.measure = (Measure<Object>) measure;
+        }
+
+        @Override
+        Object get(Object entity) {
+            return measure.valueOf(entity);
+        }
+
+        @Override
+        double getDouble(Object entity) {
+            return measure.valueOf(entity);
+        }
+
+        @Override
+        long getLong(Object entity) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        char getChar(Object entity) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        boolean getBoolean(Object entity) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    private static final class AccessorReader extends ValueReader {
+
+        private final EntityAccessor<Object> accessor;
+        private final int index;
+
+        @SuppressWarnings("unchecked") // the reader only gets entities of the class the accessor was generated for
+        AccessorReader(String name, Class<?> type, EntityAccessor<?> accessor, int index) {
+            super(name, type);
+            this.accessor = (EntityAccessor<Object>) accessor;
+            this.index = index;
+        }
+
+        @Override
+        Object get(Object entity) {
+            return accessor.get(entity, index);
+        }
+
+        @Override
+        double getDouble(Object entity) {
+            return accessor.getDouble(entity, index);
+        }
+
+        @Override
+        long getLong(Object entity) {
+            return accessor.getLong(entity, index);
+        }
+
+        @Override
+        char getChar(Object entity) {
+            return accessor.getChar(entity, index);
+        }
+
+        @Override
+        boolean getBoolean(Object entity) {
+            return accessor.getBoolean(entity, index);
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2013 Dr. Franz Graf.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.locked.aggregation;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.lang.annotation.Annotation;
+
+/**
+ * Sample variance computed in a single pass by Welford's update. Partial results are combined by the pairwise update
+ * of Chan et al., so merging stays numerically stable as well.
+ */
+public class VarianceAggregate extends AbstractAggregate implements RetractableAggregate, ExchangeableAggregate {
+
+    long n = 0;
+    double mean = 0;
+    /**
+     * sum of squared differences from the current mean
+     */
+    double m2 = 0;
+
+    public VarianceAggregate() {
+        this(Variance.class);
+    }
+
+    protected VarianceAggregate(Class<? extends Annotation> annotation) {
+        super(annotation);
+    }
+
+    @Override
+    public void apply(double v) {
+        n++;
+        double delta = v - mean;
+        mean += delta / n;
+        m2 += delta * (v - mean);
+    }
+
+    /**
+     * Reverts the update of {@link #apply(double)}.
+     */
+    @Override
+    public void retract(double v) {
+        if (n <= 1) {
+            n = 0;
+            mean = 0;
+            m2 = 0;
+            return;
+        }
+        double previousMean = (n * mean - v) / (n - 1);
+        m2 = Math.max(0, m2 - (v - previousMean) * (v - mean));
+        mean = previousMean;
+        n--;
+    }
+
+    @Override
+    public void merge(AbstractAggregate other) {
+        VarianceAggregate o = (VarianceAggregate) other;
+        if (o.n == 0) {
+            return;
+        }
+        long count = n + o.n;
+        double delta = o.mean - mean;
+        mean += delta * o.n / count;
+        m2 += o.m2 + delta * delta * n * o.n / count;
+        n = count;
+    }
+
+    @Override
+    public void writeState(DataOutput out) throws IOException {
+        out.writeLong(n);
+        out.writeDouble(mean);
+        out.writeDouble(m2);
+    }
+
+    @Override
+    public void readState(DataInput in) throws IOException {
+        n = in.readLong();
+        mean = in.readDouble();
+        m2 = in.readDouble();
+    }
+
+    @Override
+    public AbstractAggregate getInstance() {
+        return new VarianceAggregate();
+    }
+
+    /**
+     * @return the sample variance or NaN if less than two values were aggregated
+     */
+    @Override
+    public double getDouble() {
+        return n < 2 ? Double.NaN : m2 / (n - 1);
+    }
+}
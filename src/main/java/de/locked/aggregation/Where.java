@@ -0,0 +1,54 @@
+/*
+ * Copyright 2013 Dr. Franz Graf.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.locked.aggregation;
+
+import static java.lang.annotation.ElementType.FIELD;
+import static java.lang.annotation.ElementType.METHOD;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a boolean field or getter as filter of other aggregates, which then only see the entities for which it is
+ * true.
+ * This is the equivalent of <code>SUM(amount) FILTER (WHERE ok)</code>.
+ *
+ * <code>
+ * &#64;Sum(alias = "amount")
+ * public double amount;
+ * &#64;Where(aliases = "amount", suffix = "Ok")
+ * public boolean ok; // adds the alias amountOk
+ * </code>
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(value = {FIELD, METHOD})
+public @interface Where {
+
+    /**
+     * Aliases of the aggregates that are filtered.
+     *
+     * @return aliases
+     */
+    String[] aliases();
+
+    /**
+     * If set, a filtered copy named alias + suffix is added for every alias and the original aggregates are left
+     * unfiltered. Otherwise the aggregates themselves are filtered.
+     *
+     * @return suffix of the filtered aliases
+     */
+    String suffix() default "";
+}
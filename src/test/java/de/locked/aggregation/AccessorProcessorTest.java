@@ -0,0 +1,97 @@
+/*
+ * Copyright 2013 Dr. Franz Graf <info@Locked.de>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.locked.aggregation;
+
+import java.util.Arrays;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class AccessorProcessorTest {
+
+    @Test
+    public void testGeneratedAccessor() throws Exception {
+        Class<?> accessorClass = Class.forName(AccessorProcessor.accessorName(Entity.class.getName()));
+        @SuppressWarnings("unchecked")
+        EntityAccessor<Entity> accessor = (EntityAccessor<Entity>) accessorClass.getDeclaredConstructor().newInstance();
+        assertEquals(Arrays.asList("key", "flag", "letter", "value"), Arrays.asList(accessor.getFieldNames()));
+
+        Entity entity = new Entity(1, 3);
+        assertEquals(1, accessor.get(entity, 0));
+        assertTrue(accessor.getBoolean(entity, 1));
+        assertEquals('x', accessor.getChar(entity, 2));
+        assertEquals(3, accessor.getDouble(entity, 3), 0.000d);
+    }
+
+    @Test
+    public void testAggregation() {
+        Container<Entity> container = new Container<>();
+        container.aggregate(new Entity(1, 1));
+        container.aggregate(new Entity(1, 2));
+        container.aggregate(new Entity(2, 5));
+
+        for (Container.Result entry : container.getResults()) {
+            Object key = entry.getKeys()[0];
+            if (key.equals(1)) {
+                assertEquals(3, entry.getDouble("value"), 0.000d);
+            } else if (key.equals(2)) {
+                assertEquals(5, entry.getDouble("value"), 0.000d);
+            }
+        }
+    }
+
+    @Test
+    public void testReflectionFallback() {
+        class LocalEntity {
+
+            @Id
+            public int key;
+
+            @Sum(alias = "value")
+            public int value;
+
+            LocalEntity(int key, int value) {
+                this.key = key;
+                this.value = value;
+            }
+        }
+        Container<LocalEntity> container = new Container<>();
+        container.aggregate(new LocalEntity(1, 1));
+        container.aggregate(new LocalEntity(1, 2));
+
+        Container.Result entry = container.getResults().iterator().next();
+        assertEquals(3, entry.getDouble("value"), 0.000d);
+    }
+
+    class Entity {
+
+        @Id(order = 0)
+        public int key;
+
+        public boolean flag = true;
+
+        public char letter = 'x';
+
+        @Sum(alias = "value")
+        public int value;
+
+        private int hidden;
+
+        public Entity(int a, int b) {
+            this.key = a;
+            this.value = b;
+        }
+    }
+}
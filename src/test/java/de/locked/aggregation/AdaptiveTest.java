@@ -0,0 +1,130 @@
+/*
+ * Copyright 2013 Dr. Franz Graf <info@Locked.de>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.locked.aggregation;
+
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class AdaptiveTest {
+
+    @Test
+    public void testPresizedTable() {
+        Container<Entity> container = new Container<>();
+        container.setAdaptive(1000);
+        for (int i = 0; i < 10000; i++) {
+            container.aggregate(new Entity(i % 100, 1));
+        }
+        assertSums(container, 100, 100);
+        ContainerStats stats = container.getStats();
+        assertEquals(0, stats.getRehashes());
+        // no repeated keys within 64 slots, so no combiner
+        assertEquals(0, stats.getCombinerHits() + stats.getCombinerMisses());
+    }
+
+    @Test
+    public void testClusteredKeys() {
+        Container<Entity> container = new Container<>();
+        container.setAdaptive(500);
+        for (int i = 0; i < 5000; i++) {
+            container.aggregate(new Entity(i / 10, 1));
+        }
+        assertSums(container, 500, 10);
+        assertEquals(4500, container.getStats().getCombinerHits());
+    }
+
+    @Test
+    public void testHotKeys() {
+        Container<Entity> container = new Container<>();
+        container.setAdaptive(100);
+        for (int i = 0; i < 1000; i++) {
+            container.aggregate(new Entity(i % 4, 1));
+        }
+        assertSums(container, 4, 250);
+        assertEquals(996, container.getStats().getCombinerHits());
+    }
+
+    @Test
+    public void testManyKeys() {
+        Container<Entity> container = new Container<>();
+        container.setAdaptive(2000);
+        for (int i = 0; i < 20000; i++) {
+            container.aggregate(new Entity(i * 7 % 20000, 1));
+        }
+        assertSums(container, 20000, 1);
+        assertEquals(20000, container.getStats().getEntities());
+    }
+
+    @Test
+    public void testDropCombiner() {
+        Container<Entity> container = new Container<>();
+        container.setAdaptive(100);
+        for (int i = 0; i < 100; i++) {
+            container.aggregate(new Entity(0, 1));
+        }
+        for (int i = 1; i <= 10000; i++) {
+            container.aggregate(new Entity(i, 1));
+        }
+        ContainerStats stats = container.getStats();
+        assertEquals(99, stats.getCombinerHits());
+        assertTrue(stats.getCombinerMisses() < 200);
+        assertEquals(10001, container.getResults().size());
+    }
+
+    @Test
+    public void testIncompleteSample() {
+        Container<Entity> container = new Container<>();
+        container.setAdaptive(1000);
+        for (int i = 0; i < 10; i++) {
+            container.aggregate(new Entity(i % 2, 1));
+        }
+        assertSums(container, 2, 5);
+        container.aggregate(new Entity(0, 1));
+        Map<Object, Double> sums = sums(container);
+        assertEquals(6, sums.get(0), 0.000d);
+    }
+
+    private static void assertSums(Container<Entity> container, int groups, double sum) {
+        Map<Object, Double> sums = sums(container);
+        assertEquals(groups, sums.size());
+        for (double s : sums.values()) {
+            assertEquals(sum, s, 0.000d);
+        }
+    }
+
+    private static Map<Object, Double> sums(Container<Entity> container) {
+        Map<Object, Double> sums = new HashMap<>();
+        for (Container.Result result : container.getResults()) {
+            sums.put(result.getKeys()[0], result.getDouble("sum"));
+        }
+        return sums;
+    }
+
+    public static class Entity {
+
+        @Id
+        public int key;
+
+        @Sum(alias = "sum")
+        public int value;
+
+        public Entity(int key, int value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,285 @@
+/*
+ * Copyright 2013 Dr. Franz Graf <info@Locked.de>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.locked.aggregation;
+
+import java.lang.annotation.Annotation;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class AggregateFunctionTest {
+
+    @Test
+    public void testApplication() {
+        Container<Entity> container = new Container<>();
+        container.registerAggregate(new LongestFunction());
+        container.aggregate(new Entity(1, "a", 1));
+        container.aggregate(new Entity(1, "abc", 2));
+        container.aggregate(new Entity(2, "ab", 3));
+
+        assertEquals(2, container.getResults().size());
+        for (Container.Result entry : container.getResults()) {
+            Object key = entry.getKeys()[0];
+            if (key.equals(1)) {
+                assertEquals("abc", entry.getObject("longest"));
+                assertEquals(3, entry.getDouble("sum"), 0.000d);
+            } else if (key.equals(2)) {
+                assertEquals("ab", entry.getObject("longest"));
+                assertEquals(3, entry.getDouble("sum"), 0.000d);
+            }
+        }
+    }
+
+    @Test
+    public void testMerge() {
+        Container<Entity> left = new Container<>();
+        left.registerAggregate(new LongestFunction());
+        left.aggregate(new Entity(1, "a", 1));
+        left.aggregate(new Entity(2, "ab", 3));
+
+        Container<Entity> right = new Container<>();
+        right.registerAggregate(new LongestFunction());
+        right.aggregate(new Entity(1, "abc", 2));
+        right.aggregate(new Entity(3, "b", 5));
+
+        Container<Entity> merged = new Container<>();
+        merged.registerAggregate(new LongestFunction());
+        merged.merge(left);
+        merged.merge(right);
+
+        assertEquals(3, merged.getResults().size());
+        for (Container.Result entry : merged.getResults()) {
+            Object key = entry.getKeys()[0];
+            if (key.equals(1)) {
+                assertEquals("abc", entry.getObject("longest"));
+                assertEquals(3, entry.getDouble("sum"), 0.000d);
+            } else if (key.equals(2)) {
+                assertEquals("ab", entry.getObject("longest"));
+                assertEquals(3, entry.getDouble("sum"), 0.000d);
+            } else if (key.equals(3)) {
+                assertEquals("b", entry.getObject("longest"));
+                assertEquals(5, entry.getDouble("sum"), 0.000d);
+            }
+        }
+    }
+
+    @Test
+    public void testPrimitiveFunction() {
+        Container<Entity> container = new Container<>();
+        container.registerAggregate(new SquaresFunction());
+        container.aggregate(new Entity(1, "a", 1));
+        container.aggregate(new Entity(1, "b", 2));
+        container.aggregate(new Entity(2, "c", 3));
+
+        for (Container.Result entry : container.getResults()) {
+            Object key = entry.getKeys()[0];
+            assertEquals(key.equals(1) ? 5 : 9, entry.getDouble("squares"), 0.000d);
+        }
+    }
+
+    @Test
+    public void testWrapperField() {
+        Container<WrapperEntity> container = new Container<>();
+        container.registerAggregate(new SquaresFunction());
+        container.aggregate(new WrapperEntity(1, 2L));
+        container.aggregate(new WrapperEntity(1, 3L));
+        assertEquals(13, container.getResults().iterator().next().getDouble("squares"), 0.000d);
+    }
+
+    @Test
+    public void testNotMergeable() {
+        Container<PlainEntity> left = new Container<>();
+        left.registerAggregate(new PlainAggregate());
+        left.aggregate(new PlainEntity(1));
+        Container<PlainEntity> right = new Container<>();
+        right.registerAggregate(new PlainAggregate());
+        right.aggregate(new PlainEntity(2));
+        try {
+            left.merge(right);
+            fail("aggregates without merge can't be merged");
+        } catch (IllegalStateException ex) {
+            assertEquals(1, left.getResults().size());
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testInputTypeMismatch() {
+        Container<WrongEntity> container = new Container<>();
+        container.registerAggregate(new LongestFunction());
+        container.aggregate(new WrongEntity());
+    }
+
+    @Retention(RetentionPolicy.RUNTIME)
+    @interface Longest {
+
+        String alias();
+    }
+
+    static class LongestFunction implements AggregateFunction<String, String, String> {
+
+        @Override
+        public Class<? extends Annotation> getAnnotation() {
+            return Longest.class;
+        }
+
+        @Override
+        public Class<String> getInputType() {
+            return String.class;
+        }
+
+        @Override
+        public String createState() {
+            return "";
+        }
+
+        @Override
+        public String accumulate(String state, String value) {
+            return value.length() > state.length() ? value : state;
+        }
+
+        @Override
+        public String merge(String left, String right) {
+            return accumulate(left, right);
+        }
+
+        @Override
+        public String finish(String state) {
+            return state;
+        }
+    }
+
+    @Retention(RetentionPolicy.RUNTIME)
+    @interface Squares {
+
+        String alias();
+    }
+
+    static class SquaresFunction implements DoubleAggregateFunction<double[], Double> {
+
+        @Override
+        public Class<? extends Annotation> getAnnotation() {
+            return Squares.class;
+        }
+
+        @Override
+        public double[] createState() {
+            return new double[1];
+        }
+
+        @Override
+        public double[] accumulate(double[] state, double value) {
+            state[0] += value * value;
+            return state;
+        }
+
+        @Override
+        public double[] merge(double[] left, double[] right) {
+            left[0] += right[0];
+            return left;
+        }
+
+        @Override
+        public Double finish(double[] state) {
+            return state[0];
+        }
+    }
+
+    @Retention(RetentionPolicy.RUNTIME)
+    @interface Plain {
+
+        String alias();
+    }
+
+    static class PlainAggregate extends AbstractAggregate {
+
+        private double last;
+
+        PlainAggregate() {
+            super(Plain.class);
+        }
+
+        @Override
+        public void apply(double v) {
+            last = v;
+        }
+
+        @Override
+        public double getDouble() {
+            return last;
+        }
+
+        @Override
+        public AbstractAggregate getInstance() {
+            return new PlainAggregate();
+        }
+    }
+
+    class Entity {
+
+        @Id(order = 0)
+        public int key;
+
+        @Longest(alias = "longest")
+        public String name;
+
+        @Sum(alias = "sum")
+        @Squares(alias = "squares")
+        public int value;
+
+        public Entity(int a, String b, int c) {
+            this.key = a;
+            this.name = b;
+            this.value = c;
+        }
+    }
+
+    static class PlainEntity {
+
+        @Id(order = 0)
+        public int key;
+
+        @Plain(alias = "plain")
+        public int value;
+
+        PlainEntity(int key) {
+            this.key = key;
+        }
+    }
+
+    static class WrapperEntity {
+
+        @Id(order = 0)
+        public int key;
+
+        @Squares(alias = "squares")
+        public Long value;
+
+        WrapperEntity(int key, Long value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+    class WrongEntity {
+
+        @Id(order = 0)
+        public int key;
+
+        @Longest(alias = "longest")
+        public int value;
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright 2013 Dr. Franz Graf <info@Locked.de>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.locked.aggregation;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Checks the bytes allocated per entity on the aggregation hot path in steady state, measured by the allocation
+ * counter of the current thread. Paths that are meant to be allocation free get a budget below one byte per entity,
+ * so that a single new object per call fails the test.
+ */
+public class AllocationTest {
+
+    private static final int ENTITIES = 10000;
+    private static final int ROUNDS = 20;
+    /**
+     * offset of the keys, so that they are not in the Integer cache and boxing them shows up in the measurements
+     */
+    private static final int KEY_OFFSET = 1000;
+
+    private static com.sun.management.ThreadMXBean threads;
+
+    @BeforeClass
+    public static void enableCounter() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        threads = (com.sun.management.ThreadMXBean) bean;
+        Assume.assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+    }
+
+    @Test
+    public void testDenseTable() {
+        final Container<Dense> container = new Container<>();
+        final Dense[] entities = new Dense[ENTITIES];
+        for (int i = 0; i < entities.length; i++) {
+            entities[i] = new Dense(Level.values()[i % 3], i % 2 == 0, i);
+        }
+        assertBudget("dense aggregate", 0, new Runnable() {
+
+            @Override
+            public void run() {
+                for (Dense entity : entities) {
+                    container.aggregate(entity);
+                }
+            }
+        });
+    }
+
+    @Test
+    public void testCombiner() {
+        final Container<Keyed> container = new Container<>();
+        container.setCombinerSize(1);
+        final Keyed[] entities = new Keyed[ENTITIES];
+        for (int i = 0; i < entities.length; i++) {
+            // runs of equal keys, each run but the first entity is a combiner hit
+            entities[i] = new Keyed(KEY_OFFSET + i / 100, i);
+        }
+        assertBudget("combined aggregate", 0, new Runnable() {
+
+            @Override
+            public void run() {
+                for (Keyed entity : entities) {
+                    container.aggregate(entity);
+                }
+            }
+        });
+    }
+
+    @Test
+    public void testHashTable() {
+        final Container<Keyed> container = new Container<>();
+        final Keyed[] entities = keyed();
+        // the key array, the boxed key and the request key of every lookup, 72 bytes with compressed references
+        assertBudget("hashed aggregate", 80, new Runnable() {
+
+            @Override
+            public void run() {
+                for (Keyed entity : entities) {
+                    container.aggregate(entity);
+                }
+            }
+        });
+    }
+
+    @Test
+    public void testResults() {
+        final Container<Keyed> container = new Container<>();
+        for (Keyed entity : keyed()) {
+            container.aggregate(entity);
+        }
+        final double[] sink = new double[1];
+        assertBudget("result access", 0, new Runnable() {
+
+            @Override
+            public void run() {
+                for (int i = 0; i < ENTITIES / 100; i++) {
+                    for (Container.Result result : container.getResults()) {
+                        sink[0] += result.getDouble("sum") + result.getDouble("max") + result.getInt("count");
+                    }
+                }
+            }
+        });
+        assertTrue(sink[0] > 0);
+    }
+
+    /**
+     * Runs the task until the allocations are stable and fails if the least allocating round exceeds the budget.
+     *
+     * @param name name of the path
+     * @param bytesPerEntity allowed bytes per entity
+     * @param task aggregates {@link #ENTITIES} entities
+     */
+    private static void assertBudget(String name, int bytesPerEntity, Runnable task) {
+        long min = Long.MAX_VALUE;
+        for (int i = 0; i < ROUNDS; i++) {
+            long start = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+            task.run();
+            min = Math.min(min, threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - start);
+        }
+        double perEntity = min / (double) ENTITIES;
+        assertTrue(name + " allocates " + perEntity + " bytes per entity", perEntity < bytesPerEntity + 1);
+    }
+
+    private static Keyed[] keyed() {
+        Keyed[] entities = new Keyed[ENTITIES];
+        for (int i = 0; i < entities.length; i++) {
+            entities[i] = new Keyed(KEY_OFFSET + i % 100, i);
+        }
+        return entities;
+    }
+
+    enum Level {
+
+        LOW, MEDIUM, HIGH
+    }
+
+    public static class Dense {
+
+        @Id(order = 0)
+        public Level level;
+
+        @Id(order = 1)
+        public boolean flag;
+
+        @Sum(alias = "sum")
+        @Max(alias = "max")
+        @Count(alias = "count")
+        public double value;
+
+        public Dense(Level level, boolean flag, double value) {
+            this.level = level;
+            this.flag = flag;
+            this.value = value;
+        }
+    }
+
+    public static class Keyed {
+
+        @Id
+        public int key;
+
+        @Sum(alias = "sum")
+        @Max(alias = "max")
+        @Count(alias = "count")
+        public double value;
+
+        public Keyed(int key, double value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+}
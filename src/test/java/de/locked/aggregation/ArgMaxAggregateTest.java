@@ -0,0 +1,130 @@
+/*
+ * Copyright 2013 Dr. Franz Graf <info@Locked.de>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.locked.aggregation;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class ArgMaxAggregateTest {
+
+    @Test
+    public void testApplication() {
+        Container<Entity> container = new Container<>();
+        container.aggregate(new Entity(1, 5, 100, "a"));
+        container.aggregate(new Entity(1, 9, 101, "b"));
+        container.aggregate(new Entity(1, 9, 102, "c"));
+        container.aggregate(new Entity(1, 2, 103, "d"));
+        container.aggregate(new Entity(2, 7, 200, "e"));
+
+        for (Container.Result entry : container.getResults()) {
+            Object key = entry.getKeys()[0];
+            if (key.equals(1)) {
+                // the first of equal values wins
+                assertEquals(101L, entry.getObject("peakTime"));
+                assertEquals(103L, entry.getObject("lowTime"));
+                assertEquals("d", entry.getObject("latestStatus"));
+            } else {
+                assertEquals(200L, entry.getObject("peakTime"));
+                assertEquals(200L, entry.getObject("lowTime"));
+                assertEquals("e", entry.getObject("latestStatus"));
+            }
+        }
+    }
+
+    @Test
+    public void testMerge() {
+        ArgMaxAggregate a = new ArgMaxAggregate();
+        a.apply(3, "a");
+        ArgMaxAggregate b = new ArgMaxAggregate();
+        b.apply(4, "b");
+        ArgMaxAggregate empty = new ArgMaxAggregate();
+        a.merge(empty);
+        assertEquals("a", a.getObject());
+        a.merge(b);
+        assertEquals("b", a.getObject());
+        empty.merge(a);
+        assertEquals("b", empty.getObject());
+
+        ArgMinAggregate min = new ArgMinAggregate();
+        min.apply(-1, "x");
+        ArgMinAggregate other = new ArgMinAggregate();
+        other.apply(-1, "y");
+        min.merge(other);
+        assertEquals("x", min.getObject());
+    }
+
+    @Test
+    public void testState() throws IOException {
+        Container<Entity> container = new Container<>();
+        container.aggregate(new Entity(1, 5, 100, "a"));
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        container.writeState(bytes);
+
+        Container<Entity> reduced = new Container<>();
+        reduced.aggregate(new Entity(1, 4, 90, "b"));
+        reduced.mergeState(new ByteArrayInputStream(bytes.toByteArray()));
+        Container.Result result = reduced.getResults().iterator().next();
+        assertEquals(100L, result.getObject("peakTime"));
+        assertEquals(90L, result.getObject("lowTime"));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testRetractable() {
+        Container<Entity> container = new Container<>();
+        container.setRetractable(true);
+        container.aggregate(new Entity(1, 2, 3, "a"));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testNonNumericValue() {
+        Container<Invalid> container = new Container<>();
+        container.aggregate(new Invalid());
+    }
+
+    public static class Entity {
+
+        @Id(order = 0)
+        public int key;
+
+        @ArgMax(alias = "peakTime", payload = "timestamp")
+        @ArgMin(alias = "lowTime", payload = "timestamp")
+        public double value;
+
+        @ArgMax(alias = "latestStatus", payload = "status")
+        public long timestamp;
+
+        public String status;
+
+        public Entity(int key, double value, long timestamp, String status) {
+            this.key = key;
+            this.value = value;
+            this.timestamp = timestamp;
+            this.status = status;
+        }
+    }
+
+    public static class Invalid {
+
+        @Id
+        public int key;
+
+        @ArgMax(alias = "x", payload = "key")
+        public String name = "x";
+    }
+}
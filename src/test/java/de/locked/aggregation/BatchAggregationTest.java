@@ -0,0 +1,118 @@
+/*
+ * Copyright 2013 Dr. Franz Graf <info@Locked.de>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.locked.aggregation;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class BatchAggregationTest {
+
+    @Test
+    public void testKernels() {
+        double[] values = new double[11];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = (i * 7) % 11 - 3;
+        }
+        AbstractAggregate[] batch = {new SumAggregate(), new MinAggregate(), new MaxAggregate(), new CountAggregate()};
+        AbstractAggregate[] single = {new SumAggregate(), new MinAggregate(), new MaxAggregate(), new CountAggregate()};
+        for (int a = 0; a < batch.length; a++) {
+            batch[a].applyAll(values, 1, 10);
+            for (int i = 1; i < 10; i++) {
+                single[a].apply(values[i]);
+            }
+            assertEquals(single[a].getDouble(), batch[a].getDouble(), 0.000d);
+        }
+    }
+
+    @Test
+    public void testRetractableKernel() {
+        AbstractAggregate min = new MinAggregate().getRetractableInstance();
+        min.applyAll(new double[]{3, 1, 2}, 0, 3);
+        ((RetractableAggregate) min).retract(1);
+        assertEquals(2, min.getDouble(), 0.000d);
+    }
+
+    @Test
+    public void testSameResultAsSingleAggregation() {
+        List<Entity> entities = new ArrayList<>();
+        for (int i = 0; i < 3000; i++) {
+            // runs of equal keys with interruptions
+            entities.add(new Entity((i / 10) % 7, i % 100, i % 3 == 0, i % 5));
+        }
+        Container<Entity> batch = new Container<>();
+        batch.aggregateAll(entities);
+        Container<Entity> single = new Container<>();
+        for (Entity entity : entities) {
+            single.aggregate(entity);
+        }
+
+        Map<Object, Container.Result> expected = new HashMap<>();
+        for (Container.Result result : single.getResults()) {
+            expected.put(result.getKeys()[0], result);
+        }
+        assertEquals(expected.size(), batch.getResults().size());
+        assertEquals(entities.size(), batch.getStats().getEntities());
+        for (Container.Result result : batch.getResults()) {
+            Container.Result other = expected.get(result.getKeys()[0]);
+            for (String alias : batch.getAliases()) {
+                if (alias.equals("distinct")) {
+                    assertEquals(other.getCollection(alias), result.getCollection(alias));
+                } else {
+                    assertEquals(alias, other.getDouble(alias), result.getDouble(alias), 0.000d);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testEmptyBatch() {
+        Container<Entity> container = new Container<>();
+        container.aggregateAll(new ArrayList<Entity>());
+        assertTrue(container.getResults().isEmpty());
+        container.aggregate(new Entity(1, 2, true, 3));
+        assertEquals(1, container.getResults().size());
+    }
+
+    public static class Entity {
+
+        @Id
+        public int key;
+
+        @Sum(alias = "sum")
+        @Min(alias = "min")
+        @Max(alias = "max")
+        @Count(alias = "count")
+        @Avg(alias = "avg")
+        public double value;
+
+        @Where(aliases = {"sum", "max"}, suffix = "Ok")
+        public boolean ok;
+
+        @Distinct(alias = "distinct")
+        public int code;
+
+        public Entity(int key, double value, boolean ok, int code) {
+            this.key = key;
+            this.value = value;
+            this.ok = ok;
+            this.code = code;
+        }
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2013 Dr. Franz Graf <info@Locked.de>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.locked.aggregation;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Set;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class ColumnarExportTest {
+
+    @Test
+    public void testColumns() {
+        Container<Entity> container = new Container<>();
+        container.registerAggregate(new AggregateFunctionTest.LongestFunction());
+        for (int i = 0; i < 1000; i++) {
+            container.aggregate(new Entity(i % 10, i % 3 == 0 ? null : "n" + (i % 2), i, "s" + (i % 13)));
+        }
+        ColumnarResult columns = container.exportColumns();
+        assertEquals(container.getResults().size(), columns.size());
+        assertEquals("a", columns.getKeyNames().get(0));
+        assertEquals("b", columns.getKeyNames().get(1));
+        assertTrue(columns.getKeyColumn(0) instanceof int[]);
+        assertTrue(columns.getKeyColumn(1) instanceof Object[]);
+        assertTrue(columns.isNumeric("sum"));
+        assertFalse(columns.isNumeric("longest"));
+
+        int[] a = (int[]) columns.getKeyColumn(0);
+        Object[] b = (Object[]) columns.getKeyColumn(1);
+        double[] sum = columns.getColumn("sum");
+        double[] count = columns.getColumn("count");
+        Object[] longest = columns.getObjectColumn("longest");
+        int row = 0;
+        double total = 0;
+        for (Container.Result result : container.getResults()) {
+            assertEquals(result.getKeys()[0], a[row]);
+            assertEquals(result.getKeys()[1], b[row]);
+            assertEquals(result.getDouble("sum"), sum[row], 0.000d);
+            assertEquals(result.getInt("count"), count[row], 0.000d);
+            assertEquals(result.getObject("longest"), longest[row]);
+            total += count[row];
+            row++;
+        }
+        assertEquals(1000, total, 0.000d);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testNotNumeric() {
+        Container<Entity> container = new Container<>();
+        container.registerAggregate(new AggregateFunctionTest.LongestFunction());
+        container.aggregate(new Entity(1, "x", 1, "s"));
+        container.exportColumns().getColumn("longest");
+    }
+
+    @Test
+    public void testEmpty() {
+        Container<Entity> container = new Container<>();
+        container.registerAggregate(new AggregateFunctionTest.LongestFunction());
+        container.prepare(Entity.class);
+        ColumnarResult columns = container.exportColumns();
+        assertEquals(0, columns.size());
+        assertTrue(columns.isNumeric("sum"));
+        assertEquals(0, columns.getColumn("sum").length);
+        assertFalse(columns.isNumeric("longest"));
+        assertEquals(0, columns.getObjectColumn("longest").length);
+    }
+
+    @Test
+    public void testCsv() throws Exception {
+        Container<Entity> container = new Container<>();
+        container.aggregate(new Entity(1, null, 2, "s"));
+        container.aggregate(new Entity(2, "a,\"b\"", 3, "s"));
+        container.aggregate(new Entity(2, "a,\"b\"", 4, "s"));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        container.exportColumns().writeCsv(Channels.newChannel(out));
+
+        String[] lines = new String(out.toByteArray(), StandardCharsets.UTF_8).split("\n");
+        assertEquals(3, lines.length);
+        assertEquals("a,b,count,sum", lines[0]);
+        Set<String> rows = new HashSet<>();
+        rows.add(lines[1]);
+        rows.add(lines[2]);
+        assertTrue(rows.contains("1,,1.0,2.0"));
+        assertTrue(rows.contains("2,\"a,\"\"b\"\"\",2.0,7.0"));
+    }
+
+    @Test
+    public void testLargeCsv() throws Exception {
+        Container<Entity> container = new Container<>();
+        for (int i = 0; i < 20_000; i++) {
+            container.aggregate(new Entity(i, "ä" + i, i, "s"));
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        container.exportColumns().writeCsv(Channels.newChannel(out));
+        String[] lines = new String(out.toByteArray(), StandardCharsets.UTF_8).split("\n");
+        assertEquals(20_001, lines.length);
+        assertTrue(lines[20_000].startsWith(lines[20_000].split(",")[0] + ",ä"));
+    }
+
+    public static class Entity {
+
+        @Id(order = 0)
+        public int a;
+
+        @Id(order = 1)
+        public String b;
+
+        @Count(alias = "count")
+        @Sum(alias = "sum")
+        public int value;
+
+        @AggregateFunctionTest.Longest(alias = "longest")
+        public String name;
+
+        public Entity(int a, String b, int value, String name) {
+            this.a = a;
+            this.b = b;
+            this.value = value;
+            this.name = name;
+        }
+    }
+}
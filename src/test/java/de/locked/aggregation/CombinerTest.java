@@ -0,0 +1,90 @@
+/*
+ * Copyright 2013 Dr. Franz Graf <info@Locked.de>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.locked.aggregation;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class CombinerTest {
+
+    @Test
+    public void testRunLength() {
+        Container<Entity> container = new Container<>();
+        container.setCombinerSize(1);
+        aggregate(container);
+        check(container);
+    }
+
+    @Test
+    public void testDirectMapped() {
+        Container<Entity> container = new Container<>();
+        container.setCombinerSize(5);
+        aggregate(container);
+        check(container);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testConfigureAfterAggregate() {
+        Container<Entity> container = new Container<>();
+        container.aggregate(new Entity(1, "a", 1));
+        container.setCombinerSize(1);
+    }
+
+    private void aggregate(Container<Entity> container) {
+        container.aggregate(new Entity(1, "a", 1));
+        container.aggregate(new Entity(1, "a", 2));
+        container.aggregate(new Entity(1, "b", 3));
+        container.aggregate(new Entity(2, "a", 4));
+        container.aggregate(new Entity(1, "a", 5));
+        container.aggregate(new Entity(1, "b", 6));
+        container.aggregate(new Entity(1, "b", 7));
+    }
+
+    private void check(Container<Entity> container) {
+        assertEquals(3, container.getResults().size());
+        for (Container.Result entry : container.getResults()) {
+            Object[] keys = entry.getKeys();
+            double value = entry.getDouble("value");
+            if (keys[0].equals(1) && keys[1].equals("a")) {
+                assertEquals(8, value, 0.000d);
+            } else if (keys[0].equals(1) && keys[1].equals("b")) {
+                assertEquals(16, value, 0.000d);
+            } else if (keys[0].equals(2) && keys[1].equals("a")) {
+                assertEquals(4, value, 0.000d);
+            } else {
+                fail("unexpected key " + entry);
+            }
+        }
+    }
+
+    class Entity {
+
+        @Id(order = 0)
+        public int key1;
+
+        @Id(order = 1)
+        public String key2;
+
+        @Sum(alias = "value")
+        public int value = 0;
+
+        public Entity(int a, String b, int c) {
+            this.key1 = a;
+            this.key2 = b;
+            this.value = c;
+        }
+    }
+}
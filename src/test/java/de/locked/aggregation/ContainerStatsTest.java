@@ -0,0 +1,86 @@
+/*
+ * Copyright 2013 Dr. Franz Graf <info@Locked.de>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.locked.aggregation;
+
+import java.lang.management.ManagementFactory;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class ContainerStatsTest {
+
+    @Test
+    public void testCounters() {
+        Container<Entity> container = new Container<>();
+        container.setCombinerSize(1);
+        container.setTimingEnabled(true);
+        for (int i = 0; i < 100; i++) {
+            container.aggregate(new Entity(i / 10, i));
+        }
+
+        ContainerStats stats = container.getStats();
+        assertEquals(100, stats.getEntities());
+        assertEquals(10, stats.getGroups());
+        assertEquals(10, stats.getGroupsCreated());
+        assertEquals(90, stats.getCombinerHits());
+        assertEquals(10, stats.getCombinerMisses());
+        assertEquals(0, stats.getRehashes());
+        assertTrue(stats.getKeyNanos() > 0);
+        assertTrue(stats.getAggregateNanos() > 0);
+        assertTrue(stats.getEstimatedBytes() > 0);
+    }
+
+    @Test
+    public void testRehashes() {
+        Container<Entity> container = new Container<>();
+        for (int i = 0; i < 100; i++) {
+            container.aggregate(new Entity(i, i));
+        }
+        ContainerStats stats = container.getStats();
+        assertEquals(0, stats.getKeyNanos());
+        assertEquals(4, stats.getRehashes()); // 16 -> 32 -> 64 -> 128 -> 256
+    }
+
+    @Test
+    public void testMBean() throws Exception {
+        Container<Entity> container = new Container<>();
+        ObjectName name = container.registerMBean("ContainerStatsTest");
+        try {
+            container.aggregate(new Entity(1, 1));
+            container.aggregate(new Entity(1, 2));
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            assertEquals(2L, server.getAttribute(name, "Entities"));
+            assertEquals(1L, server.getAttribute(name, "Groups"));
+        } finally {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+        }
+    }
+
+    class Entity {
+
+        @Id(order = 0)
+        public int key;
+
+        @Sum(alias = "value")
+        public int value = 0;
+
+        public Entity(int a, int b) {
+            this.key = a;
+            this.value = b;
+        }
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2013 Dr. Franz Graf <info@Locked.de>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.locked.aggregation;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class CovarianceAggregateTest {
+
+    @Test
+    public void testApplication() {
+        Container<Entity> container = new Container<>();
+        container.aggregate(new Entity(1, 1, 2));
+        container.aggregate(new Entity(1, 2, 4));
+        container.aggregate(new Entity(1, 3, 6));
+        container.aggregate(new Entity(2, 1, 3));
+        container.aggregate(new Entity(2, 2, 2));
+        container.aggregate(new Entity(2, 3, 1));
+        container.aggregate(new Entity(3, 1, 5));
+        container.aggregate(new Entity(3, 2, 5));
+
+        for (Container.Result entry : container.getResults()) {
+            Object key = entry.getKeys()[0];
+            if (key.equals(1)) {
+                assertEquals(2, entry.getDouble("cov"), 0.000001d);
+                assertEquals(1, entry.getDouble("corr"), 0.000001d);
+            } else if (key.equals(2)) {
+                assertEquals(-1, entry.getDouble("cov"), 0.000001d);
+                assertEquals(-1, entry.getDouble("corr"), 0.000001d);
+            } else if (key.equals(3)) {
+                assertEquals(0, entry.getDouble("cov"), 0.000001d);
+                assertTrue(Double.isNaN(entry.getDouble("corr")));
+            }
+        }
+    }
+
+    @Test
+    public void testMerge() {
+        Container<Entity> left = new Container<>();
+        left.aggregate(new Entity(1, 1, 2));
+        Container<Entity> right = new Container<>();
+        right.aggregate(new Entity(1, 2, 4));
+        right.aggregate(new Entity(1, 3, 6));
+        left.merge(right);
+
+        Container.Result entry = left.getResults().iterator().next();
+        assertEquals(2, entry.getDouble("cov"), 0.000001d);
+        assertEquals(1, entry.getDouble("corr"), 0.000001d);
+    }
+
+    @Test
+    public void testGetter() {
+        Container<GetterEntity> container = new Container<>();
+        container.aggregate(new GetterEntity(1, 2));
+        container.aggregate(new GetterEntity(2, 4));
+        container.aggregate(new GetterEntity(3, 6));
+
+        Container.Result entry = container.getResults().iterator().next();
+        assertEquals(4, entry.getDouble("cov"), 0.000001d);
+        assertEquals(1, entry.getDouble("corr"), 0.000001d);
+    }
+
+    class Entity {
+
+        @Id(order = 0)
+        public int key;
+
+        @Covariance(alias = "cov", with = "y")
+        @Correlation(alias = "corr", with = "y")
+        public int x;
+
+        public long y;
+
+        public Entity(int key, int x, long y) {
+            this.key = key;
+            this.x = x;
+            this.y = y;
+        }
+    }
+
+    public static class GetterEntity {
+
+        @Id(order = 0)
+        public int key = 1;
+
+        public int x;
+
+        public long y;
+
+        public GetterEntity(int x, long y) {
+            this.x = x;
+            this.y = y;
+        }
+
+        @Covariance(alias = "cov", with = "y")
+        @Correlation(alias = "corr", with = "y")
+        public int twice() {
+            return 2 * x;
+        }
+    }
+}
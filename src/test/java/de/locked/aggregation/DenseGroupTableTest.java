@@ -0,0 +1,163 @@
+/*
+ * Copyright 2013 Dr. Franz Graf <info@Locked.de>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.locked.aggregation;
+
+import java.lang.reflect.Field;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class DenseGroupTableTest {
+
+    @Test
+    public void testDomains() throws Exception {
+        assertEquals(2, DenseGroupTable.Domain.of(field("flag")).size);
+        assertEquals(4, DenseGroupTable.Domain.of(field("color")).size);
+        assertEquals(12, DenseGroupTable.Domain.of(field("month")).size);
+        assertEquals(256, DenseGroupTable.Domain.of(BytePair.class.getField("a")).size);
+        assertNull(DenseGroupTable.Domain.of(Unbounded.class.getField("key")));
+        // 256 * 256 * 2 slots are too many
+        DenseGroupTable.Domain[] domains = {
+            DenseGroupTable.Domain.of(BytePair.class.getField("a")),
+            DenseGroupTable.Domain.of(BytePair.class.getField("b")),
+            DenseGroupTable.Domain.of(field("flag"))
+        };
+        assertEquals(-1, DenseGroupTable.slotCount(domains));
+    }
+
+    @Test
+    public void testAggregation() {
+        Container<Entity> container = new Container<>();
+        Map<List<Object>, Integer> expected = new HashMap<>();
+        Color[] colors = {Color.RED, Color.GREEN, Color.BLUE, null};
+        for (int i = 0; i < 1000; i++) {
+            Entity e = new Entity(i % 2 == 0, colors[i % 4], 1 + i % 12, i);
+            container.aggregate(e);
+            List<Object> key = Arrays.<Object>asList(e.flag, e.color, e.month);
+            Integer sum = expected.get(key);
+            expected.put(key, (sum == null ? 0 : sum) + i);
+        }
+        assertEquals(expected.size(), container.getResults().size());
+        for (Container.Result result : container.getResults()) {
+            Integer sum = expected.get(Arrays.asList(result.getKeys()));
+            assertNotNull(sum);
+            assertEquals(sum, result.getDouble("sum"), 0.000d);
+        }
+        assertEquals(0, container.getStats().getRehashes());
+    }
+
+    @Test
+    public void testMergeAndRetract() {
+        Container<Entity> a = new Container<>();
+        a.setRetractable(true);
+        a.aggregate(new Entity(true, Color.RED, 3, 5));
+        a.aggregate(new Entity(false, null, 12, 7));
+        Container<Entity> b = new Container<>();
+        b.aggregate(new Entity(true, Color.RED, 3, 1));
+        a.merge(b);
+        assertEquals(2, a.getResults().size());
+
+        a.retract(new Entity(false, null, 12, 7));
+        assertEquals(1, a.getResults().size());
+        Container.Result result = a.getResults().iterator().next();
+        assertEquals(6, result.getDouble("sum"), 0.000d);
+    }
+
+    @Test
+    public void testLongKeys() {
+        Container<LongEntity> container = new Container<>();
+        for (int i = 0; i < 100; i++) {
+            container.aggregate(new LongEntity(LongEntity.BASE + i % 10, i));
+        }
+        assertEquals(10, container.getResults().size());
+        for (Container.Result result : container.getResults()) {
+            long key = (Long) result.getKeys()[0];
+            assertTrue(key >= LongEntity.BASE && key < LongEntity.BASE + 10);
+            assertEquals(10 * (key - LongEntity.BASE) + 450, result.getDouble("sum"), 0.000d);
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testOutOfBounds() {
+        Container<Entity> container = new Container<>();
+        container.aggregate(new Entity(true, Color.RED, 13, 1));
+    }
+
+    private static Field field(String name) throws NoSuchFieldException {
+        return Entity.class.getField(name);
+    }
+
+    enum Color {
+
+        RED, GREEN, BLUE
+    }
+
+    public static class Entity {
+
+        @Id(order = 0)
+        public boolean flag;
+
+        @Id(order = 1)
+        public Color color;
+
+        @Id(order = 2, min = 1, max = 12)
+        public int month;
+
+        @Sum(alias = "sum")
+        public int value;
+
+        public Entity(boolean flag, Color color, int month, int value) {
+            this.flag = flag;
+            this.color = color;
+            this.month = month;
+            this.value = value;
+        }
+    }
+
+    public static class LongEntity {
+
+        static final long BASE = 5_000_000_000L;
+
+        @Id(order = 0, min = BASE, max = BASE + 9)
+        public long key;
+
+        @Sum(alias = "sum")
+        public int value;
+
+        public LongEntity(long key, int value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+    public static class BytePair {
+
+        @Id(order = 0)
+        public byte a;
+
+        @Id(order = 1)
+        public byte b;
+    }
+
+    public static class Unbounded {
+
+        @Id
+        public int key;
+    }
+}
@@ -17,6 +17,7 @@ package de.locked.aggregation;
 
 import java.util.Collection;
 import java.util.Random;
+import java.util.Set;
 import org.junit.Test;
 import static org.junit.Assert.*;
 
@@ -34,7 +35,7 @@ public class DistinctAggregateTest {
 
         for (Container.Result entry : container.getResults()) {
             Object key = entry.getKeys()[0];
-            Collection values = entry.getCollection("value");
+            Collection<?> values = entry.getCollection("value");
             if (key.equals(1)) {
                 assertEquals(1, values.size());
                 assertTrue(values.contains("a"));
@@ -50,6 +51,102 @@ public class DistinctAggregateTest {
         }
     }
 
+    @Test
+    public void testManyValues() {
+        Container<Entity> container = new Container<>();
+        for (int i = 0; i < 100; i++) {
+            container.aggregate(new Entity(1, "v" + (i % 20)));
+        }
+        Container.Result entry = container.getResults().iterator().next();
+        assertEquals(20, entry.getInt("value"));
+        Collection<?> values = entry.getCollection("value");
+        assertEquals(20, values.size());
+        for (int i = 0; i < 20; i++) {
+            assertTrue(values.contains("v" + i));
+        }
+    }
+
+    @Test
+    public void testNumeric() {
+        Container<NumericEntity> container = new Container<>();
+        for (int i = 0; i < 100; i++) {
+            container.aggregate(new NumericEntity(i % 2, i % 10));
+        }
+        assertEquals(2, container.getResults().size());
+        for (Container.Result entry : container.getResults()) {
+            Collection<?> values = entry.getCollection("value");
+            assertEquals(5, values.size());
+            assertEquals(5, entry.getInt("value"));
+            if (entry.getKeys()[0].equals(0)) {
+                assertTrue(values.contains(4L));
+            } else {
+                assertTrue(values.contains(5L));
+            }
+            assertFalse(values.contains(4d));
+            assertTrue(values instanceof Set);
+        }
+    }
+
+    @Test
+    public void testLargeLongs() {
+        long large = 1L << 60;
+        Container<NumericEntity> container = new Container<>();
+        container.aggregate(new NumericEntity(1, large));
+        container.aggregate(new NumericEntity(1, large + 1));
+        container.aggregate(new NumericEntity(1, large + 1));
+
+        Container.Result entry = container.getResults().iterator().next();
+        assertEquals(2, entry.getInt("value"));
+        Collection<?> values = entry.getCollection("value");
+        assertTrue(values.contains(large));
+        assertTrue(values.contains(large + 1));
+        for (Object v : values) {
+            assertEquals(Long.class, v.getClass());
+        }
+    }
+
+    @Test
+    public void testSketch() {
+        Container<NumericEntity> container = new Container<>();
+        for (int i = 0; i < 100_000; i++) {
+            container.aggregate(new NumericEntity(1, i % 50_000));
+        }
+        for (int i = 0; i < 10; i++) {
+            container.aggregate(new NumericEntity(2, i));
+        }
+        for (Container.Result entry : container.getResults()) {
+            if (entry.getKeys()[0].equals(1)) {
+                assertEquals(50_000, entry.getDouble("value"), 50_000 * 0.05);
+                try {
+                    entry.getCollection("value");
+                    fail("exact values must not be available after switching to the sketch");
+                } catch (IllegalStateException e) {
+                    // expected
+                }
+            } else {
+                assertEquals(10, entry.getInt("value"));
+                assertEquals(10, entry.getCollection("value").size());
+            }
+        }
+    }
+
+    @Test
+    public void testMerge() {
+        Container<Entity> left = new Container<>();
+        left.aggregate(new Entity(1, "a"));
+        left.aggregate(new Entity(1, "b"));
+        Container<Entity> right = new Container<>();
+        for (int i = 0; i < 10; i++) {
+            right.aggregate(new Entity(1, String.valueOf((char) ('a' + i))));
+        }
+        left.merge(right);
+
+        Container.Result entry = left.getResults().iterator().next();
+        assertEquals(10, entry.getInt("value"));
+        assertTrue(entry.getCollection("value").contains("j"));
+        assertTrue(left.getResults().iterator().next().getCollection("value") instanceof Set);
+    }
+
     class Entity {
 
         @Id(order = 0)
@@ -63,4 +160,18 @@ public class DistinctAggregateTest {
             this.value = b;
         }
     }
+
+    class NumericEntity {
+
+        @Id(order = 0)
+        public int key;
+
+        @Distinct(alias = "value", maxExact = 1000)
+        public long value;
+
+        public NumericEntity(int a, long b) {
+            this.key = a;
+            this.value = b;
+        }
+    }
 }
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2013 Dr. Franz Graf <info@Locked.de>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.locked.aggregation;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class EvictionTest {
+
+    @Test
+    public void testMaxGroups() {
+        Sink sink = new Sink();
+        Container<Entity> container = new Container<>();
+        container.setEviction(2, 0, sink);
+        container.aggregate(new Entity(1, 1));
+        container.aggregate(new Entity(2, 2));
+        container.aggregate(new Entity(1, 3));
+        container.aggregate(new Entity(3, 4)); // evicts 2, the least recently used group
+        container.aggregate(new Entity(4, 5)); // evicts 1
+
+        assertEquals(2, sink.results.size());
+        assertEquals(2, sink.results.get(0).getKeys()[0]);
+        assertEquals(2, sink.results.get(0).getDouble("value"), 0.000d);
+        assertEquals(1, sink.results.get(1).getKeys()[0]);
+        assertEquals(4, sink.results.get(1).getDouble("value"), 0.000d);
+        assertEquals(2, container.getResults().size());
+        assertEquals(2, container.getStats().getEvictions());
+    }
+
+    @Test
+    public void testIdleTime() throws InterruptedException {
+        Sink sink = new Sink();
+        Container<Entity> container = new Container<>();
+        container.setEviction(0, 50, sink);
+        container.aggregate(new Entity(1, 1));
+        container.aggregate(new Entity(2, 2));
+        Thread.sleep(100);
+        container.aggregate(new Entity(2, 3)); // evicts 1, but not the just used 2
+        assertEquals(1, sink.results.size());
+        assertEquals(1, sink.results.get(0).getKeys()[0]);
+
+        Thread.sleep(100);
+        container.evictIdle();
+        assertEquals(2, sink.results.size());
+        assertEquals(5, sink.results.get(1).getDouble("value"), 0.000d);
+        assertTrue(container.getResults().isEmpty());
+    }
+
+    @Test
+    public void testEvictIdleFromOtherThread() throws InterruptedException {
+        Sink sink = new Sink();
+        final Container<Entity> container = new Container<>();
+        container.setEviction(0, 1, sink);
+        final AtomicBoolean done = new AtomicBoolean();
+        Thread timer = new Thread() {
+            @Override
+            public void run() {
+                while (!done.get()) {
+                    container.evictIdle();
+                }
+            }
+        };
+        timer.start();
+        for (int i = 0; i < 100_000; i++) {
+            container.aggregate(new Entity(i % 1000, 1));
+        }
+        done.set(true);
+        timer.join();
+
+        double sum = 0;
+        synchronized (sink) {
+            for (Container.Result result : sink.results) {
+                sum += result.getDouble("value");
+            }
+        }
+        for (Container.Result result : container.getResults()) {
+            sum += result.getDouble("value");
+        }
+        assertEquals(100_000, sum, 0.000d);
+    }
+
+    static class Sink implements ResultSink {
+
+        final List<Container.Result> results = new ArrayList<>();
+
+        @Override
+        public synchronized void accept(Container.Result result) {
+            results.add(result);
+        }
+    }
+
+    class Entity {
+
+        @Id(order = 0)
+        public int key;
+
+        @Sum(alias = "value")
+        public int value = 0;
+
+        public Entity(int a, int b) {
+            this.key = a;
+            this.value = b;
+        }
+    }
+}
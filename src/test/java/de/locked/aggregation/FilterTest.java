@@ -0,0 +1,154 @@
+/*
+ * Copyright 2013 Dr. Franz Graf <info@Locked.de>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.locked.aggregation;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class FilterTest {
+
+    @Test
+    public void testWhere() {
+        Container<Entity> container = new Container<>();
+        for (int i = 0; i < 100; i++) {
+            container.aggregate(new Entity(i % 2, i, i % 4 == 0, i % 3 == 0 ? Boolean.TRUE : null));
+        }
+        assertTrue(container.getAliases().contains("amountOk"));
+        assertTrue(container.getAliases().contains("countOk"));
+        for (Container.Result result : container.getResults()) {
+            int key = (Integer) result.getKeys()[0];
+            double total = 0, ok = 0, large = 0;
+            int okCount = 0;
+            for (int i = key; i < 100; i += 2) {
+                total += i;
+                if (i % 4 == 0) {
+                    ok += i;
+                    okCount++;
+                }
+                if (i % 3 == 0) {
+                    large = Math.max(large, i);
+                }
+            }
+            assertEquals(total, result.getDouble("amount"), 0.000d);
+            assertEquals(50, result.getInt("count"));
+            assertEquals(ok, result.getDouble("amountOk"), 0.000d);
+            assertEquals(okCount, result.getInt("countOk"));
+            assertEquals(large, result.getDouble("max"), 0.000d);
+        }
+    }
+
+    @Test
+    public void testRegisteredFilterIsEvaluatedOnce() {
+        final int[] calls = new int[1];
+        Container<Entity> container = new Container<>();
+        container.registerFilter(new EntityFilter<Entity>() {
+
+            @Override
+            public boolean accept(Entity entity) {
+                calls[0]++;
+                return entity.amount >= 50;
+            }
+        }, "High", "amount", "count", "max");
+        for (int i = 0; i < 100; i++) {
+            container.aggregate(new Entity(0, i, false, null));
+        }
+        assertEquals(100, calls[0]);
+        Container.Result result = container.getResults().iterator().next();
+        assertEquals(100, result.getInt("count"));
+        assertEquals(50, result.getInt("countHigh"));
+        assertEquals(4950, result.getDouble("amount"), 0.000d);
+        assertEquals(3725, result.getDouble("amountHigh"), 0.000d);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testUnknownAlias() {
+        Container<Entity> container = new Container<>();
+        container.registerFilter(new EntityFilter<Object>() {
+
+            @Override
+            public boolean accept(Object entity) {
+                return true;
+            }
+        }, "", "unknown");
+        container.aggregate(new Entity(0, 1, true, null));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testSecondFilterOnAlias() {
+        Container<Entity> container = new Container<>();
+        container.registerFilter(new EntityFilter<Entity>() {
+
+            @Override
+            public boolean accept(Entity entity) {
+                return entity.ok;
+            }
+        }, "", "max");
+        container.aggregate(new Entity(0, 1, true, null));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testDuplicateSuffixedAlias() {
+        Container<Entity> container = new Container<>();
+        container.registerFilter(new EntityFilter<Entity>() {
+
+            @Override
+            public boolean accept(Entity entity) {
+                return entity.ok;
+            }
+        }, "Ok", "amount");
+        container.aggregate(new Entity(0, 1, true, null));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testRegisterAfterAggregate() {
+        Container<Entity> container = new Container<>();
+        container.aggregate(new Entity(0, 1, true, null));
+        container.registerFilter(new EntityFilter<Object>() {
+
+            @Override
+            public boolean accept(Object entity) {
+                return true;
+            }
+        }, "", "amount");
+    }
+
+    public static class Entity {
+
+        @Id(order = 0)
+        public int key;
+
+        @Sum(alias = "amount")
+        @Count(alias = "count")
+        public double amount;
+
+        @Max(alias = "max")
+        public int value;
+
+        @Where(aliases = {"amount", "count"}, suffix = "Ok")
+        public boolean ok;
+
+        @Where(aliases = "max")
+        public Boolean large;
+
+        public Entity(int key, double amount, boolean ok, Boolean large) {
+            this.key = key;
+            this.amount = amount;
+            this.value = (int) amount;
+            this.ok = ok;
+            this.large = large;
+        }
+    }
+}
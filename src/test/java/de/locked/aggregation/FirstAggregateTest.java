@@ -0,0 +1,150 @@
+/*
+ * Copyright 2013 Dr. Franz Graf <info@Locked.de>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.locked.aggregation;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class FirstAggregateTest {
+
+    @Test
+    public void testApplication() {
+        Container<Entity> container = new Container<>();
+        container.aggregate(new Entity(1, "new", 3));
+        container.aggregate(new Entity(1, "open", 5));
+        container.aggregate(new Entity(1, "closed", 4));
+        container.aggregate(new Entity(2, null, 1));
+
+        for (Container.Result entry : container.getResults()) {
+            Object key = entry.getKeys()[0];
+            if (key.equals(1)) {
+                assertEquals("new", entry.getObject("firstStatus"));
+                assertEquals("closed", entry.getObject("lastStatus"));
+                assertEquals(3, entry.getObject("firstValue"));
+                assertEquals(4, entry.getObject("lastValue"));
+            } else {
+                assertNull(entry.getObject("firstStatus"));
+                assertNull(entry.getObject("lastStatus"));
+            }
+        }
+    }
+
+    @Test
+    public void testMerge() {
+        Container<Entity> early = new Container<>();
+        early.aggregate(new Entity(1, "new", 1));
+        Container<Entity> late = new Container<>();
+        late.aggregate(new Entity(1, "open", 2));
+        late.aggregate(new Entity(1, "closed", 3));
+        early.merge(late);
+
+        Container.Result result = early.getResults().iterator().next();
+        assertEquals("new", result.getObject("firstStatus"));
+        assertEquals("closed", result.getObject("lastStatus"));
+    }
+
+    @Test
+    public void testPrimitiveTypes() throws Exception {
+        long large = (1L << 53) + 1;
+        Container<TypedEntity> container = new Container<>();
+        container.aggregate(new TypedEntity(large, 1.5f, 'x', true));
+        container.aggregate(new TypedEntity(large + 2, 2.5f, 'y', false));
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        container.writeState(bytes);
+        Container<TypedEntity> merged = new Container<>();
+        merged.prepare(TypedEntity.class);
+        merged.mergeState(new ByteArrayInputStream(bytes.toByteArray()));
+
+        for (Container<TypedEntity> c : Arrays.asList(container, merged)) {
+            Container.Result result = c.getResults().iterator().next();
+            assertEquals(large, result.getObject("firstLong"));
+            assertEquals(large + 2, result.getObject("lastLong"));
+            assertEquals(1.5f, result.getObject("firstFloat"));
+            assertEquals('y', result.getObject("lastChar"));
+            assertEquals(true, result.getObject("firstFlag"));
+        }
+    }
+
+    @Test
+    public void testFilteredEmpty() {
+        Container<Entity> container = new Container<>();
+        container.registerFilter(new EntityFilter<Entity>() {
+
+            @Override
+            public boolean accept(Entity entity) {
+                return entity.value > 10;
+            }
+        }, "", "firstValue");
+        container.aggregate(new Entity(1, "new", 3));
+        assertNull(container.getResults().iterator().next().getObject("firstValue"));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testRetractable() {
+        Container<Entity> container = new Container<>();
+        container.setRetractable(true);
+        container.aggregate(new Entity(1, "new", 3));
+    }
+
+    public static class TypedEntity {
+
+        @Id(order = 0)
+        public int key;
+
+        @First(alias = "firstLong")
+        @Last(alias = "lastLong")
+        public long id;
+
+        @First(alias = "firstFloat")
+        public float amount;
+
+        @Last(alias = "lastChar")
+        public char grade;
+
+        @First(alias = "firstFlag")
+        public boolean flag;
+
+        public TypedEntity(long id, float amount, char grade, boolean flag) {
+            this.id = id;
+            this.amount = amount;
+            this.grade = grade;
+            this.flag = flag;
+        }
+    }
+
+    public static class Entity {
+
+        @Id(order = 0)
+        public int key;
+
+        @First(alias = "firstStatus")
+        @Last(alias = "lastStatus")
+        public String status;
+
+        @First(alias = "firstValue")
+        @Last(alias = "lastValue")
+        public int value;
+
+        public Entity(int key, String status, int value) {
+            this.key = key;
+            this.status = status;
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright 2013 Dr. Franz Graf <info@Locked.de>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.locked.aggregation;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class IngestionPipelineTest {
+
+    private static final ContainerFactory<Entity> FACTORY = new ContainerFactory<Entity>() {
+
+        @Override
+        public Container<Entity> create() {
+            return new Container<>();
+        }
+    };
+
+    @Test
+    public void testManyProducers() throws Exception {
+        final IngestionPipeline<Entity> pipeline = new IngestionPipeline<>(FACTORY, 3, 100, 4, Backpressure.BLOCK);
+        List<Thread> producers = new ArrayList<>();
+        for (int p = 0; p < 4; p++) {
+            Thread producer = new Thread() {
+
+                @Override
+                public void run() {
+                    for (int i = 0; i < 10_000; i++) {
+                        pipeline.submit(new Entity(i % 10, 1));
+                    }
+                }
+            };
+            producers.add(producer);
+            producer.start();
+        }
+        for (Thread producer : producers) {
+            producer.join();
+        }
+
+        Container<Entity> result = pipeline.await();
+        assertEquals(10, result.getResults().size());
+        for (Container.Result entry : result.getResults()) {
+            assertEquals(4_000, entry.getDouble("value"), 0.000d);
+        }
+
+        pipeline.submit(new Entity(0, 5));
+        result = pipeline.await();
+        for (Container.Result entry : result.getResults()) {
+            assertEquals(entry.getKeys()[0].equals(0) ? 4_005 : 4_000, entry.getDouble("value"), 0.000d);
+        }
+
+        // every key is aggregated by a single consumer
+        Collection<Container.Result> results = pipeline.awaitResults();
+        assertEquals(10, results.size());
+        for (Container.Result entry : results) {
+            assertEquals(entry.getKeys()[0].equals(0) ? 4_005 : 4_000, entry.getDouble("value"), 0.000d);
+        }
+        pipeline.close();
+    }
+
+    @Test
+    public void testFailOnFullQueue() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(1);
+        ContainerFactory<Entity> blocking = new ContainerFactory<Entity>() {
+
+            @Override
+            public Container<Entity> create() {
+                Container<Entity> container = new Container<>();
+                container.registerAggregate(new BlockingCount(latch));
+                return container;
+            }
+        };
+        IngestionPipeline<Entity> pipeline = new IngestionPipeline<>(blocking, 1, 1, 1, Backpressure.FAIL);
+        int accepted = 0;
+        try {
+            for (int i = 0; i < 10; i++) {
+                pipeline.submit(new Entity(1, 1));
+                accepted++;
+            }
+            fail("the queue should have been full");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        latch.countDown();
+
+        Container<Entity> result = pipeline.await();
+        assertEquals(accepted, result.getResults().iterator().next().getInt("blocking"));
+        pipeline.close();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testSubmitAfterClose() throws Exception {
+        IngestionPipeline<Entity> pipeline = new IngestionPipeline<>(FACTORY, 1, 10, 1, Backpressure.BLOCK);
+        pipeline.close();
+        pipeline.submit(new Entity(1, 1));
+    }
+
+    @Retention(RetentionPolicy.RUNTIME)
+    @interface Blocking {
+
+        String alias();
+    }
+
+    /**
+     * Count that blocks the consumer until the latch is released.
+     */
+    static class BlockingCount extends AbstractAggregate implements MergeableAggregate {
+
+        private final CountDownLatch latch;
+        private int i = 0;
+
+        BlockingCount(CountDownLatch latch) {
+            super(Blocking.class);
+            this.latch = latch;
+        }
+
+        @Override
+        public void apply(double v) {
+            try {
+                latch.await();
+            } catch (InterruptedException ex) {
+                throw new IllegalStateException(ex);
+            }
+            i++;
+        }
+
+        @Override
+        public void merge(AbstractAggregate other) {
+            i += ((BlockingCount) other).i;
+        }
+
+        @Override
+        public int getInt() {
+            return i;
+        }
+
+        @Override
+        public AbstractAggregate getInstance() {
+            return new BlockingCount(latch);
+        }
+    }
+
+    static class Entity {
+
+        @Id(order = 0)
+        public int key;
+
+        @Sum(alias = "value")
+        @Blocking(alias = "blocking")
+        public int value = 0;
+
+        public Entity(int a, int b) {
+            this.key = a;
+            this.value = b;
+        }
+    }
+}
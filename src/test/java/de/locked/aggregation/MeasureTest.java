@@ -0,0 +1,141 @@
+/*
+ * Copyright 2013 Dr. Franz Graf <info@Locked.de>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.locked.aggregation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class MeasureTest {
+
+    @Test
+    public void testMethodsAndMeasures() {
+        Container<Entity> container = new Container<>();
+        container.registerMeasure("revenue", new SumAggregate(), new Measure<Entity>() {
+
+            @Override
+            public double valueOf(Entity entity) {
+                return entity.price * entity.quantity;
+            }
+        });
+        container.registerFilter(new EntityFilter<Entity>() {
+
+            @Override
+            public boolean accept(Entity entity) {
+                return entity.quantity > 2;
+            }
+        }, "Bulk", "revenue");
+        for (int i = 0; i < 10; i++) {
+            container.aggregate(new Entity(i % 2, 1.5, i, 2048 * i));
+        }
+
+        assertEquals(Arrays.asList("kb", "maxKb", "revenue", "revenueBulk"), new ArrayList<>(container.getAliases()));
+        for (Container.Result result : container.getResults()) {
+            int key = (Integer) result.getKeys()[0];
+            double revenue = 0, bulk = 0, kb = 0;
+            for (int i = key; i < 10; i += 2) {
+                revenue += 1.5 * i;
+                bulk += i > 2 ? 1.5 * i : 0;
+                kb += 2 * i;
+            }
+            assertEquals(revenue, result.getDouble("revenue"), 0.000d);
+            assertEquals(bulk, result.getDouble("revenueBulk"), 0.000d);
+            assertEquals(kb, result.getDouble("kb"), 0.000d);
+            assertEquals(2 * (8 + key), result.getDouble("maxKb"), 0.000d);
+        }
+    }
+
+    @Test
+    public void testGeneratedAccessorCallsMethods() throws Exception {
+        Class<?> accessor = Class.forName(AccessorProcessor.accessorName(Entity.class.getName()));
+        EntityAccessor<?> instance = (EntityAccessor<?>) accessor.getDeclaredConstructor().newInstance();
+        List<String> names = Arrays.asList(instance.getFieldNames());
+        assertTrue(names.contains("kilobytes()"));
+        assertTrue(names.contains("price"));
+        assertFalse(names.contains("unannotated()"));
+    }
+
+    @Test
+    public void testReflectiveMethods() {
+        Container<PrivateEntity> container = new Container<>();
+        container.aggregate(new PrivateEntity(1, 3));
+        container.aggregate(new PrivateEntity(1, 4));
+        assertEquals(14, container.getResults().iterator().next().getDouble("double"), 0.000d);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testRegisterAfterAggregate() {
+        Container<PrivateEntity> container = new Container<>();
+        container.aggregate(new PrivateEntity(1, 3));
+        container.registerMeasure("x", new SumAggregate(), new Measure<Object>() {
+
+            @Override
+            public double valueOf(Object entity) {
+                return 0;
+            }
+        });
+    }
+
+    public static class Entity {
+
+        @Id(order = 0)
+        public int key;
+
+        public double price;
+        public int quantity;
+        public long bytes;
+
+        public Entity(int key, double price, int quantity, long bytes) {
+            this.key = key;
+            this.price = price;
+            this.quantity = quantity;
+            this.bytes = bytes;
+        }
+
+        @Sum(alias = "kb")
+        @Max(alias = "maxKb")
+        public double kilobytes() {
+            return bytes / 1024d;
+        }
+
+        public double unannotated() {
+            return 0;
+        }
+    }
+
+    /**
+     * Private classes get no generated accessor and are read by reflection.
+     */
+    private static class PrivateEntity {
+
+        @Id(order = 0)
+        public int key;
+
+        public int value;
+
+        PrivateEntity(int key, int value) {
+            this.key = key;
+            this.value = value;
+        }
+
+        @Sum(alias = "double")
+        public int twice() {
+            return 2 * value;
+        }
+    }
+}
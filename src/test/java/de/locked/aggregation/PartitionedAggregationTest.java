@@ -0,0 +1,94 @@
+/*
+ * Copyright 2013 Dr. Franz Graf <info@Locked.de>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.locked.aggregation;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class PartitionedAggregationTest {
+
+    @Test
+    public void testApplication() {
+        Container<Entity> plain = new Container<>();
+        Container<Entity> partitioned = new Container<>();
+        partitioned.setPartitions(6, 16);
+        Random rand = new Random(1);
+        for (int i = 0; i < 10_000; i++) {
+            Entity e = new Entity(rand.nextInt(1000), rand.nextInt(100));
+            plain.aggregate(e);
+            partitioned.aggregate(e);
+        }
+
+        Map<Object, Double> expected = new HashMap<>();
+        for (Container.Result entry : plain.getResults()) {
+            expected.put(entry.getKeys()[0], entry.getDouble("value"));
+        }
+        assertEquals(expected.size(), partitioned.getResults().size());
+        for (Container.Result entry : partitioned.getResults()) {
+            assertEquals(expected.get(entry.getKeys()[0]), entry.getDouble("value"), 0.000d);
+        }
+        assertEquals(10_000, partitioned.getStats().getEntities());
+        assertEquals(expected.size(), partitioned.getStats().getGroups());
+    }
+
+    @Test
+    public void testBufferedEntitiesAreVisible() {
+        Container<Entity> container = new Container<>();
+        container.setPartitions(4, 1000);
+        container.aggregate(new Entity(1, 1));
+        container.aggregate(new Entity(1, 2));
+        assertEquals(0, container.getStats().getGroups());
+
+        assertEquals(1, container.getResults().size());
+        assertEquals(3, container.getResults().iterator().next().getDouble("value"), 0.000d);
+    }
+
+    @Test
+    public void testReusedEntity() {
+        Container<Entity> container = new Container<>();
+        container.setPartitions(4, 1000);
+        Entity e = new Entity(0, 0);
+        for (int i = 0; i < 10; i++) {
+            e.key = i % 2;
+            e.value = i;
+            container.aggregate(e);
+        }
+
+        Map<Object, Double> sums = new HashMap<>();
+        for (Container.Result entry : container.getResults()) {
+            sums.put(entry.getKeys()[0], entry.getDouble("value"));
+        }
+        assertEquals(20, sums.get(0), 0.000d);
+        assertEquals(25, sums.get(1), 0.000d);
+    }
+
+    class Entity {
+
+        @Id(order = 0)
+        public int key;
+
+        @Sum(alias = "value")
+        public int value = 0;
+
+        public Entity(int a, int b) {
+            this.key = a;
+            this.value = b;
+        }
+    }
+}
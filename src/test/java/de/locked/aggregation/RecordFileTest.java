@@ -0,0 +1,200 @@
+/*
+ * Copyright 2013 Dr. Franz Graf <info@Locked.de>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.locked.aggregation;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+public class RecordFileTest {
+
+    private static final int RECORDS = 1000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testAnnotatedLayout() throws IOException {
+        RecordLayout layout = RecordLayout.of(Event.class);
+        assertEquals(21, layout.getRecordSize());
+        RecordFile file = new RecordFile(write().toPath(), layout);
+        assertEquals(RECORDS, file.getRecordCount());
+
+        Container<Event> container = new Container<>();
+        file.aggregate(container);
+        assertSameResult(expected(), container);
+    }
+
+    @Test
+    public void testWindows() throws IOException {
+        RecordFile file = new RecordFile(write().toPath(), RecordLayout.of(Event.class));
+        file.windowRecords = 7;
+        Container<Event> container = new Container<>();
+        file.aggregate(container);
+        assertSameResult(expected(), container);
+    }
+
+    @Test
+    public void testParallelRanges() throws Exception {
+        RecordFile file = new RecordFile(write().toPath(), RecordLayout.of(Event.class));
+        List<RecordFile.Range> ranges = file.split(3);
+        assertEquals(3, ranges.size());
+        assertEquals(333, ranges.get(0).getCount());
+        assertEquals(666, ranges.get(2).getFirst());
+
+        Container<Event> container = file.aggregate(new ContainerFactory<Event>() {
+
+            @Override
+            public Container<Event> create() {
+                return new Container<>();
+            }
+        }, 4);
+        assertSameResult(expected(), container);
+    }
+
+    @Test
+    public void testDeclaredLayout() throws IOException {
+        // little endian records of 16 bytes: value, key and padding
+        ByteBuffer buffer = ByteBuffer.allocate(3 * 16).order(ByteOrder.LITTLE_ENDIAN);
+        int[] keys = {1, 2, 1};
+        for (int i = 0; i < keys.length; i++) {
+            buffer.putDouble(i * 16, i + 0.5);
+            buffer.putInt(i * 16 + 8, keys[i]);
+        }
+        File f = folder.newFile();
+        Files.write(f.toPath(), buffer.array());
+        RecordLayout layout = new RecordLayout(Plain.class, 16).field("value", 0).field("key", 8)
+                .order(ByteOrder.LITTLE_ENDIAN);
+
+        Container<Plain> container = new Container<>();
+        new RecordFile(f.toPath(), layout).aggregate(container);
+        Map<Object, Double> sums = new HashMap<>();
+        for (Container.Result result : container.getResults()) {
+            sums.put(result.getKeys()[0], result.getDouble("sum"));
+        }
+        assertEquals(3, sums.get(1), 0.000d);
+        assertEquals(1.5, sums.get(2), 0.000d);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testMissingField() throws IOException {
+        File f = folder.newFile();
+        Files.write(f.toPath(), new byte[8]);
+        RecordLayout layout = new RecordLayout(Plain.class, 8).field("value", 0);
+        new RecordFile(f.toPath(), layout).aggregate(new Container<Plain>());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTruncatedFile() throws IOException {
+        File f = folder.newFile();
+        Files.write(f.toPath(), new byte[30]);
+        new RecordFile(f.toPath(), RecordLayout.of(Event.class));
+    }
+
+    private File write() throws IOException {
+        File f = folder.newFile();
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(f))) {
+            for (int i = 0; i < RECORDS; i++) {
+                Event e = event(i);
+                out.writeInt(e.key);
+                out.writeBoolean(e.flag);
+                out.writeDouble(e.value);
+                out.writeLong(e.time);
+            }
+        }
+        return f;
+    }
+
+    private static Event event(int i) {
+        return new Event(i % 10, i % 3 == 0, (i * 37) % 101, 1000 + i);
+    }
+
+    private static Container<Event> expected() {
+        Container<Event> container = new Container<>();
+        for (int i = 0; i < RECORDS; i++) {
+            container.aggregate(event(i));
+        }
+        return container;
+    }
+
+    private static void assertSameResult(Container<Event> expected, Container<Event> actual) {
+        Map<List<Object>, Container.Result> groups = new HashMap<>();
+        for (Container.Result result : expected.getResults()) {
+            groups.put(Arrays.asList(result.getKeys()), result);
+        }
+        assertEquals(groups.size(), actual.getResults().size());
+        for (Container.Result result : actual.getResults()) {
+            Container.Result other = groups.get(Arrays.asList(result.getKeys()));
+            assertEquals(other.getDouble("sum"), result.getDouble("sum"), 0.000d);
+            assertEquals(other.getDouble("max"), result.getDouble("max"), 0.000d);
+            assertEquals(other.getInt("count"), result.getInt("count"));
+            assertEquals(other.getDouble("sumOk"), result.getDouble("sumOk"), 0.000d);
+            assertEquals(other.getObject("peakTime"), result.getObject("peakTime"));
+            assertEquals(other.getObject("last"), result.getObject("last"));
+        }
+    }
+
+    public static class Event {
+
+        @Id(order = 0)
+        @Offset(0)
+        public int key;
+
+        @Id(order = 1)
+        @Where(aliases = "sum", suffix = "Ok")
+        @Offset(4)
+        public boolean flag;
+
+        @Sum(alias = "sum")
+        @Max(alias = "max")
+        @Count(alias = "count")
+        @ArgMax(alias = "peakTime", payload = "time")
+        @Offset(5)
+        public double value;
+
+        @Last(alias = "last")
+        @Offset(13)
+        public long time;
+
+        public Event(int key, boolean flag, double value, long time) {
+            this.key = key;
+            this.flag = flag;
+            this.value = value;
+            this.time = time;
+        }
+    }
+
+    public static class Plain {
+
+        @Id
+        public int key;
+
+        @Sum(alias = "sum")
+        public double value;
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2013 Dr. Franz Graf <info@Locked.de>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.locked.aggregation;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.Spliterator;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class ResultSpliteratorTest {
+
+    private static final int GROUPS = 5000;
+
+    @Test
+    public void testHashTable() {
+        assertSplits(filled(new Container<Entity>()));
+    }
+
+    @Test
+    public void testPartitionedTable() {
+        Container<Entity> container = new Container<>();
+        container.setPartitions(8, 64);
+        assertSplits(filled(container));
+    }
+
+    @Test
+    public void testDenseTable() {
+        Container<Small> container = new Container<>();
+        for (int i = 0; i < 3000; i++) {
+            container.aggregate(new Small(i % 1000, i));
+        }
+        Spliterator<Container.Result> spliterator = container.getResultSpliterator();
+        assertTrue(spliterator.hasCharacteristics(Spliterator.SIZED));
+        assertEquals(1000, spliterator.getExactSizeIfKnown());
+        assertEquals(1000, collect(spliterator).size());
+        // 0 + 1 + ... + 2999
+        assertEquals(4498500, container.getResultStream(true).mapToDouble(r -> r.getDouble("sum")).sum(), 0.000d);
+    }
+
+    @Test
+    public void testParallelStream() {
+        Container<Entity> container = filled(new Container<Entity>());
+        double sequential = container.getResultStream(false).mapToDouble(r -> r.getDouble("sum")).sum();
+        double parallel = container.getResultStream(true).mapToDouble(r -> r.getDouble("sum")).sum();
+        assertEquals(sequential, parallel, 0.000d);
+        assertEquals(GROUPS, container.getResultStream(true).count());
+    }
+
+    private static Container<Entity> filled(Container<Entity> container) {
+        for (int i = 0; i < 2 * GROUPS; i++) {
+            container.aggregate(new Entity(i % GROUPS, i));
+        }
+        return container;
+    }
+
+    /**
+     * Splits until the parts are small and checks that they cover every group once.
+     */
+    private static void assertSplits(Container<Entity> container) {
+        Spliterator<Container.Result> spliterator = container.getResultSpliterator();
+        assertEquals(GROUPS, spliterator.getExactSizeIfKnown());
+        Set<Container.Result> all = collect(spliterator);
+        assertEquals(GROUPS, all.size());
+    }
+
+    private static Set<Container.Result> collect(Spliterator<Container.Result> spliterator) {
+        Set<Container.Result> groups = new HashSet<>();
+        Spliterator<Container.Result> prefix = spliterator.estimateSize() > 100 ? spliterator.trySplit() : null;
+        if (prefix != null) {
+            groups.addAll(collect(prefix));
+            for (Container.Result group : collect(spliterator)) {
+                assertTrue(groups.add(group));
+            }
+        } else {
+            spliterator.forEachRemaining(groups::add);
+        }
+        return groups;
+    }
+
+    public static class Entity {
+
+        @Id
+        public int key;
+
+        @Sum(alias = "sum")
+        public int value;
+
+        public Entity(int key, int value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+    public static class Small {
+
+        @Id(min = 0, max = 999)
+        public int key;
+
+        @Sum(alias = "sum")
+        public int value;
+
+        public Small(int key, int value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+}
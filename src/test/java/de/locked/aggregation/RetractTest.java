@@ -0,0 +1,230 @@
+/*
+ * Copyright 2013 Dr. Franz Graf <info@Locked.de>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.locked.aggregation;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class RetractTest {
+
+    @Test
+    public void testRetractEqualsRecompute() {
+        List<Entity> all = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            all.add(new Entity(i % 3, (i * 7) % 50, i % 11));
+        }
+        Container<Entity> container = new Container<>();
+        container.setRetractable(true);
+        container.setCombinerSize(4);
+        for (Entity entity : all) {
+            container.aggregate(entity);
+        }
+        List<Entity> remaining = new ArrayList<>();
+        for (int i = 0; i < all.size(); i++) {
+            if (i % 4 == 0 || all.get(i).value > 40) {
+                container.retract(all.get(i));
+            } else {
+                remaining.add(all.get(i));
+            }
+        }
+
+        Container<Entity> expected = new Container<>();
+        for (Entity entity : remaining) {
+            expected.aggregate(entity);
+        }
+        assertSame(expected, container);
+    }
+
+    @Test
+    public void testEmptyGroupsAreRemoved() {
+        Container<Entity> container = new Container<>();
+        container.setRetractable(true);
+        container.setCombinerSize(1);
+        container.aggregate(new Entity(1, 5, 1));
+        container.aggregate(new Entity(2, 6, 1));
+        container.aggregate(new Entity(1, 7, 2));
+        container.retract(new Entity(1, 5, 1));
+        container.retract(new Entity(1, 7, 2));
+        assertEquals(1, container.getResults().size());
+
+        // the group is created again and not taken from the combiner
+        container.aggregate(new Entity(1, 3, 4));
+        assertEquals(2, container.getResults().size());
+        for (Container.Result result : container.getResults()) {
+            if (result.getKeys()[0].equals(1)) {
+                assertEquals(1, result.getInt("count"));
+                assertEquals(3, result.getDouble("max"), 0.000d);
+            }
+        }
+    }
+
+    @Test
+    public void testUpdate() {
+        Container<Entity> container = new Container<>();
+        container.setRetractable(true);
+        container.setPartitions(4, 8);
+        container.aggregate(new Entity(1, 5, 1));
+        container.aggregate(new Entity(1, 9, 2));
+        container.update(new Entity(1, 9, 2), new Entity(2, 9, 2));
+
+        Container<Entity> expected = new Container<>();
+        expected.aggregate(new Entity(1, 5, 1));
+        expected.aggregate(new Entity(2, 9, 2));
+        assertSame(expected, container);
+    }
+
+    @Test
+    public void testRetractMergedState() throws Exception {
+        Container<Entity> worker = new Container<>();
+        worker.setRetractable(true);
+        worker.aggregate(new Entity(1, 5, 1));
+        worker.aggregate(new Entity(1, 9, 2));
+        worker.aggregate(new Entity(2, 3, 3));
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        worker.writeState(bytes);
+
+        Container<Entity> container = new Container<>();
+        container.setRetractable(true);
+        container.prepare(Entity.class);
+        container.mergeState(new ByteArrayInputStream(bytes.toByteArray()));
+        container.aggregate(new Entity(1, 7, 4));
+        container.retract(new Entity(1, 9, 2));
+        container.retract(new Entity(2, 3, 3));
+
+        Container<Entity> expected = new Container<>();
+        expected.aggregate(new Entity(1, 5, 1));
+        expected.aggregate(new Entity(1, 7, 4));
+        assertSame(expected, container);
+    }
+
+    @Test
+    public void testMaxOfNegativesAfterEmptying() {
+        AbstractAggregate max = new MaxAggregate().getRetractableInstance();
+        max.apply(-5);
+        ((RetractableAggregate) max).retract(-5);
+        max.apply(-7);
+        assertEquals(-7, max.getDouble(), 0.000d);
+    }
+
+    @Test
+    public void testNotRetractable() {
+        Container<FirstEntity> container = new Container<>();
+        container.setRetractable(true);
+        try {
+            container.aggregate(new FirstEntity());
+            fail("First can't retract values");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage().startsWith("first"));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMergeWithoutCounts() {
+        Container<Entity> container = new Container<>();
+        container.setRetractable(true);
+        container.aggregate(new Entity(1, 5, 1));
+        Container<Entity> other = new Container<>();
+        other.aggregate(new Entity(1, 3, 1));
+        container.merge(other);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testNotEnabled() {
+        Container<Entity> container = new Container<>();
+        container.aggregate(new Entity(1, 5, 1));
+        container.retract(new Entity(1, 5, 1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownGroup() {
+        Container<Entity> container = new Container<>();
+        container.setRetractable(true);
+        container.aggregate(new Entity(1, 5, 1));
+        container.retract(new Entity(2, 5, 1));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testSortedInput() {
+        Container<Entity> container = new Container<>();
+        container.setRetractable(true);
+        container.setSortedInput(new ResultSink() {
+
+            @Override
+            public void accept(Container.Result result) {
+            }
+        }, false);
+        container.aggregate(new Entity(1, 5, 1));
+    }
+
+    private static void assertSame(Container<Entity> expected, Container<Entity> actual) {
+        Map<Object, Container.Result> results = new HashMap<>();
+        for (Container.Result result : actual.getResults()) {
+            results.put(result.getKeys()[0], result);
+        }
+        assertEquals(expected.getResults().size(), results.size());
+        for (Container.Result e : expected.getResults()) {
+            Container.Result a = results.get(e.getKeys()[0]);
+            assertEquals(e.getInt("count"), a.getInt("count"));
+            assertEquals(e.getDouble("sum"), a.getDouble("sum"), 0.0001d);
+            assertEquals(e.getDouble("avg"), a.getDouble("avg"), 0.0001d);
+            assertEquals(e.getDouble("min"), a.getDouble("min"), 0.000d);
+            assertEquals(e.getDouble("max"), a.getDouble("max"), 0.000d);
+            assertEquals(e.getDouble("variance"), a.getDouble("variance"), 0.0001d);
+            assertEquals(e.getDouble("covariance"), a.getDouble("covariance"), 0.0001d);
+            assertEquals(e.getCollection("distinct"), a.getCollection("distinct"));
+        }
+    }
+
+    public static class Entity {
+
+        @Id(order = 0)
+        public int key;
+
+        @Count(alias = "count")
+        @Sum(alias = "sum")
+        @Avg(alias = "avg")
+        @Min(alias = "min")
+        @Max(alias = "max")
+        @Variance(alias = "variance")
+        @Covariance(alias = "covariance", with = "other")
+        public int value;
+
+        @Distinct(alias = "distinct")
+        public int other;
+
+        public Entity(int key, int value, int other) {
+            this.key = key;
+            this.value = value;
+            this.other = other;
+        }
+    }
+
+    public static class FirstEntity {
+
+        @Id(order = 0)
+        public int key;
+
+        @Sum(alias = "sum")
+        @First(alias = "first")
+        public int value;
+    }
+}
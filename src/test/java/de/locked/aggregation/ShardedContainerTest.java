@@ -0,0 +1,122 @@
+/*
+ * Copyright 2013 Dr. Franz Graf <info@Locked.de>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.locked.aggregation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class ShardedContainerTest {
+
+    private static final ContainerFactory<Entity> FACTORY = new ContainerFactory<Entity>() {
+
+        @Override
+        public Container<Entity> create() {
+            return new Container<>();
+        }
+    };
+
+    @Test
+    public void testShardsAreDisjoint() throws Exception {
+        final ShardedContainer<Entity> sharded = new ShardedContainer<>(FACTORY, 4, 64, 8);
+        List<Thread> producers = new ArrayList<>();
+        for (int p = 0; p < 3; p++) {
+            Thread producer = new Thread() {
+
+                @Override
+                public void run() {
+                    for (int i = 0; i < 30_000; i++) {
+                        sharded.aggregate(new Entity(i % 1000, i % 7, 1));
+                    }
+                }
+            };
+            producers.add(producer);
+            producer.start();
+        }
+        for (Thread producer : producers) {
+            producer.join();
+        }
+
+        Container<Entity> single = new Container<>();
+        for (int p = 0; p < 3; p++) {
+            for (int i = 0; i < 30_000; i++) {
+                single.aggregate(new Entity(i % 1000, i % 7, 1));
+            }
+        }
+
+        Set<List<Object>> keys = new HashSet<>();
+        int size = 0;
+        for (Container.Result result : sharded.getResults()) {
+            assertTrue("group in more than one shard", keys.add(Arrays.asList(result.getKeys())));
+            size++;
+        }
+        assertEquals(single.getResults().size(), size);
+        assertEquals(size, sharded.getResults().size());
+        for (Container.Result expected : single.getResults()) {
+            assertTrue(keys.contains(Arrays.asList(expected.getKeys())));
+        }
+        double sum = 0;
+        for (Container.Result result : sharded.getResults()) {
+            sum += result.getDouble("value");
+        }
+        assertEquals(90_000, sum, 0.000d);
+        sharded.close();
+    }
+
+    @Test
+    public void testShardOf() throws Exception {
+        ShardedContainer<Entity> sharded = new ShardedContainer<>(FACTORY, 3, 1, 1);
+        int[] counts = new int[3];
+        for (int i = 0; i < 3000; i++) {
+            int shard = sharded.shardOf(i);
+            assertTrue(shard >= 0 && shard < 3);
+            counts[shard]++;
+        }
+        for (int count : counts) {
+            assertTrue(count > 500);
+        }
+        sharded.close();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testAggregateAfterClose() throws Exception {
+        ShardedContainer<Entity> sharded = new ShardedContainer<>(FACTORY, 2, 10, 2);
+        sharded.close();
+        sharded.aggregate(new Entity(1, 1, 1));
+    }
+
+    public static class Entity {
+
+        @Id(order = 0)
+        public int a;
+
+        @Id(order = 1)
+        public int b;
+
+        @Sum(alias = "value")
+        public int value = 0;
+
+        public Entity(int a, int b, int value) {
+            this.a = a;
+            this.b = b;
+            this.value = value;
+        }
+    }
+}
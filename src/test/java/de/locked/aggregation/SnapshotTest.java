@@ -0,0 +1,97 @@
+/*
+ * Copyright 2013 Dr. Franz Graf <info@Locked.de>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.locked.aggregation;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class SnapshotTest {
+
+    @Test
+    public void testSnapshotDoesNotChange() {
+        Container<Entity> container = new Container<>();
+        container.aggregate(new Entity(1, 2));
+        container.aggregate(new Entity(2, 3));
+        Collection<Container.Result> snapshot = container.snapshot();
+        container.aggregate(new Entity(1, 2));
+        container.aggregate(new Entity(3, 3));
+
+        assertEquals(2, snapshot.size());
+        for (Container.Result result : snapshot) {
+            assertEquals(1, result.getInt("count"));
+        }
+        assertEquals(3, container.getResults().size());
+    }
+
+    @Test
+    public void testConcurrentSnapshots() throws Exception {
+        final Container<Entity> container = new Container<>();
+        container.setConcurrentSnapshots(true);
+        container.setCombinerSize(8);
+        final AtomicBoolean stop = new AtomicBoolean();
+        final AtomicLong written = new AtomicLong();
+        Thread writer = new Thread() {
+
+            @Override
+            public void run() {
+                for (long i = 0; !stop.get(); i++) {
+                    container.aggregate(new Entity((int) (i % 1000), 3));
+                    written.lazySet(i);
+                }
+            }
+        };
+        writer.start();
+        try {
+            long previous = 0;
+            for (int s = 0; s < 50; s++) {
+                long target = written.get() + 10_000;
+                while (written.get() < target) {
+                    Thread.yield();
+                }
+                long total = 0;
+                for (Container.Result result : container.snapshot()) {
+                    int count = result.getInt("count");
+                    // both aggregates are updated by the same aggregate call
+                    assertEquals(3d * count, result.getDouble("sum"), 0.000d);
+                    total += count;
+                }
+                assertTrue(total >= previous);
+                previous = total;
+            }
+        } finally {
+            stop.set(true);
+            writer.join();
+        }
+    }
+
+    public static class Entity {
+
+        @Id(order = 0)
+        public int key;
+
+        @Count(alias = "count")
+        @Sum(alias = "sum")
+        public int value;
+
+        public Entity(int key, int value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2013 Dr. Franz Graf <info@Locked.de>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.locked.aggregation;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class SortedInputTest {
+
+    @Test
+    public void testSortedInput() {
+        Sink sink = new Sink();
+        Container<Entity> container = new Container<>();
+        container.setSortedInput(sink, false);
+        container.aggregate(new Entity(1, "a", 1));
+        container.aggregate(new Entity(1, "a", 2));
+        container.aggregate(new Entity(1, "b", 3));
+        container.aggregate(new Entity(2, "a", 4));
+        assertEquals(2, sink.results.size());
+        assertEquals(1, container.getStats().getGroups());
+        container.aggregate(new Entity(2, "a", 5));
+        container.flush();
+
+        assertEquals(3, sink.results.size());
+        assertArrayEquals(new Object[]{1, "a"}, sink.results.get(0).getKeys());
+        assertEquals(3, sink.results.get(0).getDouble("value"), 0.000d);
+        assertArrayEquals(new Object[]{1, "b"}, sink.results.get(1).getKeys());
+        assertEquals(3, sink.results.get(1).getDouble("value"), 0.000d);
+        assertArrayEquals(new Object[]{2, "a"}, sink.results.get(2).getKeys());
+        assertEquals(9, sink.results.get(2).getDouble("value"), 0.000d);
+        assertTrue(container.getResults().isEmpty());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testUnsortedInput() {
+        Container<Entity> container = new Container<>();
+        container.setSortedInput(new Sink(), false);
+        container.aggregate(new Entity(1, "b", 1));
+        container.aggregate(new Entity(1, "a", 2));
+    }
+
+    @Test
+    public void testFallbackToHash() {
+        Sink sink = new Sink();
+        Container<Entity> container = new Container<>();
+        container.setSortedInput(sink, true);
+        container.aggregate(new Entity(1, "a", 1));
+        container.aggregate(new Entity(2, "a", 2));
+        container.aggregate(new Entity(1, "b", 3));
+        container.aggregate(new Entity(2, "a", 4));
+        container.flush();
+
+        assertEquals(1, sink.results.size());
+        assertArrayEquals(new Object[]{1, "a"}, sink.results.get(0).getKeys());
+        assertEquals(2, container.getResults().size());
+        for (Container.Result entry : container.getResults()) {
+            if (entry.getKeys()[0].equals(2)) {
+                assertEquals(6, entry.getDouble("value"), 0.000d);
+            } else {
+                assertEquals(3, entry.getDouble("value"), 0.000d);
+            }
+        }
+    }
+
+    static class Sink implements ResultSink {
+
+        final List<Container.Result> results = new ArrayList<>();
+
+        @Override
+        public void accept(Container.Result result) {
+            results.add(result);
+        }
+    }
+
+    class Entity {
+
+        @Id(order = 0)
+        public int key1;
+
+        @Id(order = 1)
+        public String key2;
+
+        @Sum(alias = "value")
+        public int value = 0;
+
+        public Entity(int a, String b, int c) {
+            this.key1 = a;
+            this.key2 = b;
+            this.value = c;
+        }
+    }
+}
@@ -0,0 +1,369 @@
+/*
+ * Copyright 2013 Dr. Franz Graf <info@Locked.de>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.locked.aggregation;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class StateReducerTest {
+
+    @Test
+    public void testInProcess() throws Exception {
+        List<Container<Entity>> workers = workers(3);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        for (Container<Entity> worker : workers) {
+            worker.writeState(bytes);
+        }
+        workers.add(new Container<Entity>()); // an empty worker
+        workers.get(3).writeState(bytes);
+
+        StateReducer<Entity> reducer = new StateReducer<>(prepared());
+        InputStream in = new ByteArrayInputStream(bytes.toByteArray());
+        for (int i = 0; i < 4; i++) {
+            reducer.accept(in);
+        }
+        assertEquals(-1, in.read());
+        assertEquals(4, reducer.getPartials());
+        assertSame(expected(), reducer.getResult());
+    }
+
+    @Test
+    public void testLoopback() throws Exception {
+        final List<Container<Entity>> workers = workers(4);
+        try (final ServerSocket server = new ServerSocket(0, 10, InetAddress.getLoopbackAddress())) {
+            List<Thread> senders = new ArrayList<>();
+            for (final Container<Entity> worker : workers) {
+                Thread sender = new Thread() {
+
+                    @Override
+                    public void run() {
+                        try (Socket socket = new Socket(server.getInetAddress(), server.getLocalPort())) {
+                            worker.writeState(socket.getOutputStream());
+                        } catch (IOException ex) {
+                            throw new IllegalStateException(ex);
+                        }
+                    }
+                };
+                senders.add(sender);
+                sender.start();
+            }
+            StateReducer<Entity> reducer = new StateReducer<>(prepared());
+            reducer.accept(server, workers.size());
+            for (Thread sender : senders) {
+                sender.join();
+            }
+            assertSame(expected(), reducer.getResult());
+        }
+    }
+
+    @Test
+    public void testSketch() throws Exception {
+        Container<SketchEntity> a = new Container<>();
+        Container<SketchEntity> b = new Container<>();
+        for (int i = 0; i < 20_000; i++) {
+            a.aggregate(new SketchEntity(i));
+            b.aggregate(new SketchEntity(i + 10_000));
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        a.writeState(bytes);
+        b.writeState(bytes);
+        assertTrue("sketch should be much smaller than the values", bytes.size() < 10_000);
+
+        Container<SketchEntity> result = new Container<>();
+        result.prepare(SketchEntity.class);
+        InputStream in = new ByteArrayInputStream(bytes.toByteArray());
+        result.mergeState(in);
+        result.mergeState(in);
+        assertEquals(30_000, result.getResults().iterator().next().getInt("value"), 30_000 * 0.05);
+    }
+
+    @Test(expected = IOException.class)
+    public void testNoState() throws Exception {
+        new Container<Entity>().mergeState(new ByteArrayInputStream(new byte[]{1, 2, 3, 4, 5}));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testOtherAggregates() throws Exception {
+        Container<SketchEntity> other = new Container<>();
+        other.aggregate(new SketchEntity(1));
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        other.writeState(bytes);
+
+        Container<Entity> container = new Container<>();
+        container.aggregate(new Entity("a", 1, 1, "x"));
+        container.mergeState(new ByteArrayInputStream(bytes.toByteArray()));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testUnprepared() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        workers(1).get(0).writeState(bytes);
+        new Container<Entity>().mergeState(new ByteArrayInputStream(bytes.toByteArray()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testOtherEntityClass() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        workers(1).get(0).writeState(bytes);
+
+        Container<OtherEntity> container = new Container<>();
+        container.prepare(OtherEntity.class);
+        container.mergeState(new ByteArrayInputStream(bytes.toByteArray()));
+    }
+
+    @Test
+    public void testHugeStringLength() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream data = new DataOutputStream(bytes);
+        data.writeInt(StateIO.MAGIC);
+        data.writeByte(StateIO.VERSION);
+        data.writeInt(Integer.MAX_VALUE); // length of the class name
+        try {
+            prepared().mergeState(new ByteArrayInputStream(bytes.toByteArray()));
+            fail("the length must be rejected");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("length"));
+        }
+    }
+
+    @Test
+    public void testTruncatedStateChangesNothing() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        workers(1).get(0).writeState(bytes);
+        byte[] truncated = Arrays.copyOf(bytes.toByteArray(), bytes.size() - 10);
+
+        Container<Entity> container = expected();
+        try {
+            container.mergeState(new ByteArrayInputStream(truncated));
+            fail("the truncated state must be rejected");
+        } catch (IOException e) {
+            // expected
+        }
+        assertSame(expected(), container);
+    }
+
+    @Test(expected = IOException.class)
+    public void testInvalidRegister() throws Exception {
+        byte[] registers = new byte[1 << 11];
+        registers[7] = 55; // ranks go up to 64 - 11 + 1
+        new HyperLogLog().read(new DataInputStream(new ByteArrayInputStream(registers)));
+    }
+
+    @Test(expected = IOException.class)
+    public void testWrongKeyType() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream data = new DataOutputStream(bytes);
+        data.writeInt(StateIO.MAGIC);
+        data.writeByte(StateIO.VERSION);
+        StateIO.writeString(data, Entity.class.getName());
+        data.writeBoolean(false);
+        data.writeInt(2);
+        List<String> aliases = Arrays.asList("count", "sum", "avg", "min", "max", "variance", "tags");
+        data.writeInt(aliases.size());
+        for (String alias : aliases) {
+            StateIO.writeString(data, alias);
+        }
+        data.writeBoolean(true);
+        StateIO.writeValue(data, 1L); // name must be a string
+        prepared().mergeState(new ByteArrayInputStream(bytes.toByteArray()));
+    }
+
+    @Test
+    public void testEnumKeys() throws Exception {
+        Container<EnumEntity> worker = new Container<>();
+        worker.aggregate(new EnumEntity(Thread.State.NEW));
+        worker.aggregate(new EnumEntity(Thread.State.RUNNABLE));
+        worker.aggregate(new EnumEntity(Thread.State.RUNNABLE));
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        worker.writeState(bytes);
+
+        Container<EnumEntity> result = new Container<>();
+        result.prepare(EnumEntity.class);
+        result.mergeState(new ByteArrayInputStream(bytes.toByteArray()));
+        Map<Object, Integer> counts = new HashMap<>();
+        for (Container.Result entry : result.getResults()) {
+            counts.put(entry.getKeys()[0], entry.getInt("count"));
+        }
+        assertEquals(Integer.valueOf(1), counts.get(Thread.State.NEW));
+        assertEquals(Integer.valueOf(2), counts.get(Thread.State.RUNNABLE));
+    }
+
+    @Test
+    public void testUnsupportedKeyWritesNothing() throws Exception {
+        Container<ObjectKeyEntity> container = new Container<>();
+        container.aggregate(new ObjectKeyEntity());
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            container.writeState(bytes);
+            fail("the key can't be written");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        assertEquals(0, bytes.size());
+    }
+
+    private static Container<Entity> prepared() {
+        Container<Entity> container = new Container<>();
+        container.prepare(Entity.class);
+        return container;
+    }
+
+    private static List<Container<Entity>> workers(int count) {
+        List<Container<Entity>> workers = new ArrayList<>();
+        for (int w = 0; w < count; w++) {
+            workers.add(new Container<Entity>());
+        }
+        int i = 0;
+        for (Entity entity : entities()) {
+            workers.get(i++ % count).aggregate(entity);
+        }
+        return workers;
+    }
+
+    private static Container<Entity> expected() {
+        Container<Entity> container = new Container<>();
+        for (Entity entity : entities()) {
+            container.aggregate(entity);
+        }
+        return container;
+    }
+
+    private static List<Entity> entities() {
+        List<Entity> entities = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            entities.add(new Entity(i % 3 == 0 ? null : "name" + (i % 5), i % 4, i * 0.5, "tag" + (i % 7)));
+        }
+        return entities;
+    }
+
+    private static void assertSame(Container<Entity> expected, Container<Entity> actual) {
+        Map<List<Object>, Container.Result> results = new HashMap<>();
+        for (Container.Result result : actual.getResults()) {
+            results.put(Arrays.asList(result.getKeys()), result);
+        }
+        assertEquals(expected.getResults().size(), results.size());
+        for (Container.Result e : expected.getResults()) {
+            Container.Result a = results.get(Arrays.asList(e.getKeys()));
+            assertNotNull(a);
+            assertEquals(e.getInt("count"), a.getInt("count"));
+            assertEquals(e.getDouble("sum"), a.getDouble("sum"), 0.0001d);
+            assertEquals(e.getDouble("avg"), a.getDouble("avg"), 0.0001d);
+            assertEquals(e.getDouble("min"), a.getDouble("min"), 0.000d);
+            assertEquals(e.getDouble("max"), a.getDouble("max"), 0.000d);
+            assertEquals(e.getDouble("variance"), a.getDouble("variance"), 0.0001d);
+            assertEquals(e.getCollection("tags").size(), a.getCollection("tags").size());
+            Collection<?> tags = a.getCollection("tags");
+            assertTrue(tags.containsAll(e.getCollection("tags")));
+        }
+    }
+
+    public static class Entity {
+
+        @Id(order = 0)
+        public String name;
+
+        @Id(order = 1)
+        public int bucket;
+
+        @Count(alias = "count")
+        @Sum(alias = "sum")
+        @Avg(alias = "avg")
+        @Min(alias = "min")
+        @Max(alias = "max")
+        @Variance(alias = "variance")
+        public double value;
+
+        @Distinct(alias = "tags")
+        public String tag;
+
+        public Entity(String name, int bucket, double value, String tag) {
+            this.name = name;
+            this.bucket = bucket;
+            this.value = value;
+            this.tag = tag;
+        }
+    }
+
+    public static class OtherEntity {
+
+        @Id(order = 0)
+        public String name;
+
+        @Id(order = 1)
+        public int bucket;
+
+        @Count(alias = "count")
+        @Sum(alias = "sum")
+        @Avg(alias = "avg")
+        @Min(alias = "min")
+        @Max(alias = "max")
+        @Variance(alias = "variance")
+        public double value;
+
+        @Distinct(alias = "tags")
+        public String tag;
+    }
+
+    public static class EnumEntity {
+
+        @Id(order = 0)
+        public Thread.State state;
+
+        @Count(alias = "count")
+        public int value;
+
+        public EnumEntity(Thread.State state) {
+            this.state = state;
+        }
+    }
+
+    public static class ObjectKeyEntity {
+
+        @Id(order = 0)
+        public Object key = new Object();
+
+        @Count(alias = "count")
+        public int value;
+    }
+
+    public static class SketchEntity {
+
+        @Id(order = 0)
+        public int key = 1;
+
+        @Distinct(alias = "value", maxExact = 1000)
+        public int value;
+
+        public SketchEntity(int value) {
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2013 Dr. Franz Graf <info@Locked.de>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.locked.aggregation;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class VarianceAggregateTest {
+
+    @Test
+    public void testApplication() {
+        Container<Entity> container = new Container<>();
+        container.aggregate(new Entity(1, 2));
+        container.aggregate(new Entity(1, 4));
+        container.aggregate(new Entity(1, 4));
+        container.aggregate(new Entity(1, 4));
+        container.aggregate(new Entity(1, 5));
+        container.aggregate(new Entity(1, 5));
+        container.aggregate(new Entity(1, 7));
+        container.aggregate(new Entity(1, 9));
+        container.aggregate(new Entity(2, 1e9 + 4));
+        container.aggregate(new Entity(2, 1e9 + 7));
+        container.aggregate(new Entity(2, 1e9 + 13));
+        container.aggregate(new Entity(2, 1e9 + 16));
+        container.aggregate(new Entity(3, 10));
+
+        for (Container.Result entry : container.getResults()) {
+            Object key = entry.getKeys()[0];
+            if (key.equals(1)) {
+                assertEquals(32d / 7, entry.getDouble("var"), 0.000001d);
+                assertEquals(Math.sqrt(32d / 7), entry.getDouble("std"), 0.000001d);
+            } else if (key.equals(2)) {
+                assertEquals(30, entry.getDouble("var"), 0.000001d);
+            } else if (key.equals(3)) {
+                assertTrue(Double.isNaN(entry.getDouble("var")));
+            }
+        }
+    }
+
+    @Test
+    public void testMerge() {
+        Container<Entity> left = new Container<>();
+        left.aggregate(new Entity(1, 2));
+        left.aggregate(new Entity(1, 4));
+        left.aggregate(new Entity(1, 4));
+        Container<Entity> right = new Container<>();
+        right.aggregate(new Entity(1, 4));
+        right.aggregate(new Entity(1, 5));
+        right.aggregate(new Entity(1, 5));
+        right.aggregate(new Entity(1, 7));
+        right.aggregate(new Entity(1, 9));
+        left.merge(right);
+
+        Container.Result entry = left.getResults().iterator().next();
+        assertEquals(32d / 7, entry.getDouble("var"), 0.000001d);
+        assertEquals(Math.sqrt(32d / 7), entry.getDouble("std"), 0.000001d);
+    }
+
+    class Entity {
+
+        @Id(order = 0)
+        public int key;
+
+        @Variance(alias = "var")
+        @StdDev(alias = "std")
+        public double value = 0;
+
+        public Entity(int a, double b) {
+            this.key = a;
+            this.value = b;
+        }
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2013 Dr. Franz Graf <info@Locked.de>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.locked.aggregation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class ViewTest {
+
+    private static final String[] COUNTRIES = {"de", "fr", "it"};
+
+    @Test
+    public void testViews() {
+        Container<Sale> container = new Container<>();
+        for (int i = 0; i < 600; i++) {
+            container.aggregate(sale(i));
+        }
+        assertEquals(Arrays.asList("country", "countryDay", "product"), new ArrayList<>(container.getViews()));
+        assertEquals(3 * 5 * 7, container.getResults().size());
+
+        Map<List<Object>, Double> byCountry = new HashMap<>();
+        Map<List<Object>, Double> byCountryDay = new HashMap<>();
+        Map<List<Object>, Double> byProduct = new HashMap<>();
+        for (int i = 0; i < 600; i++) {
+            Sale s = sale(i);
+            add(byCountry, Arrays.<Object>asList(s.country), s.amount);
+            add(byCountryDay, Arrays.<Object>asList(s.country, s.day), s.amount);
+            add(byProduct, Arrays.<Object>asList(s.product), s.amount);
+        }
+        assertView(byCountry, container.getResults("country"));
+        assertView(byCountryDay, container.getResults("countryDay"));
+        assertView(byProduct, container.getResults("product"));
+
+        // the count is restricted to the country view, the max is available everywhere
+        Container.Result de = find(container.getResults("country"), "de");
+        assertEquals(200, de.getInt("count"));
+        assertEquals(99, de.getDouble("max"), 0.000d);
+        Container.Result product = container.getResults("product").iterator().next();
+        assertEquals(2, product.getElements().size());
+        assertEquals(3, de.getElements().size());
+    }
+
+    @Test
+    public void testFieldsAreReadOnce() {
+        final int[] calls = new int[1];
+        Container<Sale> container = new Container<>();
+        container.registerMeasure("double", new SumAggregate(), new Measure<Sale>() {
+
+            @Override
+            public double valueOf(Sale entity) {
+                calls[0]++;
+                return 2 * entity.amount;
+            }
+        });
+        for (int i = 0; i < 100; i++) {
+            container.aggregate(sale(i));
+        }
+        assertEquals(100, calls[0]);
+        double total = 0;
+        for (Container.Result result : container.getResults("product")) {
+            total += result.getDouble("double");
+        }
+        assertEquals(2 * 4950, total, 0.000d);
+    }
+
+    @Test
+    public void testMerge() {
+        Container<Sale> a = new Container<>();
+        Container<Sale> b = new Container<>();
+        for (int i = 0; i < 300; i++) {
+            (i % 2 == 0 ? a : b).aggregate(sale(i));
+        }
+        a.merge(b);
+        Container.Result it = find(a.getResults("country"), "it");
+        assertEquals(100, it.getInt("count"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownView() {
+        Container<Sale> container = new Container<>();
+        container.aggregate(sale(1));
+        container.getResults("day");
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testRetraction() {
+        Container<Sale> container = new Container<>();
+        container.setRetractable(true);
+        container.aggregate(sale(1));
+    }
+
+    private static Sale sale(int i) {
+        return new Sale(COUNTRIES[i % 3], i % 5, i % 7, i % 100);
+    }
+
+    private static void add(Map<List<Object>, Double> sums, List<Object> key, double value) {
+        Double sum = sums.get(key);
+        sums.put(key, (sum == null ? 0 : sum) + value);
+    }
+
+    private static void assertView(Map<List<Object>, Double> expected, Iterable<Container.Result> results) {
+        int groups = 0;
+        for (Container.Result result : results) {
+            assertEquals(expected.get(Arrays.asList(result.getKeys())), result.getDouble("amount"), 0.000d);
+            groups++;
+        }
+        assertEquals(expected.size(), groups);
+    }
+
+    private static Container.Result find(Iterable<Container.Result> results, Object key) {
+        for (Container.Result result : results) {
+            if (result.getKeys()[0].equals(key)) {
+                return result;
+            }
+        }
+        return null;
+    }
+
+    public static class Sale {
+
+        @Id(order = 0, views = {"country", "countryDay"})
+        public String country;
+
+        @Id(order = 1, views = "product")
+        public int product;
+
+        @Id(order = 2, views = "countryDay")
+        public int day;
+
+        @Sum(alias = "amount")
+        @Max(alias = "max")
+        @Count(alias = "count", views = "country")
+        public double amount;
+
+        public Sale(String country, int product, int day, double amount) {
+            this.country = country;
+            this.product = product;
+            this.day = day;
+            this.amount = amount;
+        }
+    }
+}